@@ -20,16 +20,20 @@ package com.googlecode.aviator;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.googlecode.aviator.asm.Opcodes;
+import com.googlecode.aviator.cache.ExpressionCache;
 import com.googlecode.aviator.code.CodeGenerator;
 import com.googlecode.aviator.code.OptimizeCodeGenerator;
 import com.googlecode.aviator.code.asm.ASMCodeGenerator;
+import com.googlecode.aviator.code.interpreter.InterpretCodeGenerator;
 import com.googlecode.aviator.exception.CompileExpressionErrorException;
 import com.googlecode.aviator.exception.ExpressionRuntimeException;
 import com.googlecode.aviator.lexer.ExpressionLexer;
@@ -62,9 +66,11 @@ import com.googlecode.aviator.runtime.function.system.PrintFunction;
 import com.googlecode.aviator.runtime.function.system.PrintlnFunction;
 import com.googlecode.aviator.runtime.function.system.RandomFunction;
 import com.googlecode.aviator.runtime.function.system.SysDateFunction;
+import com.googlecode.aviator.runtime.method.AviatorMethod;
 import com.googlecode.aviator.runtime.type.AviatorBoolean;
 import com.googlecode.aviator.runtime.type.AviatorFunction;
 import com.googlecode.aviator.runtime.type.AviatorNil;
+import com.googlecode.aviator.utils.VariableSchema;
 
 
 /**
@@ -87,9 +93,31 @@ public final class AviatorEvaluator {
      */
     public static final int EVAL = 1;
 
+    /**
+     * Optimized for one-shot expressions,interpret expression by walking a
+     * node tree instead of generating java class
+     */
+    public static final int INTERPRET = 2;
+
+    /**
+     * Tiered execution,expression is interpreted at first and compiled to
+     * java class in background once it has been executed tieredThreshold
+     * times
+     */
+    public static final int TIERED = 3;
+
+    // executions before a tiered expression is compiled to java class
+    private static volatile int tieredThreshold = 1000;
+
+    // executor to compile hot tiered expressions,created lazily
+    private static Executor tieredExecutor;
+
     // optimize level
     private static int optimize = EVAL;
 
+    // whether a null or missing property in dotted variable yields nil
+    private static volatile boolean nilSafeNavigation = false;
+
     /**
      * Aviator version
      */
@@ -110,7 +138,11 @@ public final class AviatorEvaluator {
         });
     }
 
-    public final static Map<String, Object> FUNC_MAP = new HashMap<String, Object>();
+    /**
+     * Function registry,it is never copied into the execute environment but
+     * resolved through a read-through view
+     */
+    public final static Map<String, Object> FUNC_MAP = new ConcurrentHashMap<String, Object>();
 
     static {
         // Load internal functions
@@ -165,31 +197,92 @@ public final class AviatorEvaluator {
     }
 
     /**
-     * Compiled Expression cache
+     * Compiled Expression cache,unbounded by default
      */
-    private final static ConcurrentHashMap<String/* text expression */, FutureTask<Expression>/*
-                                                                                               * Compiled
-                                                                                               * expression
-                                                                                               * task
-                                                                                               */> cacheExpressions =
-            new ConcurrentHashMap<String, FutureTask<Expression>>();
+    private static volatile ExpressionCache expressionCache = new ExpressionCache();
 
 
     /**
      * set optimize level,default AviatorEvaluator.COMPILE
      * 
-     * @see COMPILE,EVAL
+     * @see COMPILE,EVAL,INTERPRET,TIERED
      * 
      * @param value
      */
     public static void setOptimize(int value) {
-        if (value != COMPILE && value != EVAL) {
+        if (value != COMPILE && value != EVAL && value != INTERPRET && value != TIERED) {
             throw new IllegalArgumentException("Invlaid optimize option value");
         }
         optimize = value;
     }
 
 
+    /**
+     * Set how many times a tiered expression is executed before it is
+     * compiled to java class,default 1000
+     * 
+     * @see TIERED
+     * @param threshold
+     */
+    public static void setTieredThreshold(int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Invalid tiered threshold " + threshold);
+        }
+        tieredThreshold = threshold;
+    }
+
+
+    public static int getTieredThreshold() {
+        return tieredThreshold;
+    }
+
+
+    /**
+     * Set nil-safe navigation of dotted variables,default is false.When it is
+     * true,a variable such as "a.b.c" is nil if "a" or "a.b" is null or has
+     * no such property,instead of throwing ExpressionRuntimeException.
+     * 
+     * @param value
+     */
+    public static void setNilSafeNavigation(boolean value) {
+        nilSafeNavigation = value;
+    }
+
+
+    public static boolean isNilSafeNavigation() {
+        return nilSafeNavigation;
+    }
+
+
+    /**
+     * Set the executor to compile hot tiered expressions,default is a single
+     * daemon thread
+     * 
+     * @see TIERED
+     * @param executor
+     */
+    public static synchronized void setTieredExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Null tiered executor");
+        }
+        tieredExecutor = executor;
+    }
+
+
+    static synchronized void submitTieredCompilation(Runnable task) {
+        if (tieredExecutor == null) {
+            tieredExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "aviator-tiered-compiler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        tieredExecutor.execute(task);
+    }
+
+
     public static void setBYTECODE_VER(int nversion) {
         BYTECODE_VER = nversion;
     }
@@ -201,7 +294,26 @@ public final class AviatorEvaluator {
 
 
     public static void clearExpressionCache() {
-        cacheExpressions.clear();
+        expressionCache.clear();
+    }
+
+
+    /**
+     * Set the compiled expression cache,for example a size bounded one
+     * 
+     * @see ExpressionCache
+     * @param cache
+     */
+    public static void setExpressionCache(ExpressionCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Null expression cache");
+        }
+        expressionCache = cache;
+    }
+
+
+    public static ExpressionCache getExpressionCache() {
+        return expressionCache;
     }
 
 
@@ -217,6 +329,7 @@ public final class AviatorEvaluator {
      */
     public static void addFunction(AviatorFunction function) {
         FUNC_MAP.put(function.getName(), function);
+        AviatorMethod.invalidate();
     }
 
 
@@ -227,7 +340,9 @@ public final class AviatorEvaluator {
      * @return
      */
     public static AviatorFunction removeFunction(String name) {
-        return (AviatorFunction) FUNC_MAP.remove(name);
+        final AviatorFunction function = (AviatorFunction) FUNC_MAP.remove(name);
+        AviatorMethod.invalidate();
+        return function;
     }
 
 
@@ -262,23 +377,17 @@ public final class AviatorEvaluator {
         }
 
         if (cached) {
-            FutureTask<Expression> task = cacheExpressions.get(expression);
-            if (task != null) {
-                return getCompiledExpression(expression, task);
-            }
-            task = new FutureTask<Expression>(new Callable<Expression>() {
-                public Expression call() throws Exception {
-                    return innerCompile(expression);
-                }
+            try {
+                return expressionCache.get(expression, new Callable<Expression>() {
+                    public Expression call() throws Exception {
+                        return innerCompile(expression);
+                    }
 
-            });
-            FutureTask<Expression> existedTask = cacheExpressions.putIfAbsent(expression, task);
-            if (existedTask == null) {
-                existedTask = task;
-                existedTask.run();
+                });
+            }
+            catch (Exception e) {
+                throw new CompileExpressionErrorException("Compile expression failure:" + expression, e);
             }
-            return getCompiledExpression(expression, existedTask);
-
         }
         else {
             return innerCompile(expression);
@@ -287,25 +396,35 @@ public final class AviatorEvaluator {
     }
 
 
-    private static Expression getCompiledExpression(final String expression, FutureTask<Expression> task) {
-        try {
-            return task.get();
-        }
-        catch (Exception e) {
-            cacheExpressions.remove(expression);
-            throw new CompileExpressionErrorException("Compile expression failure:" + expression, e);
+    private static Expression innerCompile(final String expression) {
+        Expression result = innerCompile(expression, newCodeGenerator());
+        if (optimize == TIERED && !(result instanceof LiteralExpression)) {
+            result = new TieredExpression(expression, result, tieredThreshold);
         }
+        return result;
     }
 
 
-    private static Expression innerCompile(final String expression) {
+    private static Expression innerCompile(final String expression, CodeGenerator codeGenerator) {
         ExpressionLexer lexer = new ExpressionLexer(expression);
-        CodeGenerator codeGenerator = newCodeGenerator();
         ExpressionParser parser = new ExpressionParser(lexer, codeGenerator);
         return parser.parse();
     }
 
 
+    /**
+     * Compile expression to java class with optimizing,used to promote hot
+     * tiered expressions
+     * 
+     * @param expression
+     * @return
+     */
+    static Expression compileToClass(final String expression) {
+        return innerCompile(expression, new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System
+            .getProperty("aviator.asm.trace", "false"))));
+    }
+
+
     private static CodeGenerator newCodeGenerator() {
         switch (optimize) {
         case COMPILE:
@@ -314,6 +433,9 @@ public final class AviatorEvaluator {
         case EVAL:
             return new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty(
                 "aviator.asm.trace", "false")));
+        case INTERPRET:
+        case TIERED:
+            return new InterpretCodeGenerator();
         default:
             throw new IllegalArgumentException("Unknow option " + optimize);
         }
@@ -321,6 +443,170 @@ public final class AviatorEvaluator {
     }
 
 
+    /**
+     * Compile a text expression against a variable schema without caching.The
+     * variables are resolved to fixed indexes at compile time,so executing
+     * with an Object[] of values doesn't need any map lookup.Variables not in
+     * the schema are still looked up by name.Tiered option compiles it to java
+     * class directly.
+     * 
+     * @param expression
+     *            text expression
+     * @param variableNames
+     *            variable names,the values are passed in this order
+     * @return
+     */
+    public static IndexedExpression compile(String expression, String[] variableNames) {
+        return compile(expression, variableNames, null);
+    }
+
+
+    /**
+     * Compile a text expression against a variable schema with declared
+     * variable types.Arithmetic,comparison and logic operations on variables
+     * of long,double and boolean types(or their wrappers) are compiled to
+     * primitive instructions,the result is boxed only once.Values of declared
+     * types must not be null.
+     * 
+     * @see #compile(String, String[])
+     * @param expression
+     *            text expression
+     * @param variableNames
+     *            variable names,the values are passed in this order
+     * @param variableTypes
+     *            declared variable types,null element means the type is
+     *            unknown
+     * @return
+     */
+    public static IndexedExpression compile(String expression, String[] variableNames, Class<?>[] variableTypes) {
+        if (expression == null || expression.trim().length() == 0) {
+            throw new CompileExpressionErrorException("Blank expression");
+        }
+        final VariableSchema schema = new VariableSchema(variableNames, variableTypes);
+        CodeGenerator codeGenerator;
+        switch (optimize) {
+        case INTERPRET:
+            InterpretCodeGenerator interpretCodeGenerator = new InterpretCodeGenerator();
+            interpretCodeGenerator.setVariableSchema(schema);
+            codeGenerator = interpretCodeGenerator;
+            break;
+        case COMPILE:
+            ASMCodeGenerator asmCodeGenerator =
+                    new ASMCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty(
+                        "aviator.asm.trace", "false")));
+            asmCodeGenerator.setVariableSchema(schema);
+            codeGenerator = asmCodeGenerator;
+            break;
+        default:
+            OptimizeCodeGenerator optimizeCodeGenerator =
+                    new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty(
+                        "aviator.asm.trace", "false")));
+            optimizeCodeGenerator.setVariableSchema(schema);
+            codeGenerator = optimizeCodeGenerator;
+            break;
+        }
+        return new IndexedExpression(innerCompile(expression, codeGenerator), schema);
+    }
+
+
+    /**
+     * Compile a text expression with some variables bound to constant values
+     * without caching.The constants are substituted as literals,so
+     * comparisons and branches depending only on them are evaluated at compile
+     * time.It is compiled to java class with optimizing regardless of the
+     * optimize option.
+     * 
+     * @param expression
+     *            text expression
+     * @param constants
+     *            bound variables,values must be numbers,strings,booleans or
+     *            null
+     * @return
+     */
+    public static Expression compile(String expression, Map<String, Object> constants) {
+        if (expression == null || expression.trim().length() == 0) {
+            throw new CompileExpressionErrorException("Blank expression");
+        }
+        OptimizeCodeGenerator codeGenerator =
+                new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty("aviator.asm.trace",
+                    "false")));
+        codeGenerator.setConstants(constants);
+        return innerCompile(expression, codeGenerator);
+    }
+
+
+    /**
+     * Compile expressions into a rule set without caching,all rules are
+     * compiled into one java class with optimizing regardless of the optimize
+     * option.
+     * 
+     * @see RuleSet
+     * @param expressions
+     *            text expressions of rules
+     * @return
+     */
+    public static RuleSet compileRuleSet(List<String> expressions) {
+        if (expressions == null || expressions.isEmpty()) {
+            throw new CompileExpressionErrorException("Empty rule set");
+        }
+        OptimizeCodeGenerator codeGenerator =
+                new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty("aviator.asm.trace",
+                    "false")));
+        for (String expression : expressions) {
+            if (expression == null || expression.trim().length() == 0) {
+                throw new CompileExpressionErrorException("Blank expression");
+            }
+            new ExpressionParser(new ExpressionLexer(expression), codeGenerator).parseWithoutResult();
+            codeGenerator.onRuleEnd();
+        }
+        return codeGenerator.getRuleSetResult(expressions);
+    }
+
+
+    /**
+     * Compile a text expression evaluated over columns of variable values
+     * without caching.Each variable is bound to a column of long[],double[],
+     * boolean[] or Object[],arithmetic,comparison and logic operations on
+     * primitive columns are compiled to primitive instructions in a loop over
+     * rows.It is compiled to java class with optimizing regardless of the
+     * optimize option.
+     * 
+     * @see ColumnarExpression
+     * @param expression
+     *            text expression
+     * @param variableNames
+     *            variable names,the columns are passed in this order
+     * @param columnTypes
+     *            column types,long[].class,double[].class,boolean[].class or
+     *            Object[].class
+     * @return
+     */
+    public static ColumnarExpression compileColumnar(String expression, String[] variableNames,
+            Class<?>[] columnTypes) {
+        if (expression == null || expression.trim().length() == 0) {
+            throw new CompileExpressionErrorException("Blank expression");
+        }
+        if (variableNames == null || columnTypes == null || columnTypes.length != variableNames.length) {
+            throw new IllegalArgumentException("Column types don't match variable names");
+        }
+        final Class<?>[] variableTypes = new Class<?>[columnTypes.length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (columnTypes[i] != long[].class && columnTypes[i] != double[].class
+                    && columnTypes[i] != boolean[].class && columnTypes[i] != Object[].class) {
+                throw new IllegalArgumentException("Invalid column type " + columnTypes[i] + " of "
+                        + variableNames[i]);
+            }
+            variableTypes[i] = columnTypes[i].getComponentType();
+        }
+        OptimizeCodeGenerator codeGenerator =
+                new OptimizeCodeGenerator(aviatorClassLoader, Boolean.valueOf(System.getProperty("aviator.asm.trace",
+                    "false")));
+        codeGenerator.setVariableSchema(new VariableSchema(variableNames, variableTypes));
+        new ExpressionParser(new ExpressionLexer(expression), codeGenerator).parseWithoutResult();
+        return codeGenerator.getColumnarResult();
+    }
+
+
     /**
      * Compile a text expression to Expression Object without caching
      * 
@@ -371,9 +657,7 @@ public final class AviatorEvaluator {
      * @param expression
      */
     public static void invalidateCache(String expression) {
-        synchronized (cacheExpressions) {
-            cacheExpressions.remove(expression);
-        }
+        expressionCache.invalidate(expression);
     }
 
 
@@ -0,0 +1,179 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.util.Map;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.exception.ResultTypeMismatchException;
+import com.googlecode.aviator.utils.Env;
+import com.googlecode.aviator.utils.TypeUtils;
+
+
+/**
+ * Base class of compiled expressions,it wraps the caller's variables and
+ * function registry into a read-through Env and wraps any failure into
+ * ExpressionRuntimeException,except the result type mismatch of the primitive
+ * execute methods.
+ * 
+ * @author dennis
+ * 
+ */
+public abstract class BaseExpression implements Expression {
+
+    public BaseExpression() {
+        super();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.googlecode.aviator.IExpression#execute(java.util.Map)
+     */
+    public Object execute(Map<String, Object> env) {
+        // Read through view,variables first and then functions
+        return executeWithEnv(new Env(env, AviatorEvaluator.FUNC_MAP));
+    }
+
+
+    /**
+     * Execute expression with a prepared environment
+     * 
+     * @param runEnv
+     * @return
+     */
+    Object executeWithEnv(Env runEnv) {
+        try {
+            return this.execute0(runEnv);
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute expression error", e);
+        }
+    }
+
+
+    /**
+     * Execute expression with environment,implemented by subclasses
+     * 
+     * @param env
+     * @return
+     */
+    protected abstract Object execute0(Env env);
+
+
+    public boolean executeBoolean(Map<String, Object> env) {
+        return executeBooleanWithEnv(new Env(env, AviatorEvaluator.FUNC_MAP));
+    }
+
+
+    public long executeLong(Map<String, Object> env) {
+        return executeLongWithEnv(new Env(env, AviatorEvaluator.FUNC_MAP));
+    }
+
+
+    public double executeDouble(Map<String, Object> env) {
+        return executeDoubleWithEnv(new Env(env, AviatorEvaluator.FUNC_MAP));
+    }
+
+
+    boolean executeBooleanWithEnv(Env runEnv) {
+        try {
+            return this.executeBoolean0(runEnv);
+        }
+        catch (ResultTypeMismatchException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute expression error", e);
+        }
+    }
+
+
+    long executeLongWithEnv(Env runEnv) {
+        try {
+            return this.executeLong0(runEnv);
+        }
+        catch (ResultTypeMismatchException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute expression error", e);
+        }
+    }
+
+
+    double executeDoubleWithEnv(Env runEnv) {
+        try {
+            return this.executeDouble0(runEnv);
+        }
+        catch (ResultTypeMismatchException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute expression error", e);
+        }
+    }
+
+
+    /**
+     * Execute expression and returns boolean result,subclasses override it to
+     * avoid boxing
+     * 
+     * @param env
+     * @return
+     */
+    protected boolean executeBoolean0(Env env) {
+        return TypeUtils.booleanValue(execute0(env));
+    }
+
+
+    /**
+     * Execute expression and returns long result,subclasses override it to
+     * avoid boxing
+     * 
+     * @param env
+     * @return
+     */
+    protected long executeLong0(Env env) {
+        return TypeUtils.longValue(execute0(env));
+    }
+
+
+    /**
+     * Execute expression and returns double result,subclasses override it to
+     * avoid boxing
+     * 
+     * @param env
+     * @return
+     */
+    protected double executeDouble0(Env env) {
+        return TypeUtils.doubleValue(execute0(env));
+    }
+
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.googlecode.aviator.IExpression#execute()
+     */
+    public Object execute() {
+        return execute(null);
+    }
+}
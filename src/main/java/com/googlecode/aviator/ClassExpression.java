@@ -18,76 +18,19 @@
  **/
 package com.googlecode.aviator;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
-
-import com.googlecode.aviator.exception.ExpressionRuntimeException;
-
 
 /**
- * Compiled expression,encapsulate a java class generated by expression string
+ * Compiled expression,the base class of java classes generated by expression
+ * string.Generated classes implement execute0 directly,so executing a
+ * expression is a plain virtual call into generated code.
  * 
  * @author dennis
  * 
  */
-public class ClassExpression implements Expression {
-    private final Class<?> clazz;
-    private final Method runMethod;
+public abstract class ClassExpression extends BaseExpression {
 
-
-    public ClassExpression(Class<?> clazz) throws NoSuchMethodException, SecurityException {
+    public ClassExpression() {
         super();
-        this.clazz = clazz;
-        this.runMethod = clazz.getDeclaredMethod("run", Map.class);
-        this.runMethod.setAccessible(true);
-    }
-
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.googlecode.aviator.IExpression#execute(java.util.Map)
-     */
-    public Object execute(Map<String, Object> env) {
-        if (env == null) {
-            env = new HashMap<String, Object>(AviatorEvaluator.FUNC_MAP);
-        }
-        else {
-            env = new HashMap<String, Object>(env);
-            for (String variableName : env.keySet()) {
-                if (AviatorEvaluator.FUNC_MAP.containsKey(variableName)) {
-                    throw new ExpressionRuntimeException(variableName
-                            + " is a function name,please don't use it as variable");
-                }
-            }
-            env.putAll(AviatorEvaluator.FUNC_MAP);
-        }
-        try {
-            return this.runMethod.invoke(null, env);
-        }
-        catch (InvocationTargetException e) {
-            if (e.getCause() != null) {
-                throw new ExpressionRuntimeException("Execute expression error", e.getCause());
-            }
-            else {
-                throw new ExpressionRuntimeException("Execute expression error", e);
-            }
-        }
-        catch (Throwable e) {
-            throw new ExpressionRuntimeException("Execute expression error", e);
-        }
-    }
-
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.googlecode.aviator.IExpression#execute()
-     */
-    public Object execute() {
-        return execute(null);
     }
 
 
@@ -97,6 +40,6 @@ public class ClassExpression implements Expression {
      * @return
      */
     public Class<?> getJavaClass() {
-        return this.clazz;
+        return this.getClass();
     }
 }
@@ -0,0 +1,195 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.utils.Env;
+import com.googlecode.aviator.utils.VariableSchema;
+
+
+/**
+ * Expression evaluated over columns of variable values,the base class of java
+ * classes generated by columnar expressions.Each variable in schema is bound
+ * to a column(long[],double[],boolean[] or Object[]),the generated code is a
+ * counted loop over rows reading primitive array elements and writing results
+ * to an output column,so that numeric and boolean expressions are evaluated
+ * without any AviatorObject allocation and the loop is a candidate for
+ * auto-vectorization.Variables not in schema are looked up in the
+ * environment,which is shared by all rows of a batch.
+ * 
+ * @see AviatorEvaluator#compileColumnar(String, String[], Class[])
+ * @author dennis
+ * 
+ */
+public abstract class ColumnarExpression {
+    private final VariableSchema schema;
+    private final Class<?>[] columnTypes;
+    private final Class<?> resultType;
+
+
+    protected ColumnarExpression(VariableSchema schema, Class<?> resultType) {
+        super();
+        this.schema = schema;
+        this.resultType = resultType;
+        this.columnTypes = new Class<?>[schema.size()];
+        for (int i = 0; i < this.columnTypes.length; i++) {
+            this.columnTypes[i] = Array.newInstance(schema.getType(i), 0).getClass();
+        }
+    }
+
+
+    /**
+     * Returns the type of output column,long[],double[],boolean[] or Object[]
+     * 
+     * @return
+     */
+    public Class<?> getResultType() {
+        return this.resultType;
+    }
+
+
+    /**
+     * Create an output column for rows
+     * 
+     * @param rows
+     * @return
+     */
+    public Object newResultColumn(int rows) {
+        return Array.newInstance(this.resultType.getComponentType(), rows);
+    }
+
+
+    public void execute(Object[] columns, int rows, Object output) {
+        execute(null, columns, rows, output);
+    }
+
+
+    /**
+     * Evaluate expression for rows [0,rows) and store results to output column
+     * 
+     * @param env
+     *            variables not in schema,could be null
+     * @param columns
+     *            columns in the order of variable names
+     * @param rows
+     * @param output
+     *            output column of result type
+     */
+    public void execute(Map<String, Object> env, Object[] columns, int rows, Object output) {
+        checkColumns(columns, rows);
+        if (!this.resultType.isInstance(output) || Array.getLength(output) < rows) {
+            throw new IllegalArgumentException("Expect output column " + this.resultType.getSimpleName() + " of "
+                    + rows + " rows");
+        }
+        try {
+            this.execute0(new Env(env, AviatorEvaluator.FUNC_MAP), columns, rows, output);
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute expression error", e);
+        }
+    }
+
+
+    public int select(Object[] columns, int rows, long[] selection) {
+        return select(null, columns, rows, selection);
+    }
+
+
+    /**
+     * Evaluate a boolean expression for rows [0,rows),bit i of selection is
+     * set if the result of row i is true
+     * 
+     * @param env
+     *            variables not in schema,could be null
+     * @param columns
+     *            columns in the order of variable names
+     * @param rows
+     * @param selection
+     *            bitmap of rows,bit i is bit (i & 63) of selection[i >>> 6]
+     * @return the number of selected rows
+     */
+    public int select(Map<String, Object> env, Object[] columns, int rows, long[] selection) {
+        if (this.resultType != boolean[].class && this.resultType != Object[].class) {
+            throw new IllegalStateException("Expression of " + this.resultType.getSimpleName()
+                    + " result can't select rows");
+        }
+        if (selection == null || selection.length < (rows + 63) >>> 6) {
+            throw new IllegalArgumentException("Expect selection bitmap of " + rows + " rows");
+        }
+        final Object output = newResultColumn(rows);
+        execute(env, columns, rows, output);
+        int count = 0;
+        for (int word = 0; word << 6 < rows; word++) {
+            long bits = 0;
+            final int end = Math.min(rows, (word + 1) << 6);
+            if (output instanceof boolean[]) {
+                final boolean[] results = (boolean[]) output;
+                for (int i = word << 6; i < end; i++) {
+                    if (results[i]) {
+                        bits |= 1L << i;
+                    }
+                }
+            }
+            else {
+                final Object[] results = (Object[]) output;
+                for (int i = word << 6; i < end; i++) {
+                    if (Boolean.TRUE.equals(results[i])) {
+                        bits |= 1L << i;
+                    }
+                }
+            }
+            selection[word] = bits;
+            count += Long.bitCount(bits);
+        }
+        return count;
+    }
+
+
+    private void checkColumns(Object[] columns, int rows) {
+        if (columns == null || columns.length != this.columnTypes.length) {
+            throw new IllegalArgumentException("Expect " + this.columnTypes.length + " columns,but was "
+                    + (columns == null ? 0 : columns.length));
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!this.columnTypes[i].isInstance(columns[i]) || Array.getLength(columns[i]) < rows) {
+                throw new IllegalArgumentException("Expect column " + this.schema.getNames()[i] + " of "
+                        + this.columnTypes[i].getSimpleName() + " with " + rows + " rows");
+            }
+        }
+    }
+
+
+    /**
+     * Evaluate rows [0,rows),implemented by subclasses
+     * 
+     * @param env
+     * @param columns
+     * @param rows
+     * @param output
+     */
+    protected abstract void execute0(Env env, Object[] columns, int rows, Object output);
+
+
+    public String[] getVariableNames() {
+        return this.schema.getNames();
+    }
+}
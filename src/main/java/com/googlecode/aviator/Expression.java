@@ -46,4 +46,43 @@ public interface Expression {
      */
     public abstract Object execute();
 
-}
\ No newline at end of file
+
+    /**
+     * Execute a boolean expression with environment,without boxing the
+     * result if it is known to be boolean when compiling.
+     * 
+     * @param env
+     *            Binding variable environment
+     * @return
+     * @throws com.googlecode.aviator.exception.ResultTypeMismatchException
+     *             if result is not a boolean
+     */
+    public abstract boolean executeBoolean(Map<String, Object> env);
+
+
+    /**
+     * Execute a numeric expression with environment,the result is converted
+     * to long
+     * 
+     * @param env
+     *            Binding variable environment
+     * @return
+     * @throws com.googlecode.aviator.exception.ResultTypeMismatchException
+     *             if result is not a number
+     */
+    public abstract long executeLong(Map<String, Object> env);
+
+
+    /**
+     * Execute a numeric expression with environment,the result is converted
+     * to double
+     * 
+     * @param env
+     *            Binding variable environment
+     * @return
+     * @throws com.googlecode.aviator.exception.ResultTypeMismatchException
+     *             if result is not a number
+     */
+    public abstract double executeDouble(Map<String, Object> env);
+
+}
@@ -0,0 +1,139 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.util.Map;
+
+import com.googlecode.aviator.utils.SlotEnv;
+import com.googlecode.aviator.utils.VariableSchema;
+
+
+/**
+ * Expression compiled against a variable schema,it executes with an Object[]
+ * of variable values in schema order.Executing with a Map is still
+ * supported,variables are looked up by name then.
+ * 
+ * @see AviatorEvaluator#compile(String, String[])
+ * @author dennis
+ * 
+ */
+public class IndexedExpression implements Expression {
+    private final Expression expression;
+    private final VariableSchema schema;
+
+
+    public IndexedExpression(Expression expression, VariableSchema schema) {
+        super();
+        this.expression = expression;
+        this.schema = schema;
+    }
+
+
+    /**
+     * Execute expression with variable values
+     * 
+     * @param values
+     *            variable values in the order of variable names
+     * @return
+     */
+    public Object execute(Object[] values) {
+        checkValues(values);
+        if (this.expression instanceof BaseExpression) {
+            return ((BaseExpression) this.expression).executeWithEnv(newEnv(values));
+        }
+        // literal expression
+        return this.expression.execute();
+    }
+
+
+    public boolean executeBoolean(Object[] values) {
+        checkValues(values);
+        if (this.expression instanceof BaseExpression) {
+            return ((BaseExpression) this.expression).executeBooleanWithEnv(newEnv(values));
+        }
+        return this.expression.executeBoolean(null);
+    }
+
+
+    public long executeLong(Object[] values) {
+        checkValues(values);
+        if (this.expression instanceof BaseExpression) {
+            return ((BaseExpression) this.expression).executeLongWithEnv(newEnv(values));
+        }
+        return this.expression.executeLong(null);
+    }
+
+
+    public double executeDouble(Object[] values) {
+        checkValues(values);
+        if (this.expression instanceof BaseExpression) {
+            return ((BaseExpression) this.expression).executeDoubleWithEnv(newEnv(values));
+        }
+        return this.expression.executeDouble(null);
+    }
+
+
+    private void checkValues(Object[] values) {
+        if (values == null || values.length != this.schema.size()) {
+            throw new IllegalArgumentException("Expect " + this.schema.size() + " variable values,but was "
+                    + (values == null ? 0 : values.length));
+        }
+    }
+
+
+    private SlotEnv newEnv(Object[] values) {
+        return new SlotEnv(this.schema, values, AviatorEvaluator.FUNC_MAP);
+    }
+
+
+    public Object execute(Map<String, Object> env) {
+        return this.expression.execute(env);
+    }
+
+
+    public Object execute() {
+        return this.expression.execute();
+    }
+
+
+    public boolean executeBoolean(Map<String, Object> env) {
+        return this.expression.executeBoolean(env);
+    }
+
+
+    public long executeLong(Map<String, Object> env) {
+        return this.expression.executeLong(env);
+    }
+
+
+    public double executeDouble(Map<String, Object> env) {
+        return this.expression.executeDouble(env);
+    }
+
+
+    public String[] getVariableNames() {
+        return this.schema.getNames();
+    }
+
+
+    public Expression getExpression() {
+        return this.expression;
+    }
+
+}
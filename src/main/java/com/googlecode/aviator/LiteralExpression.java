@@ -19,6 +19,8 @@ package com.googlecode.aviator;
  **/
 import java.util.Map;
 
+import com.googlecode.aviator.utils.TypeUtils;
+
 
 /**
  * A literal expression with a fixed result
@@ -45,4 +47,19 @@ public class LiteralExpression implements Expression {
         return result;
     }
 
+
+    public boolean executeBoolean(Map<String, Object> env) {
+        return TypeUtils.booleanValue(result);
+    }
+
+
+    public long executeLong(Map<String, Object> env) {
+        return TypeUtils.longValue(result);
+    }
+
+
+    public double executeDouble(Map<String, Object> env) {
+        return TypeUtils.doubleValue(result);
+    }
+
 }
@@ -0,0 +1,316 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.aviator.lexer.token.OperatorType;
+
+
+/**
+ * Discrimination index of a rule set,like the alpha network of Rete.Top
+ * level conjuncts of a rule comparing a variable with a literal are
+ * indexed,equalities by a hash map of literal values and ranges by sorted
+ * bounds.A rule is not executed if any of it's indexed conjuncts is false,it's
+ * result is false then.A conjunct is only considered false if the variable
+ * value is of the literal's kind(string,number or boolean),otherwise the rule
+ * is executed and fails or compares as usual.
+ * 
+ * @author dennis
+ * 
+ */
+public class RuleIndex {
+    private static final int STRING = 0;
+    private static final int NUMBER = 1;
+    private static final int BOOLEAN = 2;
+
+    // Numbers are indexed if they are exact as double
+    private static final double MAX_EXACT = 9007199254740992.0;
+
+    private int ruleCount;
+
+    private final Map<String, VariableIndex> variables = new LinkedHashMap<String, VariableIndex>();
+
+    // Rules having indexed conjuncts
+    private final BitSet indexedRules = new BitSet();
+
+    // All rules are candidates,never modified
+    private boolean[] allRules;
+
+    /**
+     * Indexed conjuncts on one variable
+     */
+    private static class VariableIndex {
+        // Rules having equality conjuncts by literal kind
+        final BitSet[] equalityRules = { new BitSet(), new BitSet(), new BitSet() };
+        // Normalized literal -> rules whose equality conjunct is true for it
+        final Map<Object, BitSet> equalities = new HashMap<Object, BitSet>();
+        // Bounds of "variable > bound" and "variable >= bound"
+        final List<Bound> lowerBounds = new ArrayList<Bound>();
+        // Bounds of "variable < bound" and "variable <= bound"
+        final List<Bound> upperBounds = new ArrayList<Bound>();
+    }
+
+    private static class Bound {
+        final int rule;
+        final double value;
+        final boolean inclusive;
+
+
+        public Bound(int rule, double value, boolean inclusive) {
+            super();
+            this.rule = rule;
+            this.value = value;
+            this.inclusive = inclusive;
+        }
+    }
+
+    private static final Comparator<Bound> BOUND_COMPARATOR = new Comparator<Bound>() {
+        public int compare(Bound o1, Bound o2) {
+            return Double.compare(o1.value, o2.value);
+        }
+    };
+
+
+    public RuleIndex() {
+        super();
+    }
+
+
+    private VariableIndex getVariableIndex(String variable) {
+        VariableIndex index = this.variables.get(variable);
+        if (index == null) {
+            index = new VariableIndex();
+            this.variables.put(variable, index);
+        }
+        return index;
+    }
+
+
+    /**
+     * Index conjunct "variable == literal" of rule
+     * 
+     * @param rule
+     * @param variable
+     * @param literal
+     *            string,number or boolean
+     * @return false if the literal can't be indexed
+     */
+    public boolean addEquality(int rule, String variable, Object literal) {
+        final int kind = getKind(literal);
+        final Object key = normalize(literal);
+        if (kind < 0 || key == null) {
+            return false;
+        }
+        final VariableIndex index = getVariableIndex(variable);
+        index.equalityRules[kind].set(rule);
+        BitSet rules = index.equalities.get(key);
+        if (rules == null) {
+            rules = new BitSet();
+            index.equalities.put(key, rules);
+        }
+        rules.set(rule);
+        this.indexedRules.set(rule);
+        return true;
+    }
+
+
+    /**
+     * Index conjunct "variable op bound" of rule
+     * 
+     * @param rule
+     * @param variable
+     * @param operatorType
+     *            GT,GE,LT or LE
+     * @param bound
+     * @return false if the bound can't be indexed
+     */
+    public boolean addRange(int rule, String variable, OperatorType operatorType, Number bound) {
+        if (getKind(bound) != NUMBER || normalize(bound) == null) {
+            return false;
+        }
+        final VariableIndex index = getVariableIndex(variable);
+        final double value = bound.doubleValue();
+        switch (operatorType) {
+        case GT:
+        case GE:
+            index.lowerBounds.add(new Bound(rule, value, operatorType == OperatorType.GE));
+            break;
+        case LT:
+        case LE:
+            index.upperBounds.add(new Bound(rule, value, operatorType == OperatorType.LE));
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid range operator " + operatorType);
+        }
+        this.indexedRules.set(rule);
+        return true;
+    }
+
+
+    /**
+     * Sort range bounds,called once all conjuncts are added
+     * 
+     * @param ruleCount
+     */
+    void build(int ruleCount) {
+        this.ruleCount = ruleCount;
+        this.allRules = new boolean[ruleCount];
+        Arrays.fill(this.allRules, true);
+        for (VariableIndex index : this.variables.values()) {
+            Collections.sort(index.lowerBounds, BOUND_COMPARATOR);
+            Collections.sort(index.upperBounds, BOUND_COMPARATOR);
+        }
+    }
+
+
+    public boolean isIndexed(int rule) {
+        return this.indexedRules.get(rule);
+    }
+
+
+    /**
+     * Returns candidate rules for variables in environment,results of the
+     * other rules are set to false.The returned array must not be modified.
+     * 
+     * @param env
+     * @param results
+     * @return
+     */
+    boolean[] getCandidates(Map<String, Object> env, Object[] results) {
+        if (this.variables.isEmpty()) {
+            return this.allRules;
+        }
+        final BitSet excluded = new BitSet(this.ruleCount);
+        for (Map.Entry<String, VariableIndex> entry : this.variables.entrySet()) {
+            final Object value = env.get(entry.getKey());
+            final int kind = getKind(value);
+            final Object key = normalize(value);
+            if (kind < 0 || key == null) {
+                continue;
+            }
+            final VariableIndex index = entry.getValue();
+            if (!index.equalityRules[kind].isEmpty()) {
+                final BitSet rules = (BitSet) index.equalityRules[kind].clone();
+                final BitSet matched = index.equalities.get(key);
+                if (matched != null) {
+                    rules.andNot(matched);
+                }
+                excluded.or(rules);
+            }
+            if (kind == NUMBER) {
+                excludeBounds(index, ((Number) value).doubleValue(), excluded);
+            }
+        }
+        final boolean[] candidates = this.allRules.clone();
+        for (int rule = excluded.nextSetBit(0); rule >= 0; rule = excluded.nextSetBit(rule + 1)) {
+            candidates[rule] = false;
+            results[rule] = Boolean.FALSE;
+        }
+        return candidates;
+    }
+
+
+    /**
+     * Exclude rules whose bounds are not satisfied by value
+     */
+    private static void excludeBounds(VariableIndex index, double value, BitSet excluded) {
+        // lower bounds not less than value
+        final List<Bound> lowerBounds = index.lowerBounds;
+        for (int i = searchBound(lowerBounds, value, false); i < lowerBounds.size(); i++) {
+            final Bound bound = lowerBounds.get(i);
+            if (bound.value > value || !bound.inclusive) {
+                excluded.set(bound.rule);
+            }
+        }
+        // upper bounds not greater than value
+        final List<Bound> upperBounds = index.upperBounds;
+        final int end = searchBound(upperBounds, value, true);
+        for (int i = 0; i < end; i++) {
+            final Bound bound = upperBounds.get(i);
+            if (bound.value < value || !bound.inclusive) {
+                excluded.set(bound.rule);
+            }
+        }
+    }
+
+
+    /**
+     * Returns index of the first bound not less than value,or greater than
+     * value if strict
+     */
+    private static int searchBound(List<Bound> bounds, double value, boolean strict) {
+        int low = 0;
+        int high = bounds.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final double bound = bounds.get(mid).value;
+            if (bound < value || strict && bound == value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    private static int getKind(Object value) {
+        if (value instanceof String) {
+            return STRING;
+        }
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof Double || value instanceof Float) {
+            return NUMBER;
+        }
+        else if (value instanceof Boolean) {
+            return BOOLEAN;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the hash key of value,numbers equal to each other have the same
+     * key,null if it can't be indexed
+     */
+    private static Object normalize(Object value) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        final double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d) || Math.abs(d) > MAX_EXACT
+                || (value instanceof Long && Math.abs(((Long) value).longValue()) > (long) MAX_EXACT)) {
+            return null;
+        }
+        if (d == Math.rint(d)) {
+            return Long.valueOf((long) d);
+        }
+        return Double.valueOf(d);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.utils.Env;
+
+
+/**
+ * A set of expressions compiled into one java class,the base class of java
+ * classes generated by rule sets.All rules are executed with one environment
+ * in one call.Variables used by several rules are read once,common
+ * subexpressions of rules are evaluated once and rules whose guards can't
+ * match are skipped by the rule index.Rules are executed in order,regular
+ * expression groups set by a rule are visible to the following rules.
+ * 
+ * @see AviatorEvaluator#compileRuleSet(List)
+ * @see RuleIndex
+ * @author dennis
+ * 
+ */
+public abstract class RuleSet {
+    private final List<String> expressions;
+    private final RuleIndex index;
+
+
+    protected RuleSet(List<String> expressions, RuleIndex index) {
+        super();
+        this.expressions = Collections.unmodifiableList(new ArrayList<String>(expressions));
+        this.index = index;
+        this.index.build(this.expressions.size());
+    }
+
+
+    /**
+     * Execute all rules
+     * 
+     * @param env
+     * @return results of rules in rule order
+     */
+    public Object[] execute(Map<String, Object> env) {
+        final Env runEnv = new Env(env, AviatorEvaluator.FUNC_MAP);
+        final Object[] results = new Object[this.expressions.size()];
+        try {
+            this.execute0(runEnv, this.index.getCandidates(runEnv, results), results);
+        }
+        catch (Throwable e) {
+            throw new ExpressionRuntimeException("Execute rule set error", e);
+        }
+        return results;
+    }
+
+
+    /**
+     * Execute candidate rules and store their results,implemented by
+     * subclasses
+     * 
+     * @param env
+     * @param candidates
+     *            whether a rule is executed
+     * @param results
+     */
+    protected abstract void execute0(Env env, boolean[] candidates, Object[] results);
+
+
+    /**
+     * Execute all rules and returns the indexes of rules whose result is
+     * true
+     * 
+     * @param env
+     * @return
+     */
+    public BitSet match(Map<String, Object> env) {
+        final Object[] results = execute(env);
+        final BitSet matched = new BitSet(results.length);
+        for (int i = 0; i < results.length; i++) {
+            if (Boolean.TRUE.equals(results[i])) {
+                matched.set(i);
+            }
+        }
+        return matched;
+    }
+
+
+    public int size() {
+        return this.expressions.size();
+    }
+
+
+    public List<String> getExpressions() {
+        return this.expressions;
+    }
+}
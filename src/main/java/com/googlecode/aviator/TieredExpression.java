@@ -0,0 +1,171 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Tiered expression,it starts with an interpreted implementation and counts
+ * executions.When the count reaches the threshold,the expression is compiled
+ * to java class in background and swapped in atomically.Executions never wait
+ * for the compilation,they keep using the interpreted implementation until
+ * the compiled one is ready.If the promotion fails,it stays interpreted
+ * without counting any more.
+ * 
+ * @author dennis
+ * 
+ */
+public class TieredExpression implements Expression {
+    private final String expression;
+
+    private final Expression interpreted;
+
+    private volatile Expression delegate;
+
+    private final AtomicInteger executeCount = new AtomicInteger();
+
+    private final AtomicBoolean promoting = new AtomicBoolean(false);
+
+    // Promotion failed,it is never promoted again
+    private volatile boolean interpretedOnly;
+
+    private final int threshold;
+
+
+    public TieredExpression(String expression, Expression interpreted, int threshold) {
+        super();
+        this.expression = expression;
+        this.interpreted = interpreted;
+        this.delegate = interpreted;
+        this.threshold = threshold;
+    }
+
+
+    public Object execute(Map<String, Object> env) {
+        final Expression current = this.delegate;
+        if (current == this.interpreted) {
+            countExecution();
+        }
+        return current.execute(env);
+    }
+
+
+    public Object execute() {
+        return execute(null);
+    }
+
+
+    public boolean executeBoolean(Map<String, Object> env) {
+        final Expression current = this.delegate;
+        if (current == this.interpreted) {
+            countExecution();
+        }
+        return current.executeBoolean(env);
+    }
+
+
+    public long executeLong(Map<String, Object> env) {
+        final Expression current = this.delegate;
+        if (current == this.interpreted) {
+            countExecution();
+        }
+        return current.executeLong(env);
+    }
+
+
+    public double executeDouble(Map<String, Object> env) {
+        final Expression current = this.delegate;
+        if (current == this.interpreted) {
+            countExecution();
+        }
+        return current.executeDouble(env);
+    }
+
+
+    /**
+     * Whether the compiled implementation is swapped in
+     * 
+     * @return
+     */
+    public boolean isPromoted() {
+        return this.delegate != this.interpreted;
+    }
+
+
+    /**
+     * Whether the promotion failed and it stays interpreted
+     * 
+     * @return
+     */
+    public boolean isInterpretedOnly() {
+        return this.interpretedOnly;
+    }
+
+
+    int getExecuteCount() {
+        return this.executeCount.get();
+    }
+
+
+    /**
+     * Returns current implementation
+     * 
+     * @return
+     */
+    public Expression getDelegate() {
+        return this.delegate;
+    }
+
+
+    private void countExecution() {
+        if (this.promoting.get()) {
+            // promotion is in progress or failed
+            return;
+        }
+        if (this.executeCount.incrementAndGet() >= this.threshold && this.promoting.compareAndSet(false, true)) {
+            try {
+                AviatorEvaluator.submitTieredCompilation(new Runnable() {
+                    public void run() {
+                        promote();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // Executor is shutdown,stay interpreted
+                this.interpretedOnly = true;
+            }
+        }
+    }
+
+
+    private void promote() {
+        try {
+            this.delegate = AviatorEvaluator.compileToClass(this.expression);
+        }
+        catch (Throwable e) {
+            // Keep the interpreted implementation,it is still correct
+            this.interpretedOnly = true;
+        }
+    }
+
+}
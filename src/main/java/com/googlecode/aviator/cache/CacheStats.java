@@ -0,0 +1,111 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+/**
+ * Immutable statistics snapshot of expression cache
+ * 
+ * @author dennis
+ * 
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+            long totalLoadTime, long evictionCount) {
+        super();
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+
+    public long getRequestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+
+    public double getHitRate() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 1.0 : (double) this.hitCount / requestCount;
+    }
+
+
+    public long getLoadSuccessCount() {
+        return this.loadSuccessCount;
+    }
+
+
+    public long getLoadFailureCount() {
+        return this.loadFailureCount;
+    }
+
+
+    /**
+     * Total nanoseconds spent compiling expressions
+     * 
+     * @return
+     */
+    public long getTotalLoadTime() {
+        return this.totalLoadTime;
+    }
+
+
+    /**
+     * Average nanoseconds spent compiling a expression
+     * 
+     * @return
+     */
+    public double getAverageLoadPenalty() {
+        final long loadCount = this.loadSuccessCount + this.loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) this.totalLoadTime / loadCount;
+    }
+
+
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+
+    @Override
+    public String toString() {
+        return "CacheStats[hitCount=" + this.hitCount + ",missCount=" + this.missCount + ",loadSuccessCount="
+                + this.loadSuccessCount + ",loadFailureCount=" + this.loadFailureCount + ",totalLoadTime="
+                + this.totalLoadTime + ",evictionCount=" + this.evictionCount + "]";
+    }
+}
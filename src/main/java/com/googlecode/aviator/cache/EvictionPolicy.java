@@ -0,0 +1,79 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+/**
+ * Eviction policy of a bounded expression cache.It tracks the keys retained in
+ * cache and chooses which one to evict.Implementations must be thread-safe.
+ * 
+ * @author dennis
+ * 
+ */
+public interface EvictionPolicy {
+    /**
+     * Record a cache request(hit or miss) for key.Requests are buffered by
+     * cache and recorded later in batches,some of them may be dropped under
+     * contention.
+     * 
+     * @param key
+     */
+    public void recordAccess(String key);
+
+
+    /**
+     * Record a key is retained in cache
+     * 
+     * @param key
+     */
+    public void recordInsert(String key);
+
+
+    /**
+     * Record a key is removed from cache
+     * 
+     * @param key
+     */
+    public void recordRemove(String key);
+
+
+    /**
+     * Returns the next key to evict,null if there is no key
+     * 
+     * @return
+     */
+    public String victim();
+
+
+    /**
+     * Whether to admit a new candidate key by evicting the victim.
+     * 
+     * @param candidate
+     *            the new key
+     * @param victim
+     *            the key chosen by victim()
+     * @return true to evict victim,false to reject the candidate
+     */
+    public boolean admit(String candidate, String victim);
+
+
+    /**
+     * Forget all keys
+     */
+    public void clear();
+}
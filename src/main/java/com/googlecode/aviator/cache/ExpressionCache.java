@@ -0,0 +1,530 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.googlecode.aviator.Expression;
+
+
+/**
+ * Compiled expression cache.It can be bounded by entry count and/or by total
+ * weight,evicting entries chosen by a pluggable EvictionPolicy,and can hold
+ * the compiled expressions by soft references so they are released under
+ * memory pressure.
+ * 
+ * @author dennis
+ * 
+ */
+public class ExpressionCache {
+    /**
+     * No bound
+     */
+    public static final int UNBOUNDED = -1;
+
+    private final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+
+    private final int maximumSize;
+    private final long maximumWeight;
+    private final ExpressionWeigher weigher;
+    private final EvictionPolicy policy;
+    private final boolean softValues;
+    private final boolean bounded;
+
+    // Guards size,totalWeight,the admitted flags and eviction policy updates
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Accesses not recorded by eviction policy yet
+    private final AccessBuffer accessBuffer = new AccessBuffer();
+    private int size;
+    private long totalWeight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadSuccessCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private static final class CacheEntry {
+        // Loading task,cleared when the expression is compiled
+        volatile FutureTask<Expression> task;
+        // Expression or SoftReference<Expression>
+        volatile Object value;
+        int weight;
+        boolean admitted;
+
+
+        CacheEntry(FutureTask<Expression> task) {
+            this.task = task;
+        }
+    }
+
+
+    /**
+     * Lossy striped ring buffers of accessed keys.A cache hit only appends the
+     * key to the buffer of it's thread's stripe by a CAS,the buffers are
+     * drained to eviction policy by the thread holding evictionLock.Accesses
+     * are dropped if a buffer is full,the policy only needs an approximate
+     * access history.
+     */
+    private static final class AccessBuffer {
+        private static final int BUFFER_SIZE = 16;
+        private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+        // Drain if a buffer is half full
+        private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+        private final AtomicReferenceArray<String>[] buffers;
+        private final AtomicLong[] writeCounts;
+        // Read by offering threads,written by the draining thread
+        private final AtomicLongArray readCounts;
+        private final int mask;
+
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        AccessBuffer() {
+            int stripes = 1;
+            while (stripes < Runtime.getRuntime().availableProcessors()) {
+                stripes <<= 1;
+            }
+            this.buffers = new AtomicReferenceArray[stripes];
+            this.writeCounts = new AtomicLong[stripes];
+            this.readCounts = new AtomicLongArray(stripes);
+            for (int i = 0; i < stripes; i++) {
+                this.buffers[i] = new AtomicReferenceArray<String>(BUFFER_SIZE);
+                this.writeCounts[i] = new AtomicLong();
+            }
+            this.mask = stripes - 1;
+        }
+
+
+        /**
+         * Append key to the buffer of current thread's stripe
+         * 
+         * @param key
+         * @return true if the buffers should be drained
+         */
+        boolean offer(String key) {
+            long id = Thread.currentThread().getId();
+            final int stripe = (int) (id ^ id >>> 16) * 0x9e3779b9 >>> 16 & this.mask;
+            final AtomicLong writeCount = this.writeCounts[stripe];
+            final long write = writeCount.get();
+            final long pending = write - this.readCounts.get(stripe);
+            if (pending >= BUFFER_SIZE) {
+                // full,drop it
+                return true;
+            }
+            if (writeCount.compareAndSet(write, write + 1)) {
+                this.buffers[stripe].lazySet((int) write & BUFFER_MASK, key);
+            }
+            return pending + 1 >= DRAIN_THRESHOLD;
+        }
+
+
+        /**
+         * Record buffered accesses to policy,must be called with evictionLock
+         * 
+         * @param policy
+         */
+        void drainTo(EvictionPolicy policy) {
+            for (int stripe = 0; stripe < this.buffers.length; stripe++) {
+                final AtomicReferenceArray<String> buffer = this.buffers[stripe];
+                final long write = this.writeCounts[stripe].get();
+                long read = this.readCounts.get(stripe);
+                while (read < write) {
+                    final int index = (int) read & BUFFER_MASK;
+                    final String key = buffer.get(index);
+                    if (key == null) {
+                        // not published yet
+                        break;
+                    }
+                    // cleared before the slot is released to writers
+                    buffer.set(index, null);
+                    policy.recordAccess(key);
+                    read++;
+                }
+                this.readCounts.set(stripe, read);
+            }
+        }
+    }
+
+
+    /**
+     * Create a unbounded cache
+     */
+    public ExpressionCache() {
+        this(UNBOUNDED, UNBOUNDED, null, new LRUEvictionPolicy(), false);
+    }
+
+
+    /**
+     * Create a cache bounded by entry count with LRU eviction
+     * 
+     * @param maximumSize
+     */
+    public ExpressionCache(int maximumSize) {
+        this(maximumSize, UNBOUNDED, null, new LRUEvictionPolicy(), false);
+    }
+
+
+    /**
+     * Create a cache bounded by entry count
+     * 
+     * @param maximumSize
+     * @param policy
+     */
+    public ExpressionCache(int maximumSize, EvictionPolicy policy) {
+        this(maximumSize, UNBOUNDED, null, policy, false);
+    }
+
+
+    /**
+     * Create a expression cache
+     * 
+     * @param maximumSize
+     *            maximum entry count,UNBOUNDED for no limit
+     * @param maximumWeight
+     *            maximum total weight,UNBOUNDED for no limit
+     * @param weigher
+     *            weigher to calculate entry weight,required if
+     *            maximumWeight is bounded
+     * @param policy
+     *            eviction policy
+     * @param softValues
+     *            whether to hold compiled expressions by soft references
+     */
+    public ExpressionCache(int maximumSize, long maximumWeight, ExpressionWeigher weigher, EvictionPolicy policy,
+            boolean softValues) {
+        super();
+        if (maximumSize < UNBOUNDED || maximumWeight < UNBOUNDED) {
+            throw new IllegalArgumentException("Invalid cache bound");
+        }
+        if (maximumWeight != UNBOUNDED && weigher == null) {
+            throw new IllegalArgumentException("Weigher is required for weight bounded cache");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Null eviction policy");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.softValues = softValues;
+        this.bounded = maximumSize != UNBOUNDED || maximumWeight != UNBOUNDED;
+    }
+
+
+    /**
+     * Returns the cached expression,compile it by loader if absent.Concurrent
+     * requests for the same absent expression compile it only once.
+     * 
+     * @param expression
+     *            text expression
+     * @param loader
+     *            compiler
+     * @return
+     * @throws InterruptedException
+     * @throws ExecutionException
+     *             compile failure
+     */
+    public Expression get(String expression, Callable<Expression> loader) throws InterruptedException,
+            ExecutionException {
+        if (this.bounded && this.accessBuffer.offer(expression)) {
+            tryDrainAccesses();
+        }
+        CacheEntry entry = this.entries.get(expression);
+        if (entry != null) {
+            // Complete entry,no FutureTask handshake
+            Object value = entry.value;
+            if (value != null) {
+                Expression result = unwrap(value);
+                if (result != null) {
+                    this.hitCount.incrementAndGet();
+                    return result;
+                }
+                // soft value was collected
+                removeEntry(expression, entry, true);
+            }
+            else {
+                FutureTask<Expression> task = entry.task;
+                if (task != null) {
+                    this.hitCount.incrementAndGet();
+                    return task.get();
+                }
+            }
+        }
+        this.missCount.incrementAndGet();
+        final CacheEntry newEntry = new CacheEntry(new FutureTask<Expression>(loader));
+        final FutureTask<Expression> task = newEntry.task;
+        CacheEntry existedEntry = this.entries.putIfAbsent(expression, newEntry);
+        if (existedEntry != null) {
+            FutureTask<Expression> existedTask = existedEntry.task;
+            Object value = existedEntry.value;
+            Expression result = value != null ? unwrap(value) : null;
+            if (result != null) {
+                return result;
+            }
+            if (existedTask != null) {
+                return existedTask.get();
+            }
+            // The existed entry was failed or collected,compile without
+            // caching
+            task.run();
+            return task.get();
+        }
+        return load(expression, newEntry, task);
+    }
+
+
+    private Expression load(String expression, CacheEntry entry, FutureTask<Expression> task)
+            throws InterruptedException, ExecutionException {
+        final long start = System.nanoTime();
+        task.run();
+        final Expression result;
+        try {
+            result = task.get();
+        }
+        catch (ExecutionException e) {
+            this.totalLoadTime.addAndGet(System.nanoTime() - start);
+            this.loadFailureCount.incrementAndGet();
+            this.entries.remove(expression, entry);
+            throw e;
+        }
+        this.totalLoadTime.addAndGet(System.nanoTime() - start);
+        this.loadSuccessCount.incrementAndGet();
+        entry.value = this.softValues ? new SoftReference<Expression>(result) : result;
+        entry.task = null;
+        if (this.bounded) {
+            admit(expression, entry, result);
+        }
+        return result;
+    }
+
+
+    /**
+     * Record buffered accesses if no other thread holds evictionLock
+     */
+    private void tryDrainAccesses() {
+        if (this.evictionLock.tryLock()) {
+            try {
+                this.accessBuffer.drainTo(this.policy);
+            }
+            finally {
+                this.evictionLock.unlock();
+            }
+        }
+    }
+
+
+    private void admit(String expression, CacheEntry entry, Expression result) {
+        final int weight = this.weigher != null ? this.weigher.weigh(expression, result) : 1;
+        if (weight < 0) {
+            throw new IllegalStateException("Negative weight " + weight + " for " + expression);
+        }
+        this.evictionLock.lock();
+        try {
+            if (this.entries.get(expression) != entry) {
+                // invalidated while compiling
+                return;
+            }
+            // the new entry's access is counted before admission
+            this.accessBuffer.drainTo(this.policy);
+            entry.weight = weight;
+            entry.admitted = true;
+            this.size++;
+            this.totalWeight += weight;
+            this.policy.recordInsert(expression);
+            while (isOverflow()) {
+                String victim = this.policy.victim();
+                if (victim == null) {
+                    break;
+                }
+                if (!victim.equals(expression) && !this.policy.admit(expression, victim)) {
+                    // reject the new one
+                    victim = expression;
+                }
+                evict(victim);
+            }
+        }
+        finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+
+    private boolean isOverflow() {
+        return this.maximumSize != UNBOUNDED && this.size > this.maximumSize || this.maximumWeight != UNBOUNDED
+                && this.totalWeight > this.maximumWeight;
+    }
+
+
+    // Must be called with evictionLock
+    private void evict(String expression) {
+        CacheEntry entry = this.entries.remove(expression);
+        if (entry != null && entry.admitted) {
+            this.evictionCount.incrementAndGet();
+            forget(expression, entry);
+        }
+        else {
+            // Not retained by the policy any more
+            this.policy.recordRemove(expression);
+        }
+    }
+
+
+    // Must be called with evictionLock
+    private void forget(String expression, CacheEntry entry) {
+        entry.admitted = false;
+        this.size--;
+        this.totalWeight -= entry.weight;
+        this.policy.recordRemove(expression);
+    }
+
+
+    private void removeEntry(String expression, CacheEntry entry, boolean eviction) {
+        if (!this.bounded) {
+            if (this.entries.remove(expression, entry) && eviction) {
+                this.evictionCount.incrementAndGet();
+            }
+            return;
+        }
+        this.evictionLock.lock();
+        try {
+            if (this.entries.remove(expression, entry)) {
+                if (eviction) {
+                    this.evictionCount.incrementAndGet();
+                }
+                if (entry.admitted) {
+                    forget(expression, entry);
+                }
+            }
+        }
+        finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private Expression unwrap(Object value) {
+        if (this.softValues) {
+            return ((SoftReference<Expression>) value).get();
+        }
+        return (Expression) value;
+    }
+
+
+    /**
+     * Remove a cached expression
+     * 
+     * @param expression
+     */
+    public void invalidate(String expression) {
+        CacheEntry entry = this.entries.get(expression);
+        if (entry != null) {
+            removeEntry(expression, entry, false);
+        }
+    }
+
+
+    /**
+     * Remove all cached expressions
+     */
+    public void clear() {
+        this.evictionLock.lock();
+        try {
+            this.entries.clear();
+            this.policy.clear();
+            this.size = 0;
+            this.totalWeight = 0;
+        }
+        finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+
+    /**
+     * Returns the number of entries,include the ones being compiled
+     * 
+     * @return
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+
+    /**
+     * Returns total weight of retained entries,only tracked by bounded cache
+     * 
+     * @return
+     */
+    public long getTotalWeight() {
+        this.evictionLock.lock();
+        try {
+            return this.totalWeight;
+        }
+        finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+
+    public boolean contains(String expression) {
+        return this.entries.containsKey(expression);
+    }
+
+
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+
+    public long getMaximumWeight() {
+        return this.maximumWeight;
+    }
+
+
+    public EvictionPolicy getPolicy() {
+        return this.policy;
+    }
+
+
+    public boolean isSoftValues() {
+        return this.softValues;
+    }
+
+
+    /**
+     * Returns a statistics snapshot
+     * 
+     * @return
+     */
+    public CacheStats stats() {
+        return new CacheStats(this.hitCount.get(), this.missCount.get(), this.loadSuccessCount.get(),
+            this.loadFailureCount.get(), this.totalLoadTime.get(), this.evictionCount.get());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Least recently used eviction policy
+ * 
+ * @author dennis
+ * 
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+    // Keys in access order,the eldest key is the least recently used one
+    private final LinkedHashMap<String, Boolean> accessOrder = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+
+    public void recordAccess(String key) {
+        synchronized (this.accessOrder) {
+            this.accessOrder.get(key);
+        }
+    }
+
+
+    public void recordInsert(String key) {
+        synchronized (this.accessOrder) {
+            this.accessOrder.put(key, Boolean.TRUE);
+        }
+    }
+
+
+    public void recordRemove(String key) {
+        synchronized (this.accessOrder) {
+            this.accessOrder.remove(key);
+        }
+    }
+
+
+    public String victim() {
+        synchronized (this.accessOrder) {
+            Iterator<String> it = this.accessOrder.keySet().iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
+
+    public boolean admit(String candidate, String victim) {
+        return true;
+    }
+
+
+    public void clear() {
+        synchronized (this.accessOrder) {
+            this.accessOrder.clear();
+        }
+    }
+
+}
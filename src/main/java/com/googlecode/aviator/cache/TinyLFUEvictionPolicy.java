@@ -0,0 +1,147 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+import java.util.Arrays;
+
+
+/**
+ * LRU eviction with TinyLFU admission.Request frequencies of all keys,include
+ * the ones not in cache,are estimated by a count-min sketch of small counters
+ * which are halved periodically to age old history.A new key is admitted only
+ * if it is requested more frequently than the LRU victim,so a flood of one-off
+ * expressions can not flush the hot ones.
+ * 
+ * @author dennis
+ * 
+ */
+public class TinyLFUEvictionPolicy extends LRUEvictionPolicy {
+    private static final int[] SEEDS = { 0x97cb3127, 0xb8f6a4d1, 0x1b873593, 0x7feb352d };
+    private static final int MAX_FREQUENCY = 15;
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+
+    /**
+     * Create a policy for cache with expected maximum size
+     * 
+     * @param expectedSize
+     */
+    public TinyLFUEvictionPolicy(int expectedSize) {
+        super();
+        int width = 16;
+        while (width < expectedSize && width < (1 << 24)) {
+            width <<= 1;
+        }
+        this.counters = new byte[SEEDS.length][width];
+        this.mask = width - 1;
+        this.sampleSize = Math.max(10 * expectedSize, 160);
+    }
+
+
+    @Override
+    public void recordAccess(String key) {
+        super.recordAccess(key);
+        increment(key);
+    }
+
+
+    @Override
+    public boolean admit(String candidate, String victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+
+    @Override
+    public void clear() {
+        super.clear();
+        synchronized (this.counters) {
+            for (byte[] row : this.counters) {
+                Arrays.fill(row, (byte) 0);
+            }
+            this.additions = 0;
+        }
+    }
+
+
+    /**
+     * Returns estimated request frequency of key
+     * 
+     * @param key
+     * @return
+     */
+    public int frequency(String key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        synchronized (this.counters) {
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, this.counters[i][index(hash, i)]);
+            }
+        }
+        return frequency;
+    }
+
+
+    private void increment(String key) {
+        final int hash = spread(key.hashCode());
+        synchronized (this.counters) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int index = index(hash, i);
+                if (this.counters[i][index] < MAX_FREQUENCY) {
+                    this.counters[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++this.additions >= this.sampleSize) {
+                reset();
+            }
+        }
+    }
+
+
+    /**
+     * Halve all counters to age the history
+     */
+    private void reset() {
+        for (byte[] row : this.counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+        this.additions = this.additions >>> 1;
+    }
+
+
+    private int index(int hash, int i) {
+        int h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 16;
+        return h & this.mask;
+    }
+
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ h >>> 16;
+    }
+}
@@ -18,15 +18,26 @@
  **/
 package com.googlecode.aviator.code;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Stack;
 
 import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.ColumnarExpression;
 import com.googlecode.aviator.Expression;
 import com.googlecode.aviator.LiteralExpression;
+import com.googlecode.aviator.RuleIndex;
+import com.googlecode.aviator.RuleSet;
 import com.googlecode.aviator.code.asm.ASMCodeGenerator;
 import com.googlecode.aviator.lexer.token.DelegateToken;
 import com.googlecode.aviator.lexer.token.NumberToken;
@@ -38,6 +49,7 @@ import com.googlecode.aviator.lexer.token.Token;
 import com.googlecode.aviator.lexer.token.Variable;
 import com.googlecode.aviator.lexer.token.DelegateToken.DelegateTokenType;
 import com.googlecode.aviator.lexer.token.Token.TokenType;
+import com.googlecode.aviator.runtime.function.PureFunction;
 import com.googlecode.aviator.runtime.type.AviatorBoolean;
 import com.googlecode.aviator.runtime.type.AviatorDouble;
 import com.googlecode.aviator.runtime.type.AviatorLong;
@@ -45,6 +57,7 @@ import com.googlecode.aviator.runtime.type.AviatorNil;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 import com.googlecode.aviator.runtime.type.AviatorPattern;
 import com.googlecode.aviator.runtime.type.AviatorString;
+import com.googlecode.aviator.utils.VariableSchema;
 
 
 /**
@@ -60,6 +73,97 @@ public class OptimizeCodeGenerator implements CodeGenerator {
 
     private boolean trace = false;
 
+    private VariableSchema variableSchema;
+
+    /**
+     * Literal tokens of variables bound at compile time
+     */
+    private Map<String, Token<?>> constants = Collections.emptyMap();
+
+    /**
+     * Occurrences of common subexpressions indexed by their first token
+     */
+    private final Map<Integer, CommonSubexpression> commonStarts = new HashMap<Integer, CommonSubexpression>();
+
+    /**
+     * Occurrences of common subexpressions indexed by their last token
+     */
+    private final Map<Integer, CommonSubexpression> commonEnds = new HashMap<Integer, CommonSubexpression>();
+
+    /**
+     * An occurrence of a pure subexpression which appears more than once,it
+     * is evaluated once into a local.
+     * 
+     * @author dennis
+     * 
+     */
+    private static class CommonSubexpression {
+        final int id;
+        final int start;
+        final int end;
+        // Always evaluated before other occurrences,stores the value
+        boolean store;
+        // Loads the value stored by the first occurrence
+        boolean load;
+        // Computed by the first occurrence reached at runtime
+        boolean lazy;
+
+
+        public CommonSubexpression(int id, int start, int end) {
+            super();
+            this.id = id;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+
+    /**
+     * Optimized token lists of rules in rule set
+     */
+    private final List<List<Token<?>>> rules = new ArrayList<List<Token<?>>>();
+
+    /**
+     * Index of the last token of a rule -> rule index
+     */
+    private final Map<Integer, Integer> ruleEnds = new HashMap<Integer, Integer>();
+
+    /**
+     * Index of the first token of a rule skipped by rule index -> rule index
+     */
+    private final Map<Integer, Integer> ruleStarts = new HashMap<Integer, Integer>();
+
+    /**
+     * Index of top level conjuncts of rules
+     */
+    private final RuleIndex ruleIndex = new RuleIndex();
+
+    /**
+     * Rules are compiled into methods of about this many tokens,so that a
+     * method is still small enough to be compiled by JIT
+     */
+    private static final int RULE_METHOD_TOKENS = 500;
+
+    /**
+     * Generated classes by expression shape,the token list with literals
+     * replaced by parameters,prefixed by the settings of code generation.Classes
+     * are weakly referenced,so that a class is unloaded when there is no
+     * expression of it's shape.
+     */
+    private static final Map<String, ShapeReference> SHAPE_CLASSES = new HashMap<String, ShapeReference>();
+
+    private static final ReferenceQueue<Class<?>> SHAPE_QUEUE = new ReferenceQueue<Class<?>>();
+
+    private static class ShapeReference extends WeakReference<Class<?>> {
+        final String shape;
+
+
+        public ShapeReference(String shape, Class<?> clazz) {
+            super(clazz, SHAPE_QUEUE);
+            this.shape = shape;
+        }
+    }
+
 
     public OptimizeCodeGenerator(ClassLoader classLoader, boolean trace) {
         asmCodeGenerator = new ASMCodeGenerator(AviatorEvaluator.getAviatorClassLoader(), trace);
@@ -68,6 +172,51 @@ public class OptimizeCodeGenerator implements CodeGenerator {
     }
 
 
+    /**
+     * Bind variables to constant values,they are substituted as literals
+     * before folding
+     * 
+     * @param constants
+     *            values must be numbers,strings,booleans or null
+     */
+    public void setConstants(Map<String, Object> constants) {
+        Map<String, Token<?>> tokens = new HashMap<String, Token<?>>(constants.size() * 2);
+        for (Map.Entry<String, Object> entry : constants.entrySet()) {
+            tokens.put(entry.getKey(), getTokenFromConstant(entry.getKey(), entry.getValue()));
+        }
+        this.constants = tokens;
+    }
+
+
+    private Token<?> getTokenFromConstant(String name, Object value) {
+        if (value == null) {
+            return Variable.NIL;
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? Variable.TRUE : Variable.FALSE;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            final Long number = ((Number) value).longValue();
+            return new NumberToken(number, number.toString());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            final Double number = ((Number) value).doubleValue();
+            return new NumberToken(number, number.toString());
+        }
+        if (value instanceof String) {
+            return new StringToken((String) value, -1);
+        }
+        throw new IllegalArgumentException("Constant " + name + " must be a number,string,boolean or null,but it is "
+                + value.getClass().getName());
+    }
+
+
+    public void setVariableSchema(VariableSchema variableSchema) {
+        this.variableSchema = variableSchema;
+        this.asmCodeGenerator.setVariableSchema(variableSchema);
+    }
+
+
     private Map<Integer, DelegateTokenType> getIndex2DelegateTypeMap(OperatorType opType) {
         Map<Integer, DelegateTokenType> result = new HashMap<Integer, DelegateTokenType>();
         switch (opType) {
@@ -98,8 +247,15 @@ public class OptimizeCodeGenerator implements CodeGenerator {
                 final int operandCount = operatorType.getOperandCount();
                 switch (operatorType) {
                 case FUNC:
+                    final int called = executeFunction(i);
+                    if (called < 0) {
+                        compactTokenList();
+                        return exeCount;
+                    }
+                    exeCount += called;
+                    break;
                 case INDEX:
-                    // Could not optimize function and index call
+                    // Could not optimize index call
                     break;
                 default:
                     Map<Integer, DelegateTokenType> index2DelegateType = getIndex2DelegateTypeMap(operatorType);
@@ -175,6 +331,58 @@ public class OptimizeCodeGenerator implements CodeGenerator {
     }
 
 
+    /**
+     * Call a pure function at compile time if all arguments are literals
+     * 
+     * @param operatorIndex
+     *            index of function call operator
+     * @return 1 if the function is called,0 if it could not be called,-1 if
+     *         token list must be compacted
+     */
+    private int executeFunction(int operatorIndex) {
+        List<AviatorObject> args = new ArrayList<AviatorObject>();
+        int j = operatorIndex - 1;
+        for (; j >= 0; j--) {
+            final Token<?> token = tokenList.get(j);
+            if (token == null) {
+                return -1;
+            }
+            if (isDelegate(token, DelegateTokenType.Method_Name)) {
+                break;
+            }
+            if (isDelegate(token, DelegateTokenType.Method_Param)) {
+                continue;
+            }
+            if (!isLiteralToken(token) || !isDelegate(tokenList.get(j + 1), DelegateTokenType.Method_Param)) {
+                return 0;
+            }
+            args.add(0, getAviatorObjectFromToken(token));
+        }
+        final Object function = AviatorEvaluator.FUNC_MAP.get(tokenList.get(j).getLexeme());
+        if (!(function instanceof PureFunction)) {
+            return 0;
+        }
+        final Token<?> result;
+        try {
+            result =
+                    getTokenFromOperand(((PureFunction) function).call(new HashMap<String, Object>(), args
+                        .toArray(new AviatorObject[args.size()])));
+        }
+        catch (RuntimeException e) {
+            // errors are thrown when the expression is executed
+            return 0;
+        }
+        if (result == null) {
+            return 0;
+        }
+        for (int k = j; k < operatorIndex; k++) {
+            tokenList.set(k, null);
+        }
+        tokenList.set(operatorIndex, result);
+        return 1;
+    }
+
+
     private boolean isLiteralOperand(Token<?> token, final TokenType tokenType, int index,
             Map<Integer, DelegateTokenType> index2DelegateType) {
         switch (tokenType) {
@@ -292,14 +500,11 @@ public class OptimizeCodeGenerator implements CodeGenerator {
 
 
     public Expression getResult() {
-        // execute literal expression
-        while (execute() > 0) {
+        // execute literal expression and simplify
+        while (execute() > 0 || simplify() > 0) {
             ;
         }
 
-        // call asm to generate byte codes
-        callASM();
-
         // Last token is a literal token,then return a LiteralExpression
         if (tokenList.size() <= 1) {
             if (tokenList.isEmpty()) {
@@ -311,13 +516,308 @@ public class OptimizeCodeGenerator implements CodeGenerator {
             }
         }
 
-        // get result from asm
-        return asmCodeGenerator.getResult();
+        findCommonSubexpressions();
+
+        // Expressions differing only in literals share one generated class
+        final List<Token<?>> parameters = getParameters();
+        final AviatorObject[] values = new AviatorObject[parameters.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getAviatorObjectFromToken(parameters.get(i));
+        }
+        final String shape = getShape(parameters, values);
+        Class<?> clazz = trace ? null : getShapeClass(shape);
+        if (clazz == null) {
+            // call asm to generate byte codes
+            asmCodeGenerator.setParameters(parameters);
+            callASM();
+            clazz = asmCodeGenerator.getResultClass();
+            putShapeClass(shape, clazz);
+        }
+        return ASMCodeGenerator.newExpression(clazz, values);
+    }
+
+
+    /**
+     * Compile the expression into a loop over columns of the variables in
+     * schema
+     * 
+     * @see ColumnarExpression
+     * @return
+     */
+    public ColumnarExpression getColumnarResult() {
+        while (execute() > 0 || simplify() > 0) {
+            ;
+        }
+        if (tokenList.isEmpty()) {
+            tokenList.add(Variable.NIL);
+        }
+        findCommonSubexpressions();
+        asmCodeGenerator.startColumns();
+        callASM();
+        return asmCodeGenerator.getColumnarResult(this.variableSchema);
+    }
+
+
+    /**
+     * End of a rule in rule set,the rule parsed so far is optimized and the
+     * following tokens belong to next rule
+     */
+    public void onRuleEnd() {
+        while (execute() > 0 || simplify() > 0) {
+            ;
+        }
+        if (tokenList.isEmpty()) {
+            tokenList.add(Variable.NIL);
+        }
+        final int size = tokenList.size();
+        indexConjuncts(this.rules.size(), parseSubexpressions(new boolean[size], new boolean[size]), size - 1);
+        this.rules.add(new ArrayList<Token<?>>(tokenList));
+        tokenList.clear();
+    }
+
+
+    /**
+     * Index top level conjuncts comparing a variable with a literal of rule
+     * from left to right,stop at the first conjunct can't be indexed,so that
+     * skipping the rule never skips calls executed before it.
+     * 
+     * @param rule
+     * @param starts
+     * @param end
+     *            last token of conjunction
+     * @return true if all conjuncts are indexed
+     */
+    private boolean indexConjuncts(int rule, int[] starts, int end) {
+        final Token<?> token = tokenList.get(end);
+        if (isOperator(token, OperatorType.AND)) {
+            final int rightStart = starts[end - 1];
+            // left operand is followed by And_Left delegate
+            return indexConjuncts(rule, starts, rightStart - 2) && indexConjuncts(rule, starts, end - 1);
+        }
+        if (token.getType() != TokenType.Operator || starts[end] != end - 2) {
+            return false;
+        }
+        OperatorType operatorType = ((OperatorToken) token).getOperatorType();
+        Token<?> variable = tokenList.get(end - 2);
+        Token<?> literal = tokenList.get(end - 1);
+        if (!isIndexableVariable(variable)) {
+            // literal op variable
+            final Token<?> tmp = variable;
+            variable = literal;
+            literal = tmp;
+            switch (operatorType) {
+            case GT:
+                operatorType = OperatorType.LT;
+                break;
+            case GE:
+                operatorType = OperatorType.LE;
+                break;
+            case LT:
+                operatorType = OperatorType.GT;
+                break;
+            case LE:
+                operatorType = OperatorType.GE;
+                break;
+            }
+        }
+        if (!isIndexableVariable(variable) || !isLiteralToken(literal) || literal == Variable.NIL
+                || literal.getType() == TokenType.Char || literal.getType() == TokenType.Pattern) {
+            return false;
+        }
+        final Object value = getAviatorObjectFromToken(literal).getValue(null);
+        switch (operatorType) {
+        case EQ:
+            return this.ruleIndex.addEquality(rule, variable.getLexeme(), value);
+        case GT:
+        case GE:
+        case LT:
+        case LE:
+            return value instanceof Number
+                    && this.ruleIndex.addRange(rule, variable.getLexeme(), operatorType, (Number) value);
+        }
+        return false;
+    }
+
+
+    /**
+     * Variables looked up from environment by name can be indexed
+     * 
+     * @param token
+     * @return
+     */
+    private boolean isIndexableVariable(Token<?> token) {
+        return token.getType() == TokenType.Variable && !isLiteralToken(token) && !isIndexedVariable(token)
+                && isPureVariable(token) && !token.getLexeme().contains(".");
+    }
+
+
+    /**
+     * Compile rules into one class extending RuleSet.Subexpressions are shared
+     * by rules compiled into the same method,rules having indexed conjuncts
+     * are skipped if they are not candidates.
+     * 
+     * @param expressions
+     *            text expressions of rules
+     * @return
+     */
+    public RuleSet getRuleSetResult(List<String> expressions) {
+        asmCodeGenerator.startRuleSet();
+        int rule = 0;
+        while (rule < this.rules.size()) {
+            tokenList.clear();
+            this.ruleStarts.clear();
+            this.ruleEnds.clear();
+            this.commonStarts.clear();
+            this.commonEnds.clear();
+            do {
+                if (this.ruleIndex.isIndexed(rule)) {
+                    this.ruleStarts.put(tokenList.size(), rule);
+                }
+                tokenList.addAll(this.rules.get(rule));
+                this.ruleEnds.put(tokenList.size() - 1, rule);
+                rule++;
+            } while (rule < this.rules.size()
+                    && tokenList.size() + this.rules.get(rule).size() <= RULE_METHOD_TOKENS);
+            findCommonSubexpressions();
+            callASM();
+            asmCodeGenerator.endRuleMethod();
+        }
+        return ASMCodeGenerator.newRuleSet(asmCodeGenerator.getResultClass(), expressions, this.ruleIndex);
+    }
+
+
+    /**
+     * Returns the generated class of shape,null if absent or it was generated
+     * by another class loader
+     * 
+     * @param shape
+     * @return
+     */
+    private static Class<?> getShapeClass(String shape) {
+        synchronized (SHAPE_CLASSES) {
+            expungeShapeClasses();
+            final ShapeReference reference = SHAPE_CLASSES.get(shape);
+            final Class<?> clazz = reference != null ? reference.get() : null;
+            if (clazz != null && clazz.getClassLoader().getParent() == AviatorEvaluator.getAviatorClassLoader()) {
+                return clazz;
+            }
+            return null;
+        }
+    }
+
+
+    private static void putShapeClass(String shape, Class<?> clazz) {
+        synchronized (SHAPE_CLASSES) {
+            expungeShapeClasses();
+            SHAPE_CLASSES.put(shape, new ShapeReference(shape, clazz));
+        }
+    }
+
+
+    /**
+     * Remove shapes whose classes are unloaded
+     */
+    private static void expungeShapeClasses() {
+        ShapeReference reference;
+        while ((reference = (ShapeReference) SHAPE_QUEUE.poll()) != null) {
+            if (SHAPE_CLASSES.get(reference.shape) == reference) {
+                SHAPE_CLASSES.remove(reference.shape);
+            }
+        }
+    }
+
+
+    /**
+     * Returns number,string and pattern literals in token list,they are
+     * lifted out of the generated class
+     * 
+     * @return
+     */
+    private List<Token<?>> getParameters() {
+        // A constant bound by setConstants is the same token in every
+        // occurrence
+        final Map<Token<?>, Boolean> seen = new IdentityHashMap<Token<?>, Boolean>();
+        final List<Token<?>> parameters = new ArrayList<Token<?>>();
+        for (Token<?> token : tokenList) {
+            switch (token.getType()) {
+            case Number:
+            case String:
+            case Pattern:
+                if (seen.put(token, Boolean.TRUE) == null) {
+                    parameters.add(token);
+                }
+                break;
+            }
+        }
+        return parameters;
+    }
+
+
+    /**
+     * Returns the shape of token list,it determines the generated code
+     * together with the literal types,the common subexpressions,the schema of
+     * indexed variables and the settings of code generation
+     * 
+     * @param parameters
+     * @param values
+     *            values of parameters
+     * @return
+     */
+    private String getShape(List<Token<?>> parameters, AviatorObject[] values) {
+        final Map<Token<?>, Integer> parameterIndexes = new IdentityHashMap<Token<?>, Integer>();
+        for (int i = 0; i < parameters.size(); i++) {
+            parameterIndexes.put(parameters.get(i), i);
+        }
+        StringBuilder sb = new StringBuilder();
+        // A class generated under other settings must not be shared
+        sb.append(AviatorEvaluator.BYTECODE_VER).append(this.trace ? 'T' : 'F')
+            .append(AviatorEvaluator.isNilSafeNavigation() ? 'N' : 'F').append('|');
+        for (int i = 0; i < tokenList.size(); i++) {
+            CommonSubexpression common = this.commonStarts.get(i);
+            if (common != null) {
+                sb.append('[').append(common.id).append(common.load ? "L" : common.lazy ? "Z" : "");
+            }
+            final Token<?> token = tokenList.get(i);
+            final Integer index = parameterIndexes.get(token);
+            String tokenKey;
+            if (index != null) {
+                tokenKey = "?" + index + ":" + values[index].getClass().getSimpleName();
+            }
+            else if (isIndexedVariable(token)) {
+                final int variableIndex = this.variableSchema.indexOf(token.getLexeme());
+                tokenKey = getTokenKey(token) + "#" + variableIndex + ":" + this.variableSchema.getType(variableIndex);
+            }
+            else {
+                tokenKey = getTokenKey(token);
+            }
+            sb.append(tokenKey.length()).append(':').append(tokenKey);
+            common = this.commonEnds.get(i);
+            if (common != null) {
+                sb.append(']').append(common.id).append(common.store ? "S" : common.lazy ? "Z" : "");
+            }
+        }
+        return sb.toString();
     }
 
 
     private void callASM() {
         for (int i = 0; i < tokenList.size(); i++) {
+            final Integer rule = this.ruleStarts.get(i);
+            if (rule != null) {
+                this.asmCodeGenerator.onRuleStart(rule);
+            }
+            CommonSubexpression common = this.commonStarts.get(i);
+            if (common != null) {
+                if (common.load) {
+                    this.asmCodeGenerator.onCommonLoad(common.id);
+                    i = common.end;
+                    visitRuleEnd(i);
+                    continue;
+                }
+                if (common.lazy) {
+                    this.asmCodeGenerator.onLazyCommonStart(common.id);
+                }
+            }
             Token<?> token = tokenList.get(i);
             switch (token.getType()) {
             case Operator:
@@ -416,7 +916,493 @@ public class OptimizeCodeGenerator implements CodeGenerator {
                 break;
             }
 
+            common = this.commonEnds.get(i);
+            if (common != null) {
+                if (common.store) {
+                    this.asmCodeGenerator.onCommonStore(common.id);
+                }
+                else if (common.lazy) {
+                    this.asmCodeGenerator.onLazyCommonEnd(common.id);
+                }
+            }
+            visitRuleEnd(i);
+        }
+    }
+
+
+    private void visitRuleEnd(int index) {
+        final Integer rule = this.ruleEnds.get(index);
+        if (rule != null) {
+            this.asmCodeGenerator.onRuleEnd(rule);
+        }
+    }
+
+
+    private boolean isLongLiteral(int index, long value) {
+        final Token<?> token = tokenList.get(index);
+        if (token.getType() != TokenType.Number) {
+            return false;
+        }
+        final Number number = ((NumberToken) token).getNumber();
+        return !(number instanceof Double) && number.longValue() == value;
+    }
+
+
+    private boolean isOperator(Token<?> token, OperatorType operatorType) {
+        return token.getType() == TokenType.Operator && ((OperatorToken) token).getOperatorType() == operatorType;
+    }
+
+
+    /**
+     * Returns true if subexpression ending at index always returns a number
+     * 
+     * @param starts
+     * @param end
+     * @return
+     */
+    private boolean isNumberResult(int[] starts, int end) {
+        final Token<?> token = tokenList.get(end);
+        switch (token.getType()) {
+        case Number:
+            return true;
+        case Operator:
+            switch (((OperatorToken) token).getOperatorType()) {
+            case SUB:
+            case MULT:
+            case DIV:
+            case MOD:
+            case NEG:
+                return true;
+            case ADD:
+                // strings are concatenated
+                return isNumberResult(starts, end - 1) && isNumberResult(starts, starts[end - 1] - 1);
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns true if subexpression ending at index always returns a boolean
+     * 
+     * @param end
+     * @return
+     */
+    private boolean isBooleanResult(int end) {
+        final Token<?> token = tokenList.get(end);
+        if (token == Variable.TRUE || token == Variable.FALSE) {
+            return true;
+        }
+        if (isIndexedVariable(token)) {
+            final Class<?> type = this.variableSchema.getType(this.variableSchema.indexOf(token.getLexeme()));
+            return type == boolean.class || type == Boolean.class;
+        }
+        if (token.getType() == TokenType.Operator) {
+            switch (((OperatorToken) token).getOperatorType()) {
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+            case EQ:
+            case NEQ:
+            case AND:
+            case OR:
+            case NOT:
+            case MATCH:
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Replace subexpression [start,end] by subexpression [keepStart,keepEnd]
+     * inside it
+     */
+    private void replaceSubexpression(int start, int end, int keepStart, int keepEnd) {
+        tokenList.subList(keepEnd + 1, end + 1).clear();
+        tokenList.subList(start, keepStart).clear();
+    }
+
+
+    /**
+     * Simplify the first subexpression matching an algebraic identity:
+     * 
+     * <ul>
+     * <li>x*1,1*x,x/1,x+0,0+x and x-0 are x if x is a number,note that -0.0+0
+     * is 0.0 but it is simplified to -0.0</li>
+     * <li>true&&x,x&&true,false||x and x||false are x if x is a boolean</li>
+     * <li>false&&x is false,true||x is true</li>
+     * <li>true?x:y is x,false?x:y is y</li>
+     * <li>!!x is x if x is a boolean,-(-x) is x if x is a number</li>
+     * </ul>
+     * 
+     * @return 1 if token list is changed,otherwise 0
+     */
+    private int simplify() {
+        final int size = tokenList.size();
+        final int[] starts = parseSubexpressions(new boolean[size], new boolean[size]);
+        for (int i = 0; i < size; i++) {
+            final Token<?> token = tokenList.get(i);
+            if (token.getType() != TokenType.Operator) {
+                continue;
+            }
+            final OperatorType operatorType = ((OperatorToken) token).getOperatorType();
+            final int start = starts[i];
+            final int right = i - 1;
+            switch (operatorType) {
+            case MULT:
+            case DIV:
+            case ADD:
+            case SUB: {
+                final int left = starts[right] - 1;
+                final long identity = operatorType == OperatorType.MULT || operatorType == OperatorType.DIV ? 1 : 0;
+                if (isLongLiteral(right, identity) && isNumberResult(starts, left)) {
+                    replaceSubexpression(start, i, start, left);
+                    return 1;
+                }
+                if ((operatorType == OperatorType.MULT || operatorType == OperatorType.ADD)
+                        && isLongLiteral(left, identity) && isNumberResult(starts, right)) {
+                    replaceSubexpression(start, i, starts[right], right);
+                    return 1;
+                }
+                break;
+            }
+            case AND:
+            case OR: {
+                // skip delegate token
+                final int left = starts[right] - 2;
+                final Token<?> identity = operatorType == OperatorType.AND ? Variable.TRUE : Variable.FALSE;
+                final Token<?> zero = operatorType == OperatorType.AND ? Variable.FALSE : Variable.TRUE;
+                if (tokenList.get(left) == zero) {
+                    replaceSubexpression(start, i, left, left);
+                    return 1;
+                }
+                if (tokenList.get(left) == identity && isBooleanResult(right)) {
+                    replaceSubexpression(start, i, starts[right], right);
+                    return 1;
+                }
+                if (tokenList.get(right) == identity && isBooleanResult(left)) {
+                    replaceSubexpression(start, i, start, left);
+                    return 1;
+                }
+                break;
+            }
+            case TERNARY: {
+                final int elseStart = starts[right];
+                final int thenEnd = elseStart - 2;
+                final int thenStart = starts[thenEnd];
+                final Token<?> condition = tokenList.get(start);
+                if (thenStart - 2 == start && (condition == Variable.TRUE || condition == Variable.FALSE)) {
+                    if (condition == Variable.TRUE) {
+                        replaceSubexpression(start, i, thenStart, thenEnd);
+                    }
+                    else {
+                        replaceSubexpression(start, i, elseStart, right);
+                    }
+                    return 1;
+                }
+                break;
+            }
+            case NOT:
+            case NEG:
+                if (isOperator(tokenList.get(right), operatorType)) {
+                    final int inner = right - 1;
+                    if (operatorType == OperatorType.NOT ? isBooleanResult(inner) : isNumberResult(starts, inner)) {
+                        replaceSubexpression(start, i, start, inner);
+                        return 1;
+                    }
+                }
+                break;
+            }
+        }
+        return 0;
+    }
+
+
+    private boolean isIndexedVariable(Token<?> token) {
+        return token.getType() == TokenType.Variable && token != Variable.TRUE && token != Variable.FALSE
+                && token != Variable.NIL && this.variableSchema != null
+                && this.variableSchema.indexOf(token.getLexeme()) >= 0;
+    }
+
+
+    /**
+     * Returns the bound direction of comparison between a variable and a
+     * number at [start,start+2],1 for lower bound,-1 for upper bound,0 if it
+     * is not such a comparison
+     * 
+     * @param start
+     * @return
+     */
+    private int getBoundDirection(int start) {
+        final Token<?> first = tokenList.get(start);
+        final Token<?> second = tokenList.get(start + 1);
+        final Token<?> operator = tokenList.get(start + 2);
+        int direction;
+        if (isOperator(operator, OperatorType.GT) || isOperator(operator, OperatorType.GE)) {
+            direction = 1;
+        }
+        else if (isOperator(operator, OperatorType.LT) || isOperator(operator, OperatorType.LE)) {
+            direction = -1;
+        }
+        else {
+            return 0;
+        }
+        if (isIndexedVariable(first) && second.getType() == TokenType.Number) {
+            return direction;
+        }
+        if (first.getType() == TokenType.Number && isIndexedVariable(second)) {
+            return -direction;
+        }
+        return 0;
+    }
+
+
+    private int getComparedVariable(int start) {
+        return tokenList.get(start).getType() == TokenType.Variable ? start : start + 1;
+    }
+
+
+    /**
+     * Fuse range checks "x > a && x < b" on a same indexed variable,the
+     * variable is loaded and unboxed once for both comparisons
+     * 
+     * @param starts
+     * @param selected
+     *            tokens in common subexpressions
+     * @param id
+     *            next common subexpression id
+     */
+    private void fuseRangeChecks(int[] starts, boolean[] selected, int id) {
+        for (int i = 0; i < tokenList.size(); i++) {
+            if (!isOperator(tokenList.get(i), OperatorType.AND) || selected[i]) {
+                continue;
+            }
+            final int rightStart = starts[i - 1];
+            final int left = rightStart - 2;
+            final int leftStart = starts[left];
+            if (i - 1 - rightStart != 2 || left - leftStart != 2) {
+                continue;
+            }
+            final int leftDirection = getBoundDirection(leftStart);
+            if (leftDirection == 0 || leftDirection + getBoundDirection(rightStart) != 0) {
+                continue;
+            }
+            final int first = getComparedVariable(leftStart);
+            final int second = getComparedVariable(rightStart);
+            if (selected[first] || selected[second]
+                    || !tokenList.get(first).getLexeme().equals(tokenList.get(second).getLexeme())) {
+                continue;
+            }
+            final CommonSubexpression store = new CommonSubexpression(id, first, first);
+            store.store = true;
+            final CommonSubexpression load = new CommonSubexpression(id, second, second);
+            load.load = true;
+            this.commonStarts.put(first, store);
+            this.commonEnds.put(first, store);
+            this.commonStarts.put(second, load);
+            this.commonEnds.put(second, load);
+            id++;
+        }
+    }
+
+
+    private boolean isDelegate(Token<?> token, DelegateTokenType delegateTokenType) {
+        return token.getType() == TokenType.Delegate
+                && ((DelegateToken) token).getDelegateTokenType() == delegateTokenType;
+    }
+
+
+    private boolean isPureVariable(Token<?> token) {
+        // Regular expression groups are changed by every match
+        return !token.getLexeme().startsWith("$");
+    }
+
+
+    /**
+     * Functions are pure if they are marked with PureFunction when the
+     * expression is compiled
+     * 
+     * @param name
+     * @return
+     */
+    private boolean isPureFunction(String name) {
+        return AviatorEvaluator.FUNC_MAP.get(name) instanceof PureFunction;
+    }
+
+
+    private String getTokenKey(Token<?> token) {
+        switch (token.getType()) {
+        case Operator:
+            return "O" + ((OperatorToken) token).getOperatorType().name();
+        case Delegate:
+            final DelegateTokenType delegateTokenType = ((DelegateToken) token).getDelegateTokenType();
+            if (delegateTokenType == DelegateTokenType.Method_Name
+                    || delegateTokenType == DelegateTokenType.Element_Start) {
+                return "D" + delegateTokenType.name() + ":" + token.getLexeme();
+            }
+            return "D" + delegateTokenType.name();
+        default:
+            return token.getType().name() + ":" + token.getLexeme();
+        }
+    }
+
+
+    private String getSubexpressionKey(int start, int end) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i <= end; i++) {
+            final String tokenKey = getTokenKey(tokenList.get(i));
+            sb.append(tokenKey.length()).append(':').append(tokenKey);
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Parse subexpressions of token list
+     * 
+     * @param pure
+     *            set to true if subexpression ending at index has no side
+     *            effects
+     * @param conditional
+     *            set to true if token at index may be skipped at runtime
+     * @return start token index of subexpression ending at index,-1 if the
+     *         token is not the end of a subexpression
+     */
+    private int[] parseSubexpressions(boolean[] pure, boolean[] conditional) {
+        final int size = tokenList.size();
+        final int[] starts = new int[size];
+        Arrays.fill(starts, -1);
+        final Stack<Integer> operands = new Stack<Integer>();
+        for (int i = 0; i < size; i++) {
+            final Token<?> token = tokenList.get(i);
+            switch (token.getType()) {
+            case Operator:
+                final OperatorType operatorType = ((OperatorToken) token).getOperatorType();
+                int start = i;
+                boolean pureOperator = operatorType != OperatorType.MATCH;
+                switch (operatorType) {
+                case FUNC:
+                    while (!isDelegate(tokenList.get(operands.peek()), DelegateTokenType.Method_Name)) {
+                        pureOperator &= pure[operands.pop()];
+                    }
+                    start = operands.pop();
+                    pureOperator &= isPureFunction(tokenList.get(start).getLexeme());
+                    break;
+                default:
+                    final int operandCount = operatorType.getOperandCount();
+                    for (int j = 0; j < operandCount; j++) {
+                        final int end = operands.pop();
+                        if (j == 0 && (operatorType == OperatorType.AND || operatorType == OperatorType.OR)) {
+                            // right operand
+                            Arrays.fill(conditional, starts[end], end + 1, true);
+                        }
+                        else if (j == 1 && operatorType == OperatorType.TERNARY) {
+                            // both branches
+                            Arrays.fill(conditional, starts[end], i, true);
+                        }
+                        start = starts[end];
+                        pureOperator &= pure[end];
+                    }
+                    break;
+                }
+                starts[i] = start;
+                pure[i] = pureOperator;
+                operands.push(i);
+                break;
+            case Delegate:
+                final DelegateTokenType delegateTokenType = ((DelegateToken) token).getDelegateTokenType();
+                if (delegateTokenType == DelegateTokenType.Method_Name
+                        || delegateTokenType == DelegateTokenType.Element_Start) {
+                    starts[i] = i;
+                    pure[i] = isPureVariable(token);
+                    operands.push(i);
+                }
+                break;
+            default:
+                starts[i] = i;
+                pure[i] = token.getType() != TokenType.Variable || isPureVariable(token);
+                operands.push(i);
+                break;
+            }
+        }
+        return starts;
+    }
+
+
+    /**
+     * Find pure subexpressions appearing more than once.The first occurrence
+     * stores the value if it is always evaluated before others,otherwise every
+     * occurrence is lazy,because the others may be skipped by "&&","||" and
+     * ternary operators.
+     */
+    private void findCommonSubexpressions() {
+        final int size = tokenList.size();
+        final boolean[] pure = new boolean[size];
+        final boolean[] conditional = new boolean[size];
+        final int[] starts = parseSubexpressions(pure, conditional);
+        for (int start : this.ruleStarts.keySet()) {
+            // skipped rules
+            int end = start;
+            while (!this.ruleEnds.containsKey(end)) {
+                end++;
+            }
+            Arrays.fill(conditional, start, end + 1, true);
+        }
+        final Map<String, List<Integer>> occurrences = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < size; i++) {
+            if (pure[i] && tokenList.get(i).getType() == TokenType.Operator) {
+                final String key = getSubexpressionKey(starts[i], i);
+                List<Integer> ends = occurrences.get(key);
+                if (ends == null) {
+                    ends = new ArrayList<Integer>();
+                    occurrences.put(key, ends);
+                }
+                ends.add(i);
+            }
         }
+
+        // Select the largest subexpressions first,subexpressions inside them
+        // are not selected
+        List<List<Integer>> candidates = new ArrayList<List<Integer>>();
+        for (List<Integer> ends : occurrences.values()) {
+            if (ends.size() > 1) {
+                candidates.add(ends);
+            }
+        }
+        Collections.sort(candidates, new Comparator<List<Integer>>() {
+            public int compare(List<Integer> o1, List<Integer> o2) {
+                final int end1 = o1.get(0);
+                final int end2 = o2.get(0);
+                return (end2 - starts[end2]) - (end1 - starts[end1]);
+            }
+        });
+        final boolean[] selected = new boolean[size];
+        int id = 0;
+        for (List<Integer> ends : candidates) {
+            List<CommonSubexpression> commons = new ArrayList<CommonSubexpression>();
+            for (int end : ends) {
+                if (!selected[starts[end]]) {
+                    commons.add(new CommonSubexpression(id, starts[end], end));
+                }
+            }
+            if (commons.size() < 2) {
+                continue;
+            }
+            final boolean lazy = conditional[commons.get(0).start];
+            for (CommonSubexpression common : commons) {
+                Arrays.fill(selected, common.start, common.end + 1, true);
+                common.lazy = lazy;
+                common.load = !lazy && common != commons.get(0);
+                common.store = !lazy && common == commons.get(0);
+                this.commonStarts.put(common.start, common);
+                this.commonEnds.put(common.end, common);
+            }
+            id++;
+        }
+        fuseRangeChecks(starts, selected, id);
     }
 
 
@@ -449,6 +1435,13 @@ public class OptimizeCodeGenerator implements CodeGenerator {
 
 
     public void onConstant(Token<?> lookhead) {
+        if (lookhead.getType() == TokenType.Variable) {
+            final Token<?> constant = this.constants.get(lookhead.getLexeme());
+            if (constant != null) {
+                tokenList.add(constant);
+                return;
+            }
+        }
         tokenList.add(lookhead);
     }
 
@@ -21,16 +21,42 @@ package com.googlecode.aviator.code.asm;
 import static com.googlecode.aviator.asm.Opcodes.*;
 
 import java.io.PrintWriter;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.googlecode.aviator.AviatorEvaluator;
-import com.googlecode.aviator.ClassExpression;
+import com.googlecode.aviator.ColumnarExpression;
 import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.RuleIndex;
+import com.googlecode.aviator.RuleSet;
 import com.googlecode.aviator.asm.ClassVisitor;
 import com.googlecode.aviator.asm.ClassWriter;
 import com.googlecode.aviator.asm.Label;
 import com.googlecode.aviator.asm.MethodVisitor;
+import com.googlecode.aviator.asm.tree.AbstractInsnNode;
+import com.googlecode.aviator.asm.tree.FieldInsnNode;
+import com.googlecode.aviator.asm.tree.IincInsnNode;
+import com.googlecode.aviator.asm.tree.InsnList;
+import com.googlecode.aviator.asm.tree.InsnNode;
+import com.googlecode.aviator.asm.tree.JumpInsnNode;
+import com.googlecode.aviator.asm.tree.LabelNode;
+import com.googlecode.aviator.asm.tree.LdcInsnNode;
+import com.googlecode.aviator.asm.tree.MethodInsnNode;
+import com.googlecode.aviator.asm.tree.MethodNode;
+import com.googlecode.aviator.asm.tree.TypeInsnNode;
+import com.googlecode.aviator.asm.tree.VarInsnNode;
 import com.googlecode.aviator.asm.util.CheckClassAdapter;
 import com.googlecode.aviator.asm.util.TraceClassVisitor;
 import com.googlecode.aviator.code.CodeGenerator;
@@ -39,6 +65,9 @@ import com.googlecode.aviator.lexer.token.NumberToken;
 import com.googlecode.aviator.lexer.token.Token;
 import com.googlecode.aviator.lexer.token.Variable;
 import com.googlecode.aviator.parser.AviatorClassLoader;
+import com.googlecode.aviator.runtime.function.AbstractFunction;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+import com.googlecode.aviator.utils.VariableSchema;
 
 
 /**
@@ -58,7 +87,7 @@ public class ASMCodeGenerator implements CodeGenerator {
     private MethodVisitor mv;
     // Class name
     private final String className;
-    // Class loader to define generated class
+    // Parent class loader of the generated class's loader
     private final AviatorClassLoader classLoader;
 
     private static final AtomicLong CLASS_COUNTER = new AtomicLong();
@@ -69,7 +98,169 @@ public class ASMCodeGenerator implements CodeGenerator {
     private int operandsCount = 0;
 
     private int maxStacks = 0;
-    private int maxLocals = 1;
+    // this and env
+    private int maxLocals = 2;
+
+    // Local index of env
+    private static final int ENV_INDEX = 1;
+
+    // Local indexes of the candidates and results arrays of rule methods
+    private static final int CANDIDATES_INDEX = 2;
+    private static final int RESULTS_INDEX = 3;
+
+    // Local indexes of the columns,row count,output column and current row of
+    // columnar method
+    private static final int COLUMNS_INDEX = 2;
+    private static final int ROWS_INDEX = 3;
+    private static final int OUTPUT_INDEX = 4;
+    private static final int ROW_INDEX = 5;
+
+    private static final String COLUMNAR_EXPRESSION = "com/googlecode/aviator/ColumnarExpression";
+
+    private static final String COLUMNAR_METHOD_DESC =
+            "(Lcom/googlecode/aviator/utils/Env;[Ljava/lang/Object;ILjava/lang/Object;)V";
+
+    private static final String RULE_SET = "com/googlecode/aviator/RuleSet";
+
+    private static final String RULE_INDEX = "com/googlecode/aviator/RuleIndex";
+
+    private static final String RULE_METHOD_DESC = "(Lcom/googlecode/aviator/utils/Env;[Z[Ljava/lang/Object;)V";
+
+    private static final String AVIATOR_OBJECT = "com/googlecode/aviator/runtime/type/AviatorObject";
+
+    private static final String TYPE_UTILS = "com/googlecode/aviator/utils/TypeUtils";
+
+    private static final String AVIATOR_METHOD = "com/googlecode/aviator/runtime/method/AviatorMethod";
+
+    private static final String PROPERTY_PATH = "com/googlecode/aviator/runtime/property/PropertyPath";
+
+    /**
+     * Literal constants hoisted into static fields,constant key -> field
+     */
+    private final Map<String, ConstantField> constantFields = new LinkedHashMap<String, ConstantField>();
+
+    /**
+     * Literals lifted into instance fields,field name -> field,null if
+     * literals are hoisted into static fields
+     */
+    private Map<String, ParameterField> parameterFields;
+
+    /**
+     * Literal token -> instance field holding it
+     */
+    private Map<Token<?>, ParameterField> parameterTokens;
+
+    /**
+     * Finished methods evaluating rules,null if it compiles a single
+     * expression
+     */
+    private List<MethodNode> ruleMethods;
+
+    /**
+     * Label skipping current rule if it is not a candidate
+     */
+    private Label ruleSkipLabel;
+
+    /**
+     * Variable index -> local holding it's column,null if it doesn't compile
+     * a columnar expression
+     */
+    private Map<Integer, Integer> columnLocals;
+
+    /**
+     * Output column type of columnar expression
+     */
+    private Class<?> columnResultType;
+
+    /**
+     * Instructions creating a variable,from NEW to INVOKESPECIAL
+     */
+    private static class VariableLoad {
+        final AbstractInsnNode first;
+        final AbstractInsnNode last;
+
+
+        VariableLoad(AbstractInsnNode first, AbstractInsnNode last) {
+            super();
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Non indexed variable name -> instructions creating it
+     */
+    private final Map<String, List<VariableLoad>> variableLoads = new LinkedHashMap<String, List<VariableLoad>>();
+
+    /**
+     * Variables in schema are bound to fixed indexes,null if there is no
+     * schema
+     */
+    private VariableSchema variableSchema;
+
+    /**
+     * Execute method is buffered,so that operands can be converted between
+     * object and primitive representations after they are generated
+     */
+    private MethodNode methodNode;
+
+    // Operand representations
+    private static final int OBJECT = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int BOOLEAN = 3;
+
+    /**
+     * Value operands on stack with their representations
+     */
+    private final Stack<Operand> valueStack = new Stack<Operand>();
+
+    /**
+     * Left operands of pending "&&","||" and ternary operators
+     */
+    private final Stack<Operand> leftOperandStack = new Stack<Operand>();
+
+    /**
+     * A value operand on stack
+     * 
+     * @author dennis
+     * 
+     */
+    private static class Operand {
+        // Current representation
+        int type;
+        // Primitive representation it can be converted to,OBJECT if none
+        final int declaredType;
+        // Literal number loaded from constant field,null if it is not literal
+        final Number literal;
+        // Last instruction producing this operand
+        AbstractInsnNode last;
+
+
+        public Operand(int type, int declaredType, Number literal, AbstractInsnNode last) {
+            super();
+            this.type = type;
+            this.declaredType = declaredType;
+            this.literal = literal;
+            this.last = last;
+        }
+
+
+        /**
+         * Returns true if it is primitive or a variable with declared
+         * primitive type
+         * 
+         * @return
+         */
+        boolean isTyped() {
+            return this.type != OBJECT || this.literal == null && this.declaredType != OBJECT;
+        }
+
+
+        boolean isNumber() {
+            return this.declaredType == LONG || this.declaredType == DOUBLE;
+        }
+    }
 
 
     private void setMaxStacks(int newMaxStacks) {
@@ -92,28 +283,260 @@ public class ASMCodeGenerator implements CodeGenerator {
         else {
             checkClassAdapter = new CheckClassAdapter(classWriter);
         }
-        makeConstructor();
         startVisitMethodCode();
     }
 
 
+    public void setVariableSchema(VariableSchema variableSchema) {
+        this.variableSchema = variableSchema;
+    }
+
+
+    /**
+     * Lift literal tokens into instance fields instead of static
+     * constants,the generated class has a constructor taking their values as
+     * an AviatorObject[] in the same order,so that it can be shared by
+     * expressions differing only in these literals.
+     * 
+     * @see #newExpression(Class, AviatorObject[])
+     * @param parameters
+     *            number,string and pattern tokens
+     */
+    public void setParameters(List<Token<?>> parameters) {
+        this.parameterFields = new LinkedHashMap<String, ParameterField>();
+        this.parameterTokens = new IdentityHashMap<Token<?>, ParameterField>();
+        for (Token<?> token : parameters) {
+            String typeName;
+            switch (token.getType()) {
+            case Number:
+                typeName =
+                        ((NumberToken) token).getNumber() instanceof Double ? "com/googlecode/aviator/runtime/type/AviatorDouble"
+                                : "com/googlecode/aviator/runtime/type/AviatorLong";
+                break;
+            case String:
+                typeName = "com/googlecode/aviator/runtime/type/AviatorString";
+                break;
+            case Pattern:
+                typeName = "com/googlecode/aviator/runtime/type/AviatorPattern";
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid parameter " + token.getLexeme());
+            }
+            final ParameterField field = new ParameterField("parameter_" + this.parameterFields.size(), typeName);
+            this.parameterFields.put(field.fieldName, field);
+            this.parameterTokens.put(token, field);
+        }
+    }
+
+
     private void startVisitMethodCode() {
-        mv =
-                checkClassAdapter.visitMethod(ACC_PUBLIC + ACC_STATIC + ACC_FINAL, "run",
-                    "(Ljava/util/Map;)Ljava/lang/Object;",
-                    "(Ljava/util/Map<Ljava/lang/String;Ljava/lang/Object;>;)Ljava/lang/Object;", null);
+        methodNode =
+                new MethodNode(ACC_PUBLIC + ACC_FINAL, "execute0",
+                    "(Lcom/googlecode/aviator/utils/Env;)Ljava/lang/Object;", null, null);
+        mv = methodNode;
         mv.visitCode();
     }
 
 
-    private void endVisitCode() {
+    private void pushValue(int type) {
+        pushValue(type, type, null);
+    }
+
+
+    private void pushValue(int type, int declaredType, Number literal) {
+        this.valueStack.push(new Operand(type, declaredType, literal, this.methodNode.instructions.getLast()));
+    }
+
+
+    /**
+     * Insert instructions right after the operand
+     * 
+     * @param operand
+     * @param insns
+     */
+    private void insertAfter(Operand operand, InsnList insns) {
+        final AbstractInsnNode last = insns.getLast();
+        this.methodNode.instructions.insert(operand.last, insns);
+        operand.last = last;
+    }
+
+
+    /**
+     * Convert operand to AviatorObject
+     * 
+     * @param operand
+     */
+    private void toObject(Operand operand) {
+        InsnList insns = new InsnList();
+        switch (operand.type) {
+        case OBJECT:
+            return;
+        case LONG:
+            insns.add(new MethodInsnNode(INVOKESTATIC, "com/googlecode/aviator/runtime/type/AviatorLong", "valueOf",
+                "(J)Lcom/googlecode/aviator/runtime/type/AviatorLong;"));
+            break;
+        case DOUBLE:
+            insns.add(new MethodInsnNode(INVOKESTATIC, "com/googlecode/aviator/runtime/type/AviatorDouble", "valueOf",
+                "(D)Lcom/googlecode/aviator/runtime/type/AviatorDouble;"));
+            break;
+        case BOOLEAN:
+            insns.add(new MethodInsnNode(INVOKESTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean",
+                "valueOf", "(Z)Lcom/googlecode/aviator/runtime/type/AviatorBoolean;"));
+            break;
+        }
+        insertAfter(operand, insns);
+        operand.type = OBJECT;
+    }
+
+
+    /**
+     * Convert operand to primitive,literal numbers are loaded by ldc instead
+     * of constant field,typed variables are unboxed.
+     * 
+     * @param operand
+     * @param type
+     *            target type,LONG operand is widened to DOUBLE if necessary
+     */
+    private void toPrimitive(Operand operand, int type) {
+        if (operand.type == OBJECT) {
+            if (operand.literal != null) {
+                final AbstractInsnNode ldc;
+                if (operand.last.getOpcode() == GETFIELD) {
+                    // literal parameter is loaded from it's primitive field
+                    final ParameterField field = this.parameterFields.get(((FieldInsnNode) operand.last).name);
+                    if (type == DOUBLE) {
+                        field.doubleValue = true;
+                        ldc = new FieldInsnNode(GETFIELD, className, field.fieldName + "_double", "D");
+                    }
+                    else {
+                        field.longValue = true;
+                        ldc = new FieldInsnNode(GETFIELD, className, field.fieldName + "_long", "J");
+                    }
+                }
+                else {
+                    ldc =
+                            new LdcInsnNode(type == DOUBLE ? (Object) Double.valueOf(operand.literal.doubleValue())
+                                    : (Object) Long.valueOf(operand.literal.longValue()));
+                }
+                this.methodNode.instructions.set(operand.last, ldc);
+                operand.last = ldc;
+                operand.type = type;
+                return;
+            }
+            InsnList insns = new InsnList();
+            insns.add(new VarInsnNode(ALOAD, ENV_INDEX));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject",
+                "getValue", "(Ljava/util/Map;)Ljava/lang/Object;"));
+            switch (operand.declaredType) {
+            case LONG:
+                insns.add(new TypeInsnNode(CHECKCAST, "java/lang/Number"));
+                insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Number", "longValue", "()J"));
+                break;
+            case DOUBLE:
+                insns.add(new TypeInsnNode(CHECKCAST, "java/lang/Number"));
+                insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Number", "doubleValue", "()D"));
+                break;
+            case BOOLEAN:
+                insns.add(new TypeInsnNode(CHECKCAST, "java/lang/Boolean"));
+                insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z"));
+                break;
+            }
+            insertAfter(operand, insns);
+            operand.type = operand.declaredType;
+        }
+        if (type == DOUBLE && operand.type == LONG) {
+            InsnList insns = new InsnList();
+            insns.add(new InsnNode(L2D));
+            insertAfter(operand, insns);
+            operand.type = DOUBLE;
+        }
+    }
+
+
+    /**
+     * Returns the primitive type of a binary numeric operation,or OBJECT if
+     * the operation must be dispatched on AviatorObject
+     * 
+     * @param left
+     * @param right
+     * @return
+     */
+    private int getNumberType(Operand left, Operand right) {
+        if (left.isNumber() && right.isNumber() && (left.isTyped() || right.isTyped())) {
+            return left.declaredType == DOUBLE || right.declaredType == DOUBLE ? DOUBLE : LONG;
+        }
+        return OBJECT;
+    }
+
+
+    private boolean isTypedBoolean(Operand operand) {
+        return operand.declaredType == BOOLEAN && operand.isTyped();
+    }
 
+
+    private void endVisitCode() {
+        if (this.ruleMethods != null) {
+            endVisitRuleSet();
+            return;
+        }
+        if (this.columnLocals != null) {
+            endVisitColumns();
+            return;
+        }
+        checkClassAdapter.visit(AviatorEvaluator.BYTECODE_VER, ACC_PUBLIC + ACC_SUPER + ACC_FINAL, className, null,
+            "com/googlecode/aviator/ClassExpression", null);
+        optimizeBranches();
+        cacheVariables();
         if (this.operandsCount > 0) {
-            loadEnv();
-            mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "getValue",
-                "(Ljava/util/Map;)Ljava/lang/Object;");
-            mv.visitInsn(ARETURN);
-            popOperand();
+            final Operand result = this.valueStack.pop();
+            // The expression body returns it's result in it's own
+            // representation,other execute methods call and convert it,so
+            // that a boolean or numeric result is never boxed by the
+            // primitive execute methods.Conversions that always fail(e.g.
+            // executeLong of a boolean result) are left to BaseExpression,
+            // TypeUtils throws the type mismatch error.
+            switch (result.type) {
+            case LONG:
+                this.methodNode.name = "executeLong0";
+                this.methodNode.desc = "(Lcom/googlecode/aviator/utils/Env;)J";
+                mv.visitInsn(LRETURN);
+                makeBridgeMethod("execute0", "Ljava/lang/Object;", "J", ARETURN, new MethodInsnNode(INVOKESTATIC,
+                    "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;"));
+                makeBridgeMethod("executeDouble0", "D", "J", DRETURN, new InsnNode(L2D));
+                break;
+            case DOUBLE:
+                this.methodNode.name = "executeDouble0";
+                this.methodNode.desc = "(Lcom/googlecode/aviator/utils/Env;)D";
+                mv.visitInsn(DRETURN);
+                makeBridgeMethod("execute0", "Ljava/lang/Object;", "D", ARETURN, new MethodInsnNode(INVOKESTATIC,
+                    "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"));
+                makeBridgeMethod("executeLong0", "J", "D", LRETURN, new InsnNode(D2L));
+                break;
+            case BOOLEAN:
+                this.methodNode.name = "executeBoolean0";
+                this.methodNode.desc = "(Lcom/googlecode/aviator/utils/Env;)Z";
+                mv.visitInsn(IRETURN);
+                makeBridgeMethod("execute0", "Ljava/lang/Object;", "Z", ARETURN, new MethodInsnNode(INVOKESTATIC,
+                    "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"));
+                break;
+            default:
+                this.methodNode.name = "eval0";
+                this.methodNode.desc = "(Lcom/googlecode/aviator/utils/Env;)L" + AVIATOR_OBJECT + ";";
+                mv.visitInsn(ARETURN);
+                makeBridgeMethod("execute0", "Ljava/lang/Object;", "L" + AVIATOR_OBJECT + ";", ARETURN,
+                    new VarInsnNode(ALOAD, ENV_INDEX), new MethodInsnNode(INVOKEVIRTUAL, AVIATOR_OBJECT,
+                        "getValue", "(Ljava/util/Map;)Ljava/lang/Object;"));
+                makeBridgeMethod("executeBoolean0", "Z", "L" + AVIATOR_OBJECT + ";", IRETURN, new VarInsnNode(
+                    ALOAD, ENV_INDEX), new MethodInsnNode(INVOKESTATIC, TYPE_UTILS, "booleanValue", "(L"
+                        + AVIATOR_OBJECT + ";Ljava/util/Map;)Z"));
+                makeBridgeMethod("executeLong0", "J", "L" + AVIATOR_OBJECT + ";", LRETURN, new VarInsnNode(ALOAD,
+                    ENV_INDEX), new MethodInsnNode(INVOKESTATIC, TYPE_UTILS, "longValue", "(L" + AVIATOR_OBJECT
+                        + ";Ljava/util/Map;)J"));
+                makeBridgeMethod("executeDouble0", "D", "L" + AVIATOR_OBJECT + ";", DRETURN, new VarInsnNode(ALOAD,
+                    ENV_INDEX), new MethodInsnNode(INVOKESTATIC, TYPE_UTILS, "doubleValue", "(L" + AVIATOR_OBJECT
+                        + ";Ljava/util/Map;)D"));
+                break;
+            }
             popOperand();
         }
         else {
@@ -122,32 +545,794 @@ public class ASMCodeGenerator implements CodeGenerator {
             pushOperand(0);
             popOperand();
         }
-        if (this.operandsCount > 0) {
-            throw new CompileExpressionErrorException("operand stack is not empty,count=" + operandsCount);
+        if (this.operandsCount > 0) {
+            throw new CompileExpressionErrorException("operand stack is not empty,count=" + operandsCount);
+        }
+        mv.visitMaxs(maxStacks, maxLocals);
+        mv.visitEnd();
+        this.methodNode.accept(checkClassAdapter);
+
+        makeConstructor();
+        makeStaticInitializer();
+        checkClassAdapter.visitEnd();
+    }
+
+
+    /**
+     * Compile a columnar expression instead of a single expression,the
+     * generated class extends ColumnarExpression.Variables in schema are read
+     * from elements of their columns,declared types of the schema are the
+     * component types of columns.
+     * 
+     * @see #getColumnarResult(VariableSchema)
+     */
+    public void startColumns() {
+        this.columnLocals = new HashMap<Integer, Integer>();
+        // this,env,columns,rows,output and row
+        this.maxLocals = 6;
+    }
+
+
+    /**
+     * Load element of current row from variable's column
+     * 
+     * @param index
+     *            variable index
+     */
+    private void loadColumn(int index) {
+        Integer local = this.columnLocals.get(index);
+        if (local == null) {
+            local = getLocalIndex();
+            this.columnLocals.put(index, local);
+        }
+        final int declaredType = getDeclaredType(this.variableSchema.getType(index));
+        if (declaredType == OBJECT) {
+            mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorRuntimeJavaType");
+            mv.visitInsn(DUP);
+        }
+        mv.visitVarInsn(ALOAD, local);
+        mv.visitVarInsn(ILOAD, ROW_INDEX);
+        switch (declaredType) {
+        case LONG:
+            mv.visitInsn(LALOAD);
+            break;
+        case DOUBLE:
+            mv.visitInsn(DALOAD);
+            break;
+        case BOOLEAN:
+            mv.visitInsn(BALOAD);
+            break;
+        default:
+            mv.visitInsn(AALOAD);
+            mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorRuntimeJavaType",
+                "<init>", "(Ljava/lang/Object;)V");
+            break;
+        }
+        pushOperand(2);
+        popOperand();
+        popOperand();
+        pushValue(declaredType);
+    }
+
+
+    /**
+     * Make the loop over rows,the expression body computes the result of
+     * current row which is stored to output column:
+     * 
+     * <pre>
+     *     columns and output are cast to locals
+     *     row = 0
+     *     GOTO cond
+     * loop:
+     *     output[row] = body
+     *     row++
+     * cond:
+     *     IF row < rows GOTO loop
+     * </pre>
+     * 
+     * Locals of common subexpressions are initialized in the body,variables
+     * looked up in environment are cached before the loop.
+     */
+    private void endVisitColumns() {
+        checkClassAdapter.visit(AviatorEvaluator.BYTECODE_VER, ACC_PUBLIC + ACC_SUPER + ACC_FINAL, className, null,
+            COLUMNAR_EXPRESSION, null);
+        optimizeBranches();
+        final Operand result = this.valueStack.pop();
+        if (result.type == OBJECT && result.isNumber()) {
+            // literal number
+            toPrimitive(result, result.declaredType);
+        }
+        final int storeOpcode;
+        switch (result.type) {
+        case LONG:
+            this.columnResultType = long[].class;
+            storeOpcode = LASTORE;
+            break;
+        case DOUBLE:
+            this.columnResultType = double[].class;
+            storeOpcode = DASTORE;
+            break;
+        case BOOLEAN:
+            this.columnResultType = boolean[].class;
+            storeOpcode = BASTORE;
+            break;
+        default:
+            this.columnResultType = Object[].class;
+            storeOpcode = AASTORE;
+            loadEnv();
+            mv.visitMethodInsn(INVOKEVIRTUAL, AVIATOR_OBJECT, "getValue", "(Ljava/util/Map;)Ljava/lang/Object;");
+            popOperand();
+            break;
+        }
+        popOperand();
+        if (this.operandsCount > 0) {
+            throw new CompileExpressionErrorException("operand stack is not empty,count=" + operandsCount);
+        }
+        final InsnList insns = this.methodNode.instructions;
+        final int outputLocal = getLocalIndex();
+        final LabelNode loop = new LabelNode();
+        final LabelNode cond = new LabelNode();
+
+        InsnList head = new InsnList();
+        for (Map.Entry<Integer, Integer> entry : this.columnLocals.entrySet()) {
+            head.add(new VarInsnNode(ALOAD, COLUMNS_INDEX));
+            head.add(new LdcInsnNode(entry.getKey()));
+            head.add(new InsnNode(AALOAD));
+            head.add(new TypeInsnNode(CHECKCAST, "["
+                    + getColumnDesc(getDeclaredType(this.variableSchema.getType(entry.getKey())))));
+            head.add(new VarInsnNode(ASTORE, entry.getValue()));
+        }
+        head.add(new VarInsnNode(ALOAD, OUTPUT_INDEX));
+        head.add(new TypeInsnNode(CHECKCAST, "[" + getColumnDesc(result.type)));
+        head.add(new VarInsnNode(ASTORE, outputLocal));
+        head.add(new InsnNode(ICONST_0));
+        head.add(new VarInsnNode(ISTORE, ROW_INDEX));
+        head.add(new JumpInsnNode(GOTO, cond));
+        head.add(loop);
+        // output column and row are below the result
+        head.add(new VarInsnNode(ALOAD, outputLocal));
+        head.add(new VarInsnNode(ILOAD, ROW_INDEX));
+        insns.insert(head);
+
+        insns.add(new InsnNode(storeOpcode));
+        insns.add(new IincInsnNode(ROW_INDEX, 1));
+        insns.add(cond);
+        insns.add(new VarInsnNode(ILOAD, ROW_INDEX));
+        insns.add(new VarInsnNode(ILOAD, ROWS_INDEX));
+        insns.add(new JumpInsnNode(IF_ICMPLT, loop));
+        insns.add(new InsnNode(RETURN));
+        cacheVariables();
+
+        this.methodNode.name = "execute0";
+        this.methodNode.desc = COLUMNAR_METHOD_DESC;
+        mv.visitMaxs(maxStacks, maxLocals);
+        mv.visitEnd();
+        this.methodNode.accept(checkClassAdapter);
+
+        mv = checkClassAdapter.visitMethod(ACC_PUBLIC, "<init>",
+            "(Lcom/googlecode/aviator/utils/VariableSchema;Ljava/lang/Class;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, COLUMNAR_EXPRESSION, "<init>",
+            "(Lcom/googlecode/aviator/utils/VariableSchema;Ljava/lang/Class;)V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(3, 3);
+        mv.visitEnd();
+        makeStaticInitializer();
+        checkClassAdapter.visitEnd();
+    }
+
+
+    private static String getColumnDesc(int type) {
+        switch (type) {
+        case LONG:
+            return "J";
+        case DOUBLE:
+            return "D";
+        case BOOLEAN:
+            return "Z";
+        default:
+            return "Ljava/lang/Object;";
+        }
+    }
+
+
+    /**
+     * Compile a rule set instead of a single expression,the generated class
+     * extends RuleSet.Rules are compiled into methods storing their results
+     * to an Object[].
+     * 
+     * @see #onRuleStart(int)
+     * @see #onRuleEnd(int)
+     * @see #endRuleMethod()
+     */
+    public void startRuleSet() {
+        this.ruleMethods = new ArrayList<MethodNode>();
+        // this,env,candidates and results
+        this.maxLocals = 4;
+    }
+
+
+    /**
+     * Start of a rule which is skipped if it is not a candidate
+     * 
+     * @param index
+     *            rule index
+     */
+    public void onRuleStart(int index) {
+        this.ruleSkipLabel = makeLabel();
+        mv.visitVarInsn(ALOAD, CANDIDATES_INDEX);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(BALOAD);
+        mv.visitJumpInsn(IFEQ, this.ruleSkipLabel);
+        pushOperand(1);
+        popOperand();
+        popOperand();
+    }
+
+
+    /**
+     * Store the value on top of stack as result of rule
+     * 
+     * @param index
+     *            rule index
+     */
+    public void onRuleEnd(int index) {
+        final Operand operand = this.valueStack.pop();
+        switch (operand.type) {
+        case LONG:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;");
+            break;
+        case DOUBLE:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            break;
+        case BOOLEAN:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            break;
+        default:
+            loadEnv();
+            mv.visitMethodInsn(INVOKEVIRTUAL, AVIATOR_OBJECT, "getValue", "(Ljava/util/Map;)Ljava/lang/Object;");
+            popOperand();
+            break;
+        }
+        mv.visitVarInsn(ALOAD, RESULTS_INDEX);
+        mv.visitInsn(SWAP);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(SWAP);
+        mv.visitInsn(AASTORE);
+        pushOperand(1);
+        popOperand();
+        popOperand();
+        popOperand();
+        if (this.ruleSkipLabel != null) {
+            mv.visitLabel(this.ruleSkipLabel);
+            this.ruleSkipLabel = null;
+        }
+    }
+
+
+    /**
+     * Finish the method evaluating rules so far,following rules are compiled
+     * into a new method.Variables and common subexpressions are shared by the
+     * rules in one method.
+     */
+    public void endRuleMethod() {
+        optimizeBranches();
+        cacheVariables();
+        mv.visitInsn(RETURN);
+        if (this.operandsCount > 0) {
+            throw new CompileExpressionErrorException("operand stack is not empty,count=" + operandsCount);
+        }
+        this.methodNode.name = "rules" + this.ruleMethods.size();
+        this.methodNode.desc = RULE_METHOD_DESC;
+        mv.visitMaxs(maxStacks, maxLocals);
+        mv.visitEnd();
+        this.ruleMethods.add(this.methodNode);
+
+        this.variableLoads.clear();
+        this.commonLocals.clear();
+        this.maxStacks = 0;
+        this.maxLocals = 4;
+        startVisitMethodCode();
+    }
+
+
+    /**
+     * Make the execute method calling all rule methods
+     */
+    private void endVisitRuleSet() {
+        checkClassAdapter.visit(AviatorEvaluator.BYTECODE_VER, ACC_PUBLIC + ACC_SUPER + ACC_FINAL, className, null,
+            RULE_SET, null);
+        mv = checkClassAdapter.visitMethod(ACC_PUBLIC + ACC_FINAL, "execute0", RULE_METHOD_DESC, null, null);
+        mv.visitCode();
+        for (MethodNode ruleMethod : this.ruleMethods) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, ENV_INDEX);
+            mv.visitVarInsn(ALOAD, CANDIDATES_INDEX);
+            mv.visitVarInsn(ALOAD, RESULTS_INDEX);
+            mv.visitMethodInsn(INVOKEVIRTUAL, className, ruleMethod.name, RULE_METHOD_DESC);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(4, 4);
+        mv.visitEnd();
+        for (MethodNode ruleMethod : this.ruleMethods) {
+            ruleMethod.accept(checkClassAdapter);
+        }
+
+        mv = checkClassAdapter.visitMethod(ACC_PUBLIC, "<init>", "(Ljava/util/List;L" + RULE_INDEX + ";)V", null,
+            null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, RULE_SET, "<init>", "(Ljava/util/List;L" + RULE_INDEX + ";)V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(3, 3);
+        mv.visitEnd();
+        makeStaticInitializer();
+        checkClassAdapter.visitEnd();
+    }
+
+
+    /**
+     * Make an execute method which calls the expression body and converts
+     * it's result
+     * 
+     * @param name
+     *            method name
+     * @param returnDesc
+     *            return type descriptor
+     * @param bodyReturnDesc
+     *            return type descriptor of the body method
+     * @param returnOpcode
+     * @param convertInsns
+     *            instructions converting result of body
+     */
+    private void makeBridgeMethod(String name, String returnDesc, String bodyReturnDesc, int returnOpcode,
+            AbstractInsnNode... convertInsns) {
+        MethodNode bridge =
+                new MethodNode(ACC_PUBLIC + ACC_FINAL, name, "(Lcom/googlecode/aviator/utils/Env;)" + returnDesc,
+                    null, null);
+        bridge.visitCode();
+        bridge.visitVarInsn(ALOAD, 0);
+        bridge.visitVarInsn(ALOAD, ENV_INDEX);
+        bridge.visitMethodInsn(INVOKEVIRTUAL, className, this.methodNode.name, "(Lcom/googlecode/aviator/utils/Env;)"
+                + bodyReturnDesc);
+        for (AbstractInsnNode insn : convertInsns) {
+            bridge.instructions.add(insn);
+        }
+        bridge.visitInsn(returnOpcode);
+        bridge.visitMaxs(4, 2);
+        bridge.visitEnd();
+        bridge.accept(checkClassAdapter);
+    }
+
+
+    /**
+     * Returns the 0 or 1 pushed by the instruction,-1 if it is not ICONST_0
+     * or ICONST_1
+     * 
+     * @param insn
+     * @return
+     */
+    private static int getBooleanConstant(AbstractInsnNode insn) {
+        if (insn == null) {
+            return -1;
+        }
+        switch (insn.getOpcode()) {
+        case ICONST_0:
+            return 0;
+        case ICONST_1:
+            return 1;
+        default:
+            return -1;
+        }
+    }
+
+
+    private int countJumps(LabelNode label) {
+        int count = 0;
+        for (Iterator<?> it = this.methodNode.instructions.iterator(); it.hasNext();) {
+            AbstractInsnNode insn = (AbstractInsnNode) it.next();
+            if (insn instanceof JumpInsnNode && ((JumpInsnNode) insn).label == label) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Compile conditions in control flow context.Comparisons and logic
+     * operations materialize their result as
+     * 
+     * <pre>
+     *     ICONST_a
+     *     GOTO end
+     * other:
+     *     ICONST_b
+     * end:
+     * </pre>
+     * 
+     * If the result is only tested by IFEQ/IFNE,the jumps are retargeted to
+     * the test's label and the boolean is never loaded.A following "!" just
+     * swaps the constants.
+     */
+    private void optimizeBranches() {
+        final InsnList insns = this.methodNode.instructions;
+        AbstractInsnNode insn = insns.getFirst();
+        while (insn != null) {
+            final int a = getBooleanConstant(insn);
+            if (a < 0 || insn.getNext() == null || insn.getNext().getOpcode() != GOTO
+                    || !(insn.getNext().getNext() instanceof LabelNode)) {
+                insn = insn.getNext();
+                continue;
+            }
+            final JumpInsnNode gotoEnd = (JumpInsnNode) insn.getNext();
+            final LabelNode other = (LabelNode) gotoEnd.getNext();
+            final AbstractInsnNode otherConstant = other.getNext();
+            final int b = getBooleanConstant(otherConstant);
+            if (b != 1 - a || otherConstant.getNext() != gotoEnd.label || countJumps(gotoEnd.label) != 1) {
+                insn = insn.getNext();
+                continue;
+            }
+            final LabelNode end = gotoEnd.label;
+            final AbstractInsnNode consumer = end.getNext();
+            if (consumer != null && consumer.getOpcode() == ICONST_1 && consumer.getNext() != null
+                    && consumer.getNext().getOpcode() == IXOR) {
+                // Logic not,swap the results
+                insns.remove(consumer.getNext());
+                insns.remove(consumer);
+                final AbstractInsnNode swapped = new InsnNode(b == 0 ? ICONST_0 : ICONST_1);
+                insns.set(insn, swapped);
+                insns.set(otherConstant, new InsnNode(a == 0 ? ICONST_0 : ICONST_1));
+                insn = swapped;
+                continue;
+            }
+            if (consumer == null || consumer.getOpcode() != IFEQ && consumer.getOpcode() != IFNE) {
+                insn = insn.getNext();
+                continue;
+            }
+            final LabelNode target = ((JumpInsnNode) consumer).label;
+            final int jumpValue = consumer.getOpcode() == IFEQ ? 0 : 1;
+            final AbstractInsnNode next = consumer.getNext();
+            if (a == jumpValue) {
+                // Fall through result jumps,the other one continues
+                insns.set(insn, new JumpInsnNode(GOTO, target));
+                insns.remove(gotoEnd);
+            }
+            else {
+                for (Iterator<?> it = insns.iterator(); it.hasNext();) {
+                    AbstractInsnNode node = (AbstractInsnNode) it.next();
+                    if (node instanceof JumpInsnNode && ((JumpInsnNode) node).label == other) {
+                        ((JumpInsnNode) node).label = target;
+                    }
+                }
+                insns.remove(insn);
+                insns.remove(gotoEnd);
+                insns.remove(other);
+            }
+            insns.remove(otherConstant);
+            insns.remove(end);
+            insns.remove(consumer);
+            insn = next;
+        }
+        // Jump over goto,"IFxx l0;GOTO l1;l0:" is replaced by "IFnotxx l1;l0:"
+        for (insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            final int inverse = getInverseJump(insn.getOpcode());
+            final AbstractInsnNode next = insn.getNext();
+            if (inverse > 0 && next != null && next.getOpcode() == GOTO
+                    && next.getNext() == ((JumpInsnNode) insn).label) {
+                ((JumpInsnNode) insn).setOpcode(inverse);
+                ((JumpInsnNode) insn).label = ((JumpInsnNode) next).label;
+                insns.remove(next);
+            }
+        }
+    }
+
+
+    private static int getInverseJump(int opcode) {
+        switch (opcode) {
+        case IFEQ:
+            return IFNE;
+        case IFNE:
+            return IFEQ;
+        case IFLT:
+            return IFGE;
+        case IFGE:
+            return IFLT;
+        case IFGT:
+            return IFLE;
+        case IFLE:
+            return IFGT;
+        default:
+            return -1;
+        }
+    }
+
+
+    private void addVariableLoad(String name, AbstractInsnNode first) {
+        // "$n" variables are regular expression groups,which are changed by
+        // every match in one execution
+        if (name.startsWith("$")) {
+            return;
+        }
+        List<VariableLoad> loads = this.variableLoads.get(name);
+        if (loads == null) {
+            loads = new ArrayList<VariableLoad>();
+            this.variableLoads.put(name, loads);
+        }
+        loads.add(new VariableLoad(first, this.methodNode.instructions.getLast()));
+    }
+
+
+    /**
+     * Variables used more than once are created in a local at method entry
+     * and read from environment only once,each use loads the local instead of
+     * creating a new AviatorJavaType.
+     */
+    private void cacheVariables() {
+        InsnList init = new InsnList();
+        for (Map.Entry<String, List<VariableLoad>> entry : this.variableLoads.entrySet()) {
+            if (entry.getValue().size() < 2) {
+                continue;
+            }
+            final int localIndex = getLocalIndex();
+            init.add(new TypeInsnNode(NEW, "com/googlecode/aviator/runtime/type/AviatorCachedJavaType"));
+            init.add(new InsnNode(DUP));
+            init.add(new LdcInsnNode(entry.getKey()));
+            final ConstantField pathField = this.constantFields.get("PP:" + entry.getKey());
+            if (pathField != null) {
+                init.add(new FieldInsnNode(GETSTATIC, className, pathField.fieldName, "L" + PROPERTY_PATH + ";"));
+                init.add(new MethodInsnNode(INVOKESPECIAL,
+                    "com/googlecode/aviator/runtime/type/AviatorCachedJavaType", "<init>", "(Ljava/lang/String;L"
+                            + PROPERTY_PATH + ";)V"));
+            }
+            else {
+                init.add(new MethodInsnNode(INVOKESPECIAL,
+                    "com/googlecode/aviator/runtime/type/AviatorCachedJavaType", "<init>", "(Ljava/lang/String;)V"));
+            }
+            init.add(new VarInsnNode(ASTORE, localIndex));
+            for (VariableLoad load : entry.getValue()) {
+                this.methodNode.instructions.insertBefore(load.first, new VarInsnNode(ALOAD, localIndex));
+                AbstractInsnNode insn = load.first;
+                while (true) {
+                    final AbstractInsnNode next = insn.getNext();
+                    this.methodNode.instructions.remove(insn);
+                    if (insn == load.last) {
+                        break;
+                    }
+                    insn = next;
+                }
+            }
+        }
+        if (init.size() > 0) {
+            this.methodNode.instructions.insert(init);
+        }
+    }
+
+
+    /**
+     * Make constant fields and the static initializer to materialize them
+     * once
+     */
+    private void makeStaticInitializer() {
+        removeUnusedConstants();
+        if (this.constantFields.isEmpty()) {
+            return;
+        }
+        for (ConstantField field : this.constantFields.values()) {
+            checkClassAdapter.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, field.fieldName,
+                "L" + field.typeName + ";", null, null).visitEnd();
+        }
+        MethodVisitor clinit = checkClassAdapter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.visitCode();
+        for (ConstantField field : this.constantFields.values()) {
+            clinit.visitTypeInsn(NEW, field.typeName);
+            clinit.visitInsn(DUP);
+            switch (field.token.getType()) {
+            case Number:
+                NumberToken numberToken = (NumberToken) field.token;
+                if (numberToken.getNumber() instanceof Double) {
+                    clinit.visitLdcInsn(Double.valueOf(numberToken.getNumber().doubleValue()));
+                    clinit.visitMethodInsn(INVOKESPECIAL, field.typeName, "<init>", "(D)V");
+                }
+                else {
+                    clinit.visitLdcInsn(Long.valueOf(numberToken.getNumber().longValue()));
+                    clinit.visitMethodInsn(INVOKESPECIAL, field.typeName, "<init>", "(J)V");
+                }
+                break;
+            case Variable:
+                final String name = field.token.getLexeme();
+                if (field.typeName.equals(AVIATOR_METHOD) || field.typeName.equals(PROPERTY_PATH)) {
+                    // Function call site,linked to the function when the class
+                    // is initialized,or property path of dotted variable
+                    clinit.visitLdcInsn(name);
+                    clinit.visitMethodInsn(INVOKESPECIAL, field.typeName, "<init>", "(Ljava/lang/String;)V");
+                    break;
+                }
+                // Indexed variable
+                clinit.visitLdcInsn(name);
+                clinit.visitLdcInsn(this.variableSchema.indexOf(name));
+                clinit.visitMethodInsn(INVOKESPECIAL, field.typeName, "<init>", "(Ljava/lang/String;I)V");
+                break;
+            default:
+                // String and Pattern
+                clinit.visitLdcInsn(field.token.getValue(null));
+                clinit.visitMethodInsn(INVOKESPECIAL, field.typeName, "<init>", "(Ljava/lang/String;)V");
+                break;
+            }
+            clinit.visitFieldInsn(PUTSTATIC, className, field.fieldName, "L" + field.typeName + ";");
+        }
+        clinit.visitInsn(RETURN);
+        clinit.visitMaxs(4, 0);
+        clinit.visitEnd();
+    }
+
+
+    /**
+     * Remove constants no longer loaded by execute method,e.g. literal numbers
+     * loaded as primitives
+     */
+    private void removeUnusedConstants() {
+        Set<String> usedFields = new HashSet<String>();
+        List<MethodNode> methods =
+                this.ruleMethods != null ? this.ruleMethods : Collections.singletonList(this.methodNode);
+        for (MethodNode method : methods) {
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn.getOpcode() == GETSTATIC && className.equals(((FieldInsnNode) insn).owner)) {
+                    usedFields.add(((FieldInsnNode) insn).name);
+                }
+            }
+        }
+        Iterator<ConstantField> it = this.constantFields.values().iterator();
+        while (it.hasNext()) {
+            if (!usedFields.contains(it.next().fieldName)) {
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Load a literal constant from it's static field
+     * 
+     * @param key
+     *            constant key
+     * @param typeName
+     *            aviator type internal name
+     * @param token
+     *            literal token
+     */
+    private void loadConstant(String key, String typeName, Token<?> token) {
+        ConstantField field = this.constantFields.get(key);
+        if (field == null) {
+            field = new ConstantField("constant_" + this.constantFields.size(), typeName, token);
+            this.constantFields.put(key, field);
+        }
+        mv.visitFieldInsn(GETSTATIC, className, field.fieldName, "L" + typeName + ";");
+        pushOperand(0);
+    }
+
+    private static class ConstantField {
+        final String fieldName;
+        final String typeName;
+        final Token<?> token;
+
+
+        public ConstantField(String fieldName, String typeName, Token<?> token) {
+            super();
+            this.fieldName = fieldName;
+            this.typeName = typeName;
+            this.token = token;
+        }
+
+    }
+
+
+    /**
+     * Literal lifted into an instance field
+     */
+    private static class ParameterField {
+        final String fieldName;
+        final String typeName;
+        // Whether the number is also loaded as a primitive long/double
+        boolean longValue;
+        boolean doubleValue;
+
+
+        public ParameterField(String fieldName, String typeName) {
+            super();
+            this.fieldName = fieldName;
+            this.typeName = typeName;
         }
-        mv.visitMaxs(maxStacks, maxLocals);
-        mv.visitEnd();
+    }
 
-        checkClassAdapter.visitEnd();
+
+    /**
+     * Load a literal from it's instance field if it is a parameter,otherwise
+     * from it's static field
+     * 
+     * @param key
+     * @param typeName
+     * @param token
+     */
+    private void loadLiteral(String key, String typeName, Token<?> token) {
+        final ParameterField field = this.parameterTokens != null ? this.parameterTokens.get(token) : null;
+        if (field == null) {
+            loadConstant(key, typeName, token);
+            return;
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, field.fieldName, "L" + typeName + ";");
+        pushOperand(0);
     }
 
 
     /**
-     * Make a default constructor
+     * Make a default constructor,or a constructor initializing parameter
+     * fields from an AviatorObject[] if literals are parameters
      */
     private void makeConstructor() {
-        checkClassAdapter.visit(AviatorEvaluator.BYTECODE_VER, ACC_PUBLIC + ACC_SUPER, className, null, "java/lang/Object",
-            null);
-
-        {
+        if (this.parameterFields == null) {
             mv = checkClassAdapter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
             mv.visitCode();
             mv.visitVarInsn(ALOAD, 0);
-            mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+            mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/ClassExpression", "<init>", "()V");
             mv.visitInsn(RETURN);
             mv.visitMaxs(1, 1);
             mv.visitEnd();
+            return;
+        }
+        int index = 0;
+        for (ParameterField field : this.parameterFields.values()) {
+            checkClassAdapter.visitField(ACC_PRIVATE + ACC_FINAL, field.fieldName, "L" + field.typeName + ";", null,
+                null).visitEnd();
+            if (field.longValue) {
+                checkClassAdapter.visitField(ACC_PRIVATE + ACC_FINAL, field.fieldName + "_long", "J", null, null)
+                    .visitEnd();
+            }
+            if (field.doubleValue) {
+                checkClassAdapter.visitField(ACC_PRIVATE + ACC_FINAL, field.fieldName + "_double", "D", null, null)
+                    .visitEnd();
+            }
+        }
+        mv = checkClassAdapter.visitMethod(ACC_PUBLIC, "<init>", "([L" + AVIATOR_OBJECT + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/ClassExpression", "<init>", "()V");
+        for (ParameterField field : this.parameterFields.values()) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitLdcInsn(index);
+            mv.visitInsn(AALOAD);
+            mv.visitTypeInsn(CHECKCAST, field.typeName);
+            mv.visitFieldInsn(PUTFIELD, className, field.fieldName, "L" + field.typeName + ";");
+            if (field.longValue) {
+                makePrimitiveParameter(field, "_long", "longValue", "J");
+            }
+            if (field.doubleValue) {
+                makePrimitiveParameter(field, "_double", "doubleValue", "D");
+            }
+            index++;
         }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(4, 2);
+        mv.visitEnd();
+    }
+
+
+    /**
+     * Initialize primitive field of a number parameter in constructor
+     */
+    private void makePrimitiveParameter(ParameterField field, String suffix, String methodName, String desc) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, className, field.fieldName, "L" + field.typeName + ";");
+        mv.visitMethodInsn(INVOKEVIRTUAL, field.typeName, methodName, "()" + desc);
+        mv.visitFieldInsn(PUTFIELD, className, field.fieldName + suffix, desc);
     }
 
 
@@ -169,16 +1354,32 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token)
      */
     public void onAdd(Token<?> lookhead) {
-        doArthOperation("add");
+        doArthOperation("add", LADD, DADD);
     }
 
 
     /**
-     * Do arithmetic operation
+     * Do arithmetic operation,operands with declared types are computed with
+     * primitive instructions
      * 
      * @param methodName
+     * @param longOpcode
+     * @param doubleOpcode
      */
-    private void doArthOperation(String methodName) {
+    private void doArthOperation(String methodName, int longOpcode, int doubleOpcode) {
+        final Operand right = this.valueStack.pop();
+        final Operand left = this.valueStack.pop();
+        final int type = getNumberType(left, right);
+        if (type != OBJECT) {
+            toPrimitive(left, type);
+            toPrimitive(right, type);
+            mv.visitInsn(type == LONG ? longOpcode : doubleOpcode);
+            popOperand();
+            pushValue(type);
+            return;
+        }
+        toObject(left);
+        toObject(right);
         loadEnv();
         mv
             .visitMethodInsn(
@@ -188,6 +1389,7 @@ public class ASMCodeGenerator implements CodeGenerator {
                 "(Lcom/googlecode/aviator/runtime/type/AviatorObject;Ljava/util/Map;)Lcom/googlecode/aviator/runtime/type/AviatorObject;");
         popOperand();
         popOperand();
+        pushValue(OBJECT);
     }
 
 
@@ -207,7 +1409,7 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token)
      */
     public void onSub(Token<?> lookhead) {
-        doArthOperation("sub");
+        doArthOperation("sub", LSUB, DSUB);
     }
 
 
@@ -219,7 +1421,7 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token)
      */
     public void onMult(Token<?> lookhead) {
-        doArthOperation("mult");
+        doArthOperation("mult", LMUL, DMUL);
     }
 
 
@@ -231,7 +1433,7 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token)
      */
     public void onDiv(Token<?> lookhead) {
-        doArthOperation("div");
+        doArthOperation("div", LDIV, DDIV);
     }
 
 
@@ -243,23 +1445,40 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token)
      */
     public void onMod(Token<?> lookhead) {
-        doArthOperation("mod");
+        doArthOperation("mod", LREM, DREM);
     }
 
 
     /**
-     * Do logic operation "&&" left operand
+     * Load boolean value of operand
+     * 
+     * @param operand
      */
-    public void onAndLeft(Token<?> lookhead) {
+    private void visitBooleanValue(Operand operand) {
+        if (isTypedBoolean(operand)) {
+            toPrimitive(operand, BOOLEAN);
+            return;
+        }
+        toObject(operand);
         loadEnv();
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "booleanValue",
             "(Ljava/util/Map;)Z");
+        popOperand(); // environment
+    }
+
+
+    /**
+     * Do logic operation "&&" left operand
+     */
+    public void onAndLeft(Token<?> lookhead) {
+        final Operand left = this.valueStack.pop();
+        this.leftOperandStack.push(left);
+        visitBooleanValue(left);
         Label l0 = new Label();
         l0stack.push(l0);
         mv.visitJumpInsn(IFEQ, l0);
 
-        popOperand(); // boolean object
-        popOperand(); // environment
+        popOperand(); // boolean
 
     }
 
@@ -268,24 +1487,22 @@ public class ASMCodeGenerator implements CodeGenerator {
      * Do logic operation "&&" right operand
      */
     public void onAndRight(Token<?> lookhead) {
-        loadEnv();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "booleanValue",
-            "(Ljava/util/Map;)Z");
+        final Operand right = this.valueStack.pop();
+        this.leftOperandStack.pop();
+        visitBooleanValue(right);
         mv.visitJumpInsn(IFEQ, l0stack.peek());
         // Result is true
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "TRUE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        mv.visitInsn(ICONST_1);
         Label l1 = new Label();
         mv.visitJumpInsn(GOTO, l1);
         mv.visitLabel(l0stack.pop());
         // Result is false
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "FALSE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        mv.visitInsn(ICONST_0);
         mv.visitLabel(l1);
 
-        popOperand(); // boolean object
-        popOperand(); // environment
+        popOperand(); // boolean
         pushOperand(0);
+        pushValue(BOOLEAN);
     }
 
     /**
@@ -296,16 +1513,13 @@ public class ASMCodeGenerator implements CodeGenerator {
 
 
     public void onTernaryBoolean(Token<?> lookhead) {
-        loadEnv();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "booleanValue",
-            "(Ljava/util/Map;)Z");
+        visitBooleanValue(this.valueStack.pop());
         Label l0 = new Label();
         Label l1 = new Label();
         l0stack.push(l0);
         l1stack.push(l1);
         mv.visitJumpInsn(IFEQ, l0);
         popOperand();
-        popOperand();
         pushOperand(1); // add two booleans
 
         popOperand(); // pop the last result
@@ -313,6 +1527,7 @@ public class ASMCodeGenerator implements CodeGenerator {
 
 
     public void onTernaryLeft(Token<?> lookhead) {
+        this.leftOperandStack.push(this.valueStack.pop());
         mv.visitJumpInsn(GOTO, l1stack.peek());
         mv.visitLabel(l0stack.pop());
         popOperand(); // pop one boolean
@@ -320,8 +1535,28 @@ public class ASMCodeGenerator implements CodeGenerator {
 
 
     public void onTernaryRight(Token<?> lookhead) {
+        final Operand right = this.valueStack.pop();
+        final Operand left = this.leftOperandStack.pop();
+        // Both branches must have the same representation
+        int type = OBJECT;
+        if (left.type != OBJECT && left.type == right.type) {
+            type = left.type;
+        }
+        else if (left.declaredType != OBJECT && left.declaredType == right.declaredType
+                && (left.isTyped() || right.isTyped())) {
+            type = left.declaredType;
+        }
+        if (type != OBJECT) {
+            toPrimitive(left, type);
+            toPrimitive(right, type);
+        }
+        else {
+            toObject(left);
+            toObject(right);
+        }
         mv.visitLabel(l1stack.pop());
         popOperand(); // pop one boolean
+        pushValue(type);
     }
 
 
@@ -329,23 +1564,21 @@ public class ASMCodeGenerator implements CodeGenerator {
      * Do logic operation "||" right operand
      */
     public void onJoinRight(Token<?> lookhead) {
-        loadEnv();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "booleanValue",
-            "(Ljava/util/Map;)Z");
+        final Operand right = this.valueStack.pop();
+        this.leftOperandStack.pop();
+        visitBooleanValue(right);
         Label l1 = new Label();
         mv.visitJumpInsn(IFNE, l0stack.peek());
         // Result is False
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "FALSE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        mv.visitInsn(ICONST_0);
         mv.visitJumpInsn(GOTO, l1);
         mv.visitLabel(l0stack.pop());
         // Result is True
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "TRUE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        mv.visitInsn(ICONST_1);
         mv.visitLabel(l1);
         popOperand();
-        popOperand();
         pushOperand(0);
+        pushValue(BOOLEAN);
 
     }
 
@@ -354,15 +1587,14 @@ public class ASMCodeGenerator implements CodeGenerator {
      * Do logic operation "||" left operand
      */
     public void onJoinLeft(Token<?> lookhead) {
-        loadEnv();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "booleanValue",
-            "(Ljava/util/Map;)Z");
+        final Operand left = this.valueStack.pop();
+        this.leftOperandStack.push(left);
+        visitBooleanValue(left);
         Label l0 = new Label();
         l0stack.push(l0);
         mv.visitJumpInsn(IFNE, l0);
 
         popOperand();
-        popOperand();
 
     }
 
@@ -373,6 +1605,10 @@ public class ASMCodeGenerator implements CodeGenerator {
 
 
     public void onMatch(Token<?> lookhead) {
+        final Operand right = this.valueStack.pop();
+        final Operand left = this.valueStack.pop();
+        toObject(left);
+        toObject(right);
         this.mv.visitInsn(SWAP);
         loadEnv();
         mv
@@ -386,6 +1622,7 @@ public class ASMCodeGenerator implements CodeGenerator {
         popOperand();
         popOperand();
         pushOperand(0);
+        pushValue(OBJECT);
     }
 
 
@@ -394,24 +1631,112 @@ public class ASMCodeGenerator implements CodeGenerator {
     }
 
 
+    /**
+     * Compare operands and load boolean result
+     * 
+     * @param ints
+     *            jump to false if compare result matches
+     */
     private void doCompareAndJump(int ints) {
+        final Operand right = this.valueStack.pop();
+        final Operand left = this.valueStack.pop();
+        final int type = getNumberType(left, right);
+        if (type != OBJECT) {
+            doPrimitiveCompareAndJump(ints, left, right, type);
+            return;
+        }
+        toObject(left);
+        toObject(right);
         loadEnv();
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "compare",
             "(Lcom/googlecode/aviator/runtime/type/AviatorObject;Ljava/util/Map;)I");
         Label l0 = makeLabel();
         Label l1 = makeLabel();
         mv.visitJumpInsn(ints, l0);
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "TRUE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        // result is a primitive boolean,it is boxed only if it is used as
+        // object
+        mv.visitInsn(ICONST_1);
         mv.visitJumpInsn(GOTO, l1);
         mv.visitLabel(l0);
-        mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "FALSE",
-            "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
+        mv.visitInsn(ICONST_0);
         mv.visitLabel(l1);
         popOperand();
         popOperand();
         popOperand();
         pushOperand(0);
+        pushValue(BOOLEAN);
+    }
+
+
+    /**
+     * Compare primitive operands.Double comparison keeps the semantics of
+     * AviatorNumber(NaN is neither greater nor less than any number).
+     * 
+     * @param ints
+     * @param left
+     * @param right
+     * @param type
+     */
+    private void doPrimitiveCompareAndJump(int ints, Operand left, Operand right, int type) {
+        toPrimitive(left, type);
+        toPrimitive(right, type);
+        Label l0 = makeLabel();
+        Label l1 = makeLabel();
+        if (type == LONG) {
+            mv.visitInsn(LCMP);
+            mv.visitJumpInsn(ints, l0);
+        }
+        else {
+            switch (ints) {
+            case IFGE: // <
+            case IFLT: // >=
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(ints, l0);
+                break;
+            case IFGT: // <=
+            case IFLE: // >
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(ints, l0);
+                break;
+            default:
+                // == and !=
+                final int rightIndex = getLocalIndex();
+                getLocalIndex();
+                final int leftIndex = getLocalIndex();
+                getLocalIndex();
+                mv.visitVarInsn(DSTORE, rightIndex);
+                mv.visitVarInsn(DSTORE, leftIndex);
+                Label notEqual = makeLabel();
+                mv.visitVarInsn(DLOAD, leftIndex);
+                mv.visitVarInsn(DLOAD, rightIndex);
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(IFGT, notEqual);
+                mv.visitVarInsn(DLOAD, leftIndex);
+                mv.visitVarInsn(DLOAD, rightIndex);
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(IFLT, notEqual);
+                if (ints == IFNE) {
+                    // equal
+                    Label equal = makeLabel();
+                    mv.visitJumpInsn(GOTO, equal);
+                    mv.visitLabel(notEqual);
+                    mv.visitJumpInsn(GOTO, l0);
+                    mv.visitLabel(equal);
+                }
+                else {
+                    mv.visitJumpInsn(GOTO, l0);
+                    mv.visitLabel(notEqual);
+                }
+                break;
+            }
+        }
+        mv.visitInsn(ICONST_1);
+        mv.visitJumpInsn(GOTO, l1);
+        mv.visitLabel(l0);
+        mv.visitInsn(ICONST_0);
+        mv.visitLabel(l1);
+        popOperand();
+        pushValue(BOOLEAN);
     }
 
 
@@ -452,16 +1777,26 @@ public class ASMCodeGenerator implements CodeGenerator {
      * Logic operation '!'
      */
     public void onNot(Token<?> lookhead) {
+        final Operand operand = this.valueStack.pop();
+        if (isTypedBoolean(operand)) {
+            toPrimitive(operand, BOOLEAN);
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IXOR);
+            pushValue(BOOLEAN);
+            return;
+        }
+        toObject(operand);
         pushOperand(0);
 
         mv.visitTypeInsn(CHECKCAST, "com/googlecode/aviator/runtime/type/AviatorObject");
-        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, ENV_INDEX);
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "not",
             "(Ljava/util/Map;)Lcom/googlecode/aviator/runtime/type/AviatorObject;");
 
         popOperand();
         popOperand();
         pushOperand(0);
+        pushValue(OBJECT);
     }
 
 
@@ -473,15 +1808,41 @@ public class ASMCodeGenerator implements CodeGenerator {
      * .lexer.token.Token, int)
      */
     public void onNeg(Token<?> lookhead) {
+        final Operand operand = this.valueStack.pop();
+        if (operand.isNumber() && operand.isTyped()) {
+            toPrimitive(operand, operand.declaredType);
+            mv.visitInsn(operand.type == LONG ? LNEG : DNEG);
+            pushValue(operand.type);
+            return;
+        }
+        toObject(operand);
         pushOperand(0);
 
         mv.visitTypeInsn(CHECKCAST, "com/googlecode/aviator/runtime/type/AviatorObject");
-        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, ENV_INDEX);
         mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/type/AviatorObject", "neg",
             "(Ljava/util/Map;)Lcom/googlecode/aviator/runtime/type/AviatorObject;");
         popOperand();
         popOperand();
         pushOperand(0);
+        pushValue(OBJECT);
+    }
+
+
+    /**
+     * Each generated class is defined in it's own small class loader,so that
+     * the class and it's constants can be unloaded once the expression is
+     * unreachable(e.g. evicted from cache).Classes defined in a shared loader
+     * live as long as the loader.
+     * 
+     * @return
+     */
+    private AviatorClassLoader newExpressionClassLoader() {
+        return AccessController.doPrivileged(new PrivilegedAction<AviatorClassLoader>() {
+            public AviatorClassLoader run() {
+                return new AviatorClassLoader(classLoader);
+            }
+        });
     }
 
 
@@ -491,17 +1852,95 @@ public class ASMCodeGenerator implements CodeGenerator {
      * @see com.googlecode.aviator.code.CodeGenerator#getResult()
      */
     public Expression getResult() {
+        Class<?> defineClass = getResultClass();
+        try {
+            // Generated class extends ClassExpression,instantiating it also
+            // initializes the constants
+            return (Expression) defineClass.newInstance();
+        }
+        catch (Throwable e) {
+            throw new CompileExpressionErrorException("define class error", e);
+        }
+    }
+
+
+    /**
+     * Define the generated class without instantiating it
+     * 
+     * @return
+     */
+    public Class<?> getResultClass() {
         endVisitCode();
         byte[] bytes = this.classWriter.toByteArray();
         try {
-            return new ClassExpression(classLoader.defineClass(className, bytes));
+            return newExpressionClassLoader().defineClass(className, bytes);
         }
-        catch (Exception e) {
+        catch (Throwable e) {
             throw new CompileExpressionErrorException("define class error", e);
         }
     }
 
 
+    /**
+     * Define and instantiate the class generated for columnar expression
+     * 
+     * @see #startColumns()
+     * @param schema
+     *            variables bound to columns
+     * @return
+     */
+    public ColumnarExpression getColumnarResult(VariableSchema schema) {
+        Class<?> defineClass = getResultClass();
+        try {
+            return (ColumnarExpression) defineClass.getConstructor(VariableSchema.class, Class.class).newInstance(
+                schema, this.columnResultType);
+        }
+        catch (Throwable e) {
+            throw new CompileExpressionErrorException("instantiate class error", e);
+        }
+    }
+
+
+    /**
+     * Instantiate a class generated for rule set
+     * 
+     * @see #startRuleSet()
+     * @param clazz
+     * @param expressions
+     *            text expressions of rules
+     * @param index
+     * @return
+     */
+    public static RuleSet newRuleSet(Class<?> clazz, List<String> expressions, RuleIndex index) {
+        try {
+            return (RuleSet) clazz.getConstructor(List.class, RuleIndex.class).newInstance(expressions, index);
+        }
+        catch (Throwable e) {
+            throw new CompileExpressionErrorException("instantiate class error", e);
+        }
+    }
+
+
+    /**
+     * Instantiate a class generated with parameters
+     * 
+     * @see #setParameters(List)
+     * @param clazz
+     * @param parameters
+     *            values of the literal parameters
+     * @return
+     */
+    public static Expression newExpression(Class<?> clazz, AviatorObject[] parameters) {
+        try {
+            return (Expression) clazz.getConstructor(AviatorObject[].class).newInstance(
+                new Object[] { parameters });
+        }
+        catch (Throwable e) {
+            throw new CompileExpressionErrorException("instantiate class error", e);
+        }
+    }
+
+
     /*
      * (non-Javadoc)
      * 
@@ -519,46 +1958,27 @@ public class ASMCodeGenerator implements CodeGenerator {
             // load numbers
             NumberToken numberToken = (NumberToken) lookhead;
             if (numberToken.getNumber() instanceof Double) {
-                mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorDouble");
-                mv.visitInsn(DUP);
-                mv.visitLdcInsn(numberToken.getNumber());
-                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
-                mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorDouble", "<init>",
-                    "(Ljava/lang/Number;)V");
+                loadLiteral("D:" + numberToken.getNumber(), "com/googlecode/aviator/runtime/type/AviatorDouble",
+                    lookhead);
+                pushValue(OBJECT, DOUBLE, numberToken.getNumber());
             }
             else {
-                mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorLong");
-                mv.visitInsn(DUP);
-                mv.visitLdcInsn(numberToken.getNumber());
-                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;");
-                mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorLong", "<init>",
-                    "(Ljava/lang/Number;)V");
+                loadLiteral("L:" + numberToken.getNumber(), "com/googlecode/aviator/runtime/type/AviatorLong",
+                    lookhead);
+                pushValue(OBJECT, LONG, numberToken.getNumber());
             }
-            pushOperand(2);
-            popOperand();
-            popOperand();
             break;
         case String:
             // load string
-            mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorString");
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(lookhead.getValue(null));
-            mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorString", "<init>",
-                "(Ljava/lang/String;)V");
-            pushOperand(2);
-            popOperand();
-            popOperand();
+            loadLiteral("S:" + lookhead.getValue(null), "com/googlecode/aviator/runtime/type/AviatorString",
+                lookhead);
+            pushValue(OBJECT);
             break;
         case Pattern:
             // load pattern
-            mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorPattern");
-            mv.visitInsn(DUP);
-            mv.visitLdcInsn(lookhead.getValue(null));
-            mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorPattern", "<init>",
-                "(Ljava/lang/String;)V");
-            pushOperand(2);
-            popOperand();
-            popOperand();
+            loadLiteral("P:" + lookhead.getValue(null), "com/googlecode/aviator/runtime/type/AviatorPattern",
+                lookhead);
+            pushValue(OBJECT);
             break;
         case Variable:
             // load variable
@@ -567,16 +1987,19 @@ public class ASMCodeGenerator implements CodeGenerator {
                 mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "TRUE",
                     "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
                 pushOperand(0);
+                pushValue(OBJECT);
             }
             else if (variable.equals(Variable.FALSE)) {
                 mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorBoolean", "FALSE",
                     "Lcom/googlecode/aviator/runtime/type/AviatorBoolean;");
                 pushOperand(0);
+                pushValue(OBJECT);
             }
             else if (variable.equals(Variable.NIL)) {
                 mv.visitFieldInsn(GETSTATIC, "com/googlecode/aviator/runtime/type/AviatorNil", "NIL",
                     "Lcom/googlecode/aviator/runtime/type/AviatorNil;");
                 pushOperand(0);
+                pushValue(OBJECT);
             }
             else {
                 // check if it is a function name
@@ -589,14 +2012,39 @@ public class ASMCodeGenerator implements CodeGenerator {
                 // " is a function name,please don't use it as variable");
                 // }
 
+                final int index =
+                        this.variableSchema != null ? this.variableSchema.indexOf(variable.getLexeme()) : -1;
+                if (index >= 0 && this.columnLocals != null) {
+                    loadColumn(index);
+                    break;
+                }
+                if (index >= 0) {
+                    // indexed variable is immutable,so it is hoisted too
+                    loadConstant("V:" + variable.getLexeme(),
+                        "com/googlecode/aviator/runtime/type/AviatorIndexedJavaType", lookhead);
+                    pushValue(OBJECT, getDeclaredType(this.variableSchema.getType(index)), null);
+                    break;
+                }
                 mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/type/AviatorJavaType");
+                final AbstractInsnNode first = this.methodNode.instructions.getLast();
                 mv.visitInsn(DUP);
                 mv.visitLdcInsn(variable.getLexeme());
-                mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorJavaType", "<init>",
-                    "(Ljava/lang/String;)V");
+                if (variable.getLexeme().contains(".")) {
+                    // property path is compiled once
+                    loadConstant("PP:" + variable.getLexeme(), PROPERTY_PATH, lookhead);
+                    mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorJavaType",
+                        "<init>", "(Ljava/lang/String;L" + PROPERTY_PATH + ";)V");
+                    popOperand();
+                }
+                else {
+                    mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/type/AviatorJavaType",
+                        "<init>", "(Ljava/lang/String;)V");
+                }
+                addVariableLoad(variable.getLexeme(), first);
                 pushOperand(2);
                 popOperand();
                 popOperand();
+                pushValue(OBJECT);
 
             }
             break;
@@ -605,10 +2053,45 @@ public class ASMCodeGenerator implements CodeGenerator {
     }
 
 
+    /**
+     * Returns operand type of declared variable type
+     * 
+     * @param clazz
+     * @return
+     */
+    private static int getDeclaredType(Class<?> clazz) {
+        if (clazz == long.class || clazz == Long.class || clazz == int.class || clazz == Integer.class
+                || clazz == short.class || clazz == Short.class || clazz == byte.class || clazz == Byte.class) {
+            return LONG;
+        }
+        else if (clazz == double.class || clazz == Double.class || clazz == float.class || clazz == Float.class) {
+            return DOUBLE;
+        }
+        else if (clazz == boolean.class || clazz == Boolean.class) {
+            return BOOLEAN;
+        }
+        return OBJECT;
+    }
+
+
     public void onMethodInvoke(Token<?> lookhead) {
         final MethodMetaData methodMetaData = this.methodMetaDataStack.pop();
-        mv.visitMethodInsn(INVOKEVIRTUAL, "com/googlecode/aviator/runtime/method/AviatorMethod", "invoke",
-            "(Ljava/util/Map;Ljava/util/List;)Lcom/googlecode/aviator/runtime/type/AviatorObject;");
+        if (methodMetaData.parameterCount <= AbstractFunction.MAX_FIXED_ARITY) {
+            // pass arguments on stack,remove the argument list
+            for (AbstractInsnNode insn : methodMetaData.argumentListInsns) {
+                this.methodNode.instructions.remove(insn);
+            }
+            StringBuilder desc = new StringBuilder("(Ljava/util/Map;");
+            for (int i = 0; i < methodMetaData.parameterCount; i++) {
+                desc.append("Lcom/googlecode/aviator/runtime/type/AviatorObject;");
+            }
+            desc.append(")Lcom/googlecode/aviator/runtime/type/AviatorObject;");
+            mv.visitMethodInsn(INVOKEVIRTUAL, AVIATOR_METHOD, "invoke", desc.toString());
+        }
+        else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, AVIATOR_METHOD, "invoke",
+                "(Ljava/util/Map;Ljava/util/List;)Lcom/googlecode/aviator/runtime/type/AviatorObject;");
+        }
         popOperand(); // method object
         popOperand(); // env map
         popOperand(); // argument list
@@ -617,16 +2100,30 @@ public class ASMCodeGenerator implements CodeGenerator {
             popOperand();
         }
         pushOperand(0);
+        pushValue(OBJECT);
     }
 
 
     public void onMethodParameter(Token<?> lookhead) {
+        toObject(this.valueStack.pop());
         this.methodMetaDataStack.peek().parameterCount++;
         // add parameter to list
         mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z");
+        addArgumentListInsn();
         // pop boolean
         mv.visitInsn(POP);
+        addArgumentListInsn();
         mv.visitVarInsn(ALOAD, this.methodMetaDataStack.peek().parameterListIndex);
+        addArgumentListInsn();
+    }
+
+
+    /**
+     * Record the last instruction as part of the argument list,it is removed if
+     * the method is called with fixed arity.
+     */
+    private void addArgumentListInsn() {
+        this.methodMetaDataStack.peek().argumentListInsns.add(this.methodNode.instructions.getLast());
     }
 
     private static class MethodMetaData {
@@ -634,6 +2131,7 @@ public class ASMCodeGenerator implements CodeGenerator {
 
         int parameterCount;
         int parameterListIndex;
+        final List<AbstractInsnNode> argumentListInsns = new ArrayList<AbstractInsnNode>();
 
 
         public MethodMetaData(String methodName, int parameterListIndex) {
@@ -655,6 +2153,8 @@ public class ASMCodeGenerator implements CodeGenerator {
 
 
     public void onElementEnd(Token<?> lookhead) {
+        toObject(this.valueStack.pop()); // index
+        this.valueStack.pop(); // variable
         mv
             .visitMethodInsn(
                 INVOKEVIRTUAL,
@@ -666,6 +2166,163 @@ public class ASMCodeGenerator implements CodeGenerator {
         popOperand();
         popOperand();
         pushOperand(0);
+        pushValue(OBJECT);
+    }
+
+
+    /**
+     * Locals holding common subexpressions,indexed by id
+     */
+    private final Map<Integer, CommonLocal> commonLocals = new HashMap<Integer, CommonLocal>();
+
+    /**
+     * Labels skipping computed lazy common subexpressions
+     */
+    private final Stack<Label> lazyLabelStack = new Stack<Label>();
+
+    /**
+     * A local holding the value of a common subexpression
+     * 
+     * @author dennis
+     * 
+     */
+    private static class CommonLocal {
+        int type;
+        int declaredType;
+        int index = -1;
+        // Local of the flag telling if a lazy value is computed,-1 if none
+        int flagIndex = -1;
+    }
+
+
+    private static int getLoadOpcode(int type) {
+        switch (type) {
+        case LONG:
+            return LLOAD;
+        case DOUBLE:
+            return DLOAD;
+        case BOOLEAN:
+            return ILOAD;
+        default:
+            return ALOAD;
+        }
+    }
+
+
+    private void newCommonLocal(CommonLocal local, Operand operand) {
+        local.type = operand.type;
+        local.declaredType = operand.declaredType;
+        local.index = getLocalIndex();
+        if (local.type == LONG || local.type == DOUBLE) {
+            getLocalIndex();
+        }
+    }
+
+
+    private void loadCommonLocal(CommonLocal local) {
+        mv.visitVarInsn(getLoadOpcode(local.type), local.index);
+        pushOperand(0);
+        pushValue(local.type, local.declaredType, null);
+    }
+
+
+    /**
+     * Store the common subexpression on top of stack to a local,it is
+     * evaluated before all other occurrences.
+     * 
+     * @param id
+     */
+    public void onCommonStore(int id) {
+        final Operand operand = this.valueStack.pop();
+        if (operand.type == OBJECT && operand.isTyped() && operand.isNumber()) {
+            // typed variable is unboxed once
+            toPrimitive(operand, operand.declaredType);
+        }
+        final CommonLocal local = new CommonLocal();
+        newCommonLocal(local, operand);
+        this.commonLocals.put(id, local);
+        mv.visitInsn(local.type == LONG || local.type == DOUBLE ? DUP2 : DUP);
+        mv.visitVarInsn(getLoadOpcode(local.type) + ISTORE - ILOAD, local.index);
+        // The stored value is not affected by conversions of the operand
+        pushValue(local.type, local.declaredType, null);
+    }
+
+
+    /**
+     * Load a common subexpression stored by onCommonStore
+     * 
+     * @param id
+     */
+    public void onCommonLoad(int id) {
+        loadCommonLocal(this.commonLocals.get(id));
+    }
+
+
+    /**
+     * Start a common subexpression which is not always evaluated,it is
+     * computed by the first occurrence reached at runtime.
+     * 
+     * @param id
+     */
+    public void onLazyCommonStart(int id) {
+        CommonLocal local = this.commonLocals.get(id);
+        if (local == null) {
+            local = new CommonLocal();
+            local.flagIndex = getLocalIndex();
+            this.commonLocals.put(id, local);
+            InsnList insns = new InsnList();
+            insns.add(new InsnNode(ICONST_0));
+            insns.add(new VarInsnNode(ISTORE, local.flagIndex));
+            this.methodNode.instructions.insert(insns);
+        }
+        mv.visitVarInsn(ILOAD, local.flagIndex);
+        Label l0 = new Label();
+        this.lazyLabelStack.push(l0);
+        mv.visitJumpInsn(IFNE, l0);
+    }
+
+
+    /**
+     * End a common subexpression started by onLazyCommonStart
+     * 
+     * @param id
+     */
+    public void onLazyCommonEnd(int id) {
+        final Operand operand = this.valueStack.pop();
+        final CommonLocal local = this.commonLocals.get(id);
+        if (local.index < 0) {
+            newCommonLocal(local, operand);
+            // Every path must see an initialized local
+            InsnList insns = new InsnList();
+            switch (local.type) {
+            case LONG:
+                insns.add(new InsnNode(LCONST_0));
+                break;
+            case DOUBLE:
+                insns.add(new InsnNode(DCONST_0));
+                break;
+            case BOOLEAN:
+                insns.add(new InsnNode(ICONST_0));
+                break;
+            default:
+                insns.add(new InsnNode(ACONST_NULL));
+                break;
+            }
+            insns.add(new VarInsnNode(getLoadOpcode(local.type) + ISTORE - ILOAD, local.index));
+            this.methodNode.instructions.insert(insns);
+        }
+        else if (local.type == OBJECT) {
+            toObject(operand);
+        }
+        else {
+            toPrimitive(operand, local.type);
+        }
+        mv.visitVarInsn(getLoadOpcode(local.type) + ISTORE - ILOAD, local.index);
+        mv.visitInsn(ICONST_1);
+        mv.visitVarInsn(ISTORE, local.flagIndex);
+        mv.visitLabel(this.lazyLabelStack.pop());
+        popOperand();
+        loadCommonLocal(local);
     }
 
 
@@ -676,10 +2333,15 @@ public class ASMCodeGenerator implements CodeGenerator {
 
     public void onMethodName(Token<?> lookhead) {
         String methodName = lookhead.getLexeme();
-        createAviatorMethodObject(methodName);
+        loadAviatorMethodObject(lookhead);
         loadEnv();
+        final AbstractInsnNode beforeList = this.methodNode.instructions.getLast();
         final int parameterLocalIndex = createArugmentList();
-        methodMetaDataStack.push(new MethodMetaData(methodName, parameterLocalIndex));
+        final MethodMetaData methodMetaData = new MethodMetaData(methodName, parameterLocalIndex);
+        for (AbstractInsnNode insn = beforeList.getNext(); insn != null; insn = insn.getNext()) {
+            methodMetaData.argumentListInsns.add(insn);
+        }
+        methodMetaDataStack.push(methodMetaData);
 
         // pushOperand(0);
 
@@ -705,20 +2367,11 @@ public class ASMCodeGenerator implements CodeGenerator {
     private void loadEnv() {
         // load env
         pushOperand(0);
-        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, ENV_INDEX);
     }
 
 
-    private void createAviatorMethodObject(String methodName) {
-        pushOperand(0);
-        pushOperand(0);
-        pushOperand(0);
-        mv.visitTypeInsn(NEW, "com/googlecode/aviator/runtime/method/AviatorMethod");
-        mv.visitInsn(DUP);
-        mv.visitLdcInsn(methodName);
-        popOperand();
-        popOperand();
-        mv.visitMethodInsn(INVOKESPECIAL, "com/googlecode/aviator/runtime/method/AviatorMethod", "<init>",
-            "(Ljava/lang/String;)V");
+    private void loadAviatorMethodObject(Token<?> methodName) {
+        loadConstant("M:" + methodName.getLexeme(), AVIATOR_METHOD, methodName);
     }
 }
@@ -0,0 +1,52 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Literal constant node,the value is created once at compile time
+ * 
+ * @author dennis
+ * 
+ */
+public class ConstantNode extends Node {
+    private final AviatorObject value;
+
+
+    public ConstantNode(AviatorObject value) {
+        super();
+        this.value = value;
+    }
+
+
+    public AviatorObject getValue() {
+        return value;
+    }
+
+
+    @Override
+    public AviatorObject eval(Map<String, Object> env) {
+        return value;
+    }
+
+}
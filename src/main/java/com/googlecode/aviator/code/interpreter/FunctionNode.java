@@ -0,0 +1,71 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.method.AviatorMethod;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Function call node.The function is linked like generated code does,see
+ * AviatorMethod.
+ * 
+ * @author dennis
+ * 
+ */
+public class FunctionNode extends Node {
+    private final AviatorMethod method;
+    private final Node[] params;
+
+
+    public FunctionNode(String name, Node[] params) {
+        super();
+        this.method = new AviatorMethod(name);
+        this.params = params;
+    }
+
+
+    @Override
+    public AviatorObject eval(Map<String, Object> env) {
+        switch (params.length) {
+        case 0:
+            return method.invoke(env);
+        case 1:
+            return method.invoke(env, params[0].eval(env));
+        case 2:
+            return method.invoke(env, params[0].eval(env), params[1].eval(env));
+        case 3:
+            return method.invoke(env, params[0].eval(env), params[1].eval(env), params[2].eval(env));
+        case 4:
+            return method.invoke(env, params[0].eval(env), params[1].eval(env), params[2].eval(env), params[3]
+                .eval(env));
+        default:
+            final List<AviatorObject> args = new ArrayList<AviatorObject>(params.length);
+            for (Node param : params) {
+                args.add(param.eval(env));
+            }
+            return method.invoke(env, args);
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.LiteralExpression;
+import com.googlecode.aviator.code.CodeGenerator;
+import com.googlecode.aviator.exception.CompileExpressionErrorException;
+import com.googlecode.aviator.lexer.token.NumberToken;
+import com.googlecode.aviator.lexer.token.OperatorType;
+import com.googlecode.aviator.lexer.token.Token;
+import com.googlecode.aviator.lexer.token.Variable;
+import com.googlecode.aviator.runtime.type.AviatorBoolean;
+import com.googlecode.aviator.runtime.type.AviatorDouble;
+import com.googlecode.aviator.runtime.type.AviatorIndexedJavaType;
+import com.googlecode.aviator.runtime.type.AviatorJavaType;
+import com.googlecode.aviator.runtime.type.AviatorLong;
+import com.googlecode.aviator.runtime.type.AviatorNil;
+import com.googlecode.aviator.runtime.type.AviatorPattern;
+import com.googlecode.aviator.runtime.type.AviatorString;
+import com.googlecode.aviator.utils.VariableSchema;
+
+
+/**
+ * Code generator building a node tree from parser callbacks.It doesn't
+ * generate any class,so compiling is much cheaper than ASMCodeGenerator,but
+ * executing is slower.Suitable for expressions executed only once or a few
+ * times.
+ * 
+ * @author dennis
+ * 
+ */
+public class InterpretCodeGenerator implements CodeGenerator {
+    /**
+     * Operand stack,mirrors the operand stack of generated code
+     */
+    private final Stack<Node> operands = new Stack<Node>();
+
+    private final Stack<MethodMetaData> methodMetaDataStack = new Stack<MethodMetaData>();
+
+    /**
+     * Variables in schema are bound to fixed indexes,null if there is no
+     * schema
+     */
+    private VariableSchema variableSchema;
+
+    private static class MethodMetaData {
+        final String methodName;
+        final List<Node> params = new ArrayList<Node>();
+
+
+        public MethodMetaData(String methodName) {
+            super();
+            this.methodName = methodName;
+        }
+
+    }
+
+
+    public void setVariableSchema(VariableSchema variableSchema) {
+        this.variableSchema = variableSchema;
+    }
+
+
+    private void doOperation(OperatorType operatorType) {
+        final Node right = this.operands.pop();
+        final Node left = this.operands.pop();
+        this.operands.push(new OperatorNode(operatorType, left, right));
+    }
+
+
+    private void doUnaryOperation(OperatorType operatorType) {
+        this.operands.push(new OperatorNode(operatorType, this.operands.pop(), null));
+    }
+
+
+    public void onAdd(Token<?> lookhead) {
+        doOperation(OperatorType.ADD);
+    }
+
+
+    public void onSub(Token<?> lookhead) {
+        doOperation(OperatorType.SUB);
+    }
+
+
+    public void onMult(Token<?> lookhead) {
+        doOperation(OperatorType.MULT);
+    }
+
+
+    public void onDiv(Token<?> lookhead) {
+        doOperation(OperatorType.DIV);
+    }
+
+
+    public void onMod(Token<?> lookhead) {
+        doOperation(OperatorType.MOD);
+    }
+
+
+    public void onEq(Token<?> lookhead) {
+        doOperation(OperatorType.EQ);
+    }
+
+
+    public void onNeq(Token<?> lookhead) {
+        doOperation(OperatorType.NEQ);
+    }
+
+
+    public void onLt(Token<?> lookhead) {
+        doOperation(OperatorType.LT);
+    }
+
+
+    public void onLe(Token<?> lookhead) {
+        doOperation(OperatorType.LE);
+    }
+
+
+    public void onGt(Token<?> lookhead) {
+        doOperation(OperatorType.GT);
+    }
+
+
+    public void onGe(Token<?> lookhead) {
+        doOperation(OperatorType.GE);
+    }
+
+
+    public void onMatch(Token<?> lookhead) {
+        doOperation(OperatorType.MATCH);
+    }
+
+
+    public void onNot(Token<?> lookhead) {
+        doUnaryOperation(OperatorType.NOT);
+    }
+
+
+    public void onNeg(Token<?> lookhead) {
+        doUnaryOperation(OperatorType.NEG);
+    }
+
+
+    public void onAndLeft(Token<?> lookhead) {
+        // left operand is already on the stack
+    }
+
+
+    public void onAndRight(Token<?> lookhead) {
+        final Node right = this.operands.pop();
+        final Node left = this.operands.pop();
+        this.operands.push(new AndNode(left, right));
+    }
+
+
+    public void onJoinLeft(Token<?> lookhead) {
+        // left operand is already on the stack
+    }
+
+
+    public void onJoinRight(Token<?> lookhead) {
+        final Node right = this.operands.pop();
+        final Node left = this.operands.pop();
+        this.operands.push(new OrNode(left, right));
+    }
+
+
+    public void onTernaryBoolean(Token<?> lookhead) {
+        // test operand is already on the stack
+    }
+
+
+    public void onTernaryLeft(Token<?> lookhead) {
+        // left operand is already on the stack
+    }
+
+
+    public void onTernaryRight(Token<?> lookhead) {
+        final Node right = this.operands.pop();
+        final Node left = this.operands.pop();
+        final Node test = this.operands.pop();
+        this.operands.push(new TernaryNode(test, left, right));
+    }
+
+
+    public void onConstant(Token<?> lookhead) {
+        if (lookhead == null) {
+            return;
+        }
+        switch (lookhead.getType()) {
+        case Number:
+            NumberToken numberToken = (NumberToken) lookhead;
+            if (numberToken.getNumber() instanceof Double) {
+                this.operands.push(new ConstantNode(AviatorDouble.valueOf(numberToken.getNumber())));
+            }
+            else {
+                this.operands.push(new ConstantNode(AviatorLong.valueOf(numberToken.getNumber())));
+            }
+            break;
+        case String:
+            this.operands.push(new ConstantNode(new AviatorString((String) lookhead.getValue(null))));
+            break;
+        case Pattern:
+            this.operands.push(new ConstantNode(new AviatorPattern((String) lookhead.getValue(null))));
+            break;
+        case Variable:
+            if (lookhead == Variable.TRUE) {
+                this.operands.push(new ConstantNode(AviatorBoolean.TRUE));
+            }
+            else if (lookhead == Variable.FALSE) {
+                this.operands.push(new ConstantNode(AviatorBoolean.FALSE));
+            }
+            else if (lookhead == Variable.NIL) {
+                this.operands.push(new ConstantNode(AviatorNil.NIL));
+            }
+            else {
+                final String name = lookhead.getLexeme();
+                final int index = this.variableSchema == null ? -1 : this.variableSchema.indexOf(name);
+                this.operands.push(new VariableNode(index >= 0 ? new AviatorIndexedJavaType(name, index)
+                        : new AviatorJavaType(name)));
+            }
+            break;
+        }
+    }
+
+
+    public void onMethodName(Token<?> lookhead) {
+        this.methodMetaDataStack.push(new MethodMetaData(lookhead.getLexeme()));
+    }
+
+
+    public void onMethodParameter(Token<?> lookhead) {
+        this.methodMetaDataStack.peek().params.add(this.operands.pop());
+    }
+
+
+    public void onMethodInvoke(Token<?> lookhead) {
+        final MethodMetaData methodMetaData = this.methodMetaDataStack.pop();
+        this.operands.push(new FunctionNode(methodMetaData.methodName, methodMetaData.params
+            .toArray(new Node[methodMetaData.params.size()])));
+    }
+
+
+    public void onElementStart(Token<?> lookhead) {
+        onConstant(lookhead);
+    }
+
+
+    public void onElementEnd(Token<?> lookhead) {
+        final Node index = this.operands.pop();
+        final Node variable = this.operands.pop();
+        if (!(variable instanceof VariableNode)) {
+            throw new CompileExpressionErrorException("Could not use [] on a non-variable operand");
+        }
+        this.operands.push(new ElementNode(((VariableNode) variable).getVariable(), index));
+    }
+
+
+    public Expression getResult() {
+        if (this.operands.isEmpty()) {
+            return new InterpretExpression(null);
+        }
+        if (this.operands.size() > 1) {
+            throw new CompileExpressionErrorException("operand stack is not empty,count=" + this.operands.size());
+        }
+        final Node root = this.operands.pop();
+        if (root instanceof ConstantNode) {
+            return new LiteralExpression(((ConstantNode) root).getValue().getValue(null));
+        }
+        return new InterpretExpression(root);
+    }
+
+}
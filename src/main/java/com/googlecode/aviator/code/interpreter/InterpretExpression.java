@@ -0,0 +1,82 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import com.googlecode.aviator.BaseExpression;
+import com.googlecode.aviator.utils.Env;
+import com.googlecode.aviator.utils.TypeUtils;
+
+
+/**
+ * Expression executed by walking the node tree,no java class is generated
+ * 
+ * @author dennis
+ * 
+ */
+public class InterpretExpression extends BaseExpression {
+    private final Node root;
+
+
+    public InterpretExpression(Node root) {
+        super();
+        this.root = root;
+    }
+
+
+    public Node getRoot() {
+        return root;
+    }
+
+
+    @Override
+    protected Object execute0(Env env) {
+        if (root == null) {
+            return null;
+        }
+        return root.eval(env).getValue(env);
+    }
+
+
+    @Override
+    protected boolean executeBoolean0(Env env) {
+        if (root == null) {
+            return super.executeBoolean0(env);
+        }
+        return TypeUtils.booleanValue(root.eval(env), env);
+    }
+
+
+    @Override
+    protected long executeLong0(Env env) {
+        if (root == null) {
+            return super.executeLong0(env);
+        }
+        return TypeUtils.longValue(root.eval(env), env);
+    }
+
+
+    @Override
+    protected double executeDouble0(Env env) {
+        if (root == null) {
+            return super.executeDouble0(env);
+        }
+        return TypeUtils.doubleValue(root.eval(env), env);
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.Map;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.lexer.token.OperatorType;
+import com.googlecode.aviator.runtime.type.AviatorBoolean;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Arithmetic,compare,match and unary operator node
+ * 
+ * @author dennis
+ * 
+ */
+public class OperatorNode extends Node {
+    private final OperatorType operatorType;
+    private final Node left;
+    // null for unary operators
+    private final Node right;
+
+
+    public OperatorNode(OperatorType operatorType, Node left, Node right) {
+        super();
+        this.operatorType = operatorType;
+        this.left = left;
+        this.right = right;
+    }
+
+
+    public OperatorType getOperatorType() {
+        return operatorType;
+    }
+
+
+    @Override
+    public AviatorObject eval(Map<String, Object> env) {
+        final AviatorObject first = left.eval(env);
+        switch (operatorType) {
+        case NOT:
+            return first.not(env);
+        case NEG:
+            return first.neg(env);
+        }
+        final AviatorObject second = right.eval(env);
+        switch (operatorType) {
+        case ADD:
+            return first.add(second, env);
+        case SUB:
+            return first.sub(second, env);
+        case MULT:
+            return first.mult(second, env);
+        case DIV:
+            return first.div(second, env);
+        case MOD:
+            return first.mod(second, env);
+        case EQ:
+            return AviatorBoolean.valueOf(first.compare(second, env) == 0);
+        case NEQ:
+            return AviatorBoolean.valueOf(first.compare(second, env) != 0);
+        case LT:
+            return AviatorBoolean.valueOf(first.compare(second, env) < 0);
+        case LE:
+            return AviatorBoolean.valueOf(first.compare(second, env) <= 0);
+        case GT:
+            return AviatorBoolean.valueOf(first.compare(second, env) > 0);
+        case GE:
+            return AviatorBoolean.valueOf(first.compare(second, env) >= 0);
+        case MATCH:
+            // pattern on the right side matches the left side
+            return second.match(first, env);
+        default:
+            throw new ExpressionRuntimeException("Unsupported operator " + operatorType);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.type.AviatorBoolean;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Logic operation "||",the right operand is evaluated only if the left one
+ * is false
+ * 
+ * @author dennis
+ * 
+ */
+public class OrNode extends Node {
+    private final Node left;
+    private final Node right;
+
+
+    public OrNode(Node left, Node right) {
+        super();
+        this.left = left;
+        this.right = right;
+    }
+
+
+    @Override
+    public AviatorObject eval(Map<String, Object> env) {
+        if (left.eval(env).booleanValue(env) || right.eval(env).booleanValue(env)) {
+            return AviatorBoolean.TRUE;
+        }
+        return AviatorBoolean.FALSE;
+    }
+
+}
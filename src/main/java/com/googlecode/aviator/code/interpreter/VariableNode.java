@@ -0,0 +1,54 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.type.AviatorJavaType;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Variable node,the variable is resolved from environment when it is used
+ * 
+ * @author dennis
+ * 
+ */
+public class VariableNode extends Node {
+    // AviatorJavaType is immutable,so it is shared by all executions
+    private final AviatorJavaType variable;
+
+
+    public VariableNode(AviatorJavaType variable) {
+        super();
+        this.variable = variable;
+    }
+
+
+    public AviatorJavaType getVariable() {
+        return variable;
+    }
+
+
+    @Override
+    public AviatorObject eval(Map<String, Object> env) {
+        return variable;
+    }
+
+}
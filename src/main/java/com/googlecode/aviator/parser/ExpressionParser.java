@@ -549,11 +549,20 @@ public class ExpressionParser {
 
 
     public Expression parse() {
+        parseWithoutResult();
+        return codeGenerator.getResult();
+    }
+
+
+    /**
+     * Parse expression into code generator without getting the result,so
+     * that one code generator can compile several expressions
+     */
+    public void parseWithoutResult() {
         ternary();
         if (this.depth > 0) {
             reportSyntaxError("insert ')' to complete Expression");
         }
-        return codeGenerator.getResult();
     }
 
 }
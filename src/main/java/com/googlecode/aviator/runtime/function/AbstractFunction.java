@@ -0,0 +1,68 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.function;
+
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.type.AviatorFunction;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Base class of functions that can be called with a fixed number of
+ * arguments.Compiled expressions call the fixed arity methods directly when a
+ * function has at most four arguments,so no argument array is allocated if the
+ * function overrides them.By default they delegate to the varargs
+ * call(env,args).
+ * 
+ * @author dennis
+ * 
+ */
+public abstract class AbstractFunction implements AviatorFunction {
+
+    public static final int MAX_FIXED_ARITY = 4;
+
+    private static final AviatorObject[] EMPTY_ARGS = new AviatorObject[0];
+
+
+    public AviatorObject call(Map<String, Object> env) {
+        return call(env, EMPTY_ARGS);
+    }
+
+
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1) {
+        return call(env, new AviatorObject[] { arg1 });
+    }
+
+
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2) {
+        return call(env, new AviatorObject[] { arg1, arg2 });
+    }
+
+
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2, AviatorObject arg3) {
+        return call(env, new AviatorObject[] { arg1, arg2, arg3 });
+    }
+
+
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2,
+            AviatorObject arg3, AviatorObject arg4) {
+        return call(env, new AviatorObject[] { arg1, arg2, arg3, arg4 });
+    }
+}
@@ -36,11 +36,16 @@ import com.googlecode.aviator.runtime.type.AviatorType;
 public class FunctionUtils {
 
     public static final String getStringValue(int index, AviatorObject[] args, Map<String, Object> env) {
+        return getStringValue(args[index], env);
+    }
+
+
+    public static final String getStringValue(AviatorObject arg, Map<String, Object> env) {
         String result = null;
 
-        final Object value = args[index].getValue(env);
-        if (value == null && args[index].getAviatorType() == AviatorType.JavaType) {
-            throw new NullPointerException("There is no string named" + ((AviatorJavaType) args[index]).getName());
+        final Object value = arg.getValue(env);
+        if (value == null && arg.getAviatorType() == AviatorType.JavaType) {
+            throw new NullPointerException("There is no string named" + ((AviatorJavaType) arg).getName());
         }
         if (value instanceof Character) {
             result = value.toString();
@@ -81,7 +86,12 @@ public class FunctionUtils {
 
 
     public static final Number getNumberValue(int index, AviatorObject[] args, Map<String, Object> env) {
-        return (Number) args[index].getValue(env);
+        return getNumberValue(args[index], env);
+    }
+
+
+    public static final Number getNumberValue(AviatorObject arg, Map<String, Object> env) {
+        return (Number) arg.getValue(env);
     }
 
 }
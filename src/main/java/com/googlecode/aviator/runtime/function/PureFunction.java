@@ -0,0 +1,38 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.function;
+
+import com.googlecode.aviator.runtime.type.AviatorFunction;
+
+
+/**
+ * Marker of functions without side effects,which always return equal results
+ * for equal arguments.The compiler may call a pure function fewer times than
+ * it appears in an expression,a repeated call with the same arguments is
+ * computed only once,and a call with literal arguments is evaluated when the
+ * expression is compiled.It is safe because a call always resolves a
+ * registered function first,a variable of the same name in environment never
+ * shadows it.
+ * 
+ * @author dennis
+ * 
+ */
+public interface PureFunction extends AviatorFunction {
+
+}
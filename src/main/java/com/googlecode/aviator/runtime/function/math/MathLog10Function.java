@@ -20,9 +20,10 @@ package com.googlecode.aviator.runtime.function.math;
 
 import java.util.Map;
 
+import com.googlecode.aviator.runtime.function.AbstractFunction;
 import com.googlecode.aviator.runtime.function.FunctionUtils;
+import com.googlecode.aviator.runtime.function.PureFunction;
 import com.googlecode.aviator.runtime.type.AviatorDouble;
-import com.googlecode.aviator.runtime.type.AviatorFunction;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 
 
@@ -32,16 +33,22 @@ import com.googlecode.aviator.runtime.type.AviatorObject;
  * @author dennis
  * 
  */
-public class MathLog10Function implements AviatorFunction {
+public class MathLog10Function extends AbstractFunction implements PureFunction {
+
+    @Override
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1) {
+        Number num = FunctionUtils.getNumberValue(arg1, env);
+
+        return new AviatorDouble(Math.log10(num.doubleValue()));
+
+    }
+
 
     public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
         if (args.length != 1) {
             throw new IllegalArgumentException("math.log10(number)");
         }
-        Number num = FunctionUtils.getNumberValue(0, args, env);
-
-        return new AviatorDouble(Math.log10(num.doubleValue()));
-
+        return call(env, args[0]);
     }
 
 
@@ -20,9 +20,10 @@ package com.googlecode.aviator.runtime.function.math;
 
 import java.util.Map;
 
+import com.googlecode.aviator.runtime.function.AbstractFunction;
 import com.googlecode.aviator.runtime.function.FunctionUtils;
+import com.googlecode.aviator.runtime.function.PureFunction;
 import com.googlecode.aviator.runtime.type.AviatorDouble;
-import com.googlecode.aviator.runtime.type.AviatorFunction;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 
 
@@ -32,16 +33,22 @@ import com.googlecode.aviator.runtime.type.AviatorObject;
  * @author dennis
  * 
  */
-public class MathPowFunction implements AviatorFunction {
+public class MathPowFunction extends AbstractFunction implements PureFunction {
+
+    @Override
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2) {
+        Number left = FunctionUtils.getNumberValue(arg1, env);
+        Number right = FunctionUtils.getNumberValue(arg2, env);
+        return new AviatorDouble(Math.pow(left.doubleValue(), right.doubleValue()));
+
+    }
+
 
     public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
         if (args.length != 2) {
             throw new IllegalArgumentException("math.pow(base,exp)");
         }
-        Number left = FunctionUtils.getNumberValue(0, args, env);
-        Number right = FunctionUtils.getNumberValue(1, args, env);
-        return new AviatorDouble(Math.pow(left.doubleValue(), right.doubleValue()));
-
+        return call(env, args[0], args[1]);
     }
 
 
@@ -20,8 +20,9 @@ package com.googlecode.aviator.runtime.function.string;
 
 import java.util.Map;
 
+import com.googlecode.aviator.runtime.function.AbstractFunction;
 import com.googlecode.aviator.runtime.function.FunctionUtils;
-import com.googlecode.aviator.runtime.type.AviatorFunction;
+import com.googlecode.aviator.runtime.function.PureFunction;
 import com.googlecode.aviator.runtime.type.AviatorLong;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 
@@ -30,14 +31,20 @@ import com.googlecode.aviator.runtime.type.AviatorObject;
  * @author dennis
  *
  */
-public class StringLengthFunction implements AviatorFunction {
+public class StringLengthFunction extends AbstractFunction implements PureFunction {
+
+    @Override
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1) {
+        String value = FunctionUtils.getStringValue(arg1, env);
+        return new AviatorLong(Integer.valueOf(value.length()));
+    }
+
 
     public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
         if (args.length != 1) {
             throw new IllegalArgumentException("string.length(string)");
         }
-        String value = FunctionUtils.getStringValue(0, args, env);
-        return new AviatorLong(value.length());
+        return call(env, args[0]);
     }
 
 
@@ -20,9 +20,10 @@ package com.googlecode.aviator.runtime.function.string;
 
 import java.util.Map;
 
+import com.googlecode.aviator.runtime.function.AbstractFunction;
 import com.googlecode.aviator.runtime.function.FunctionUtils;
+import com.googlecode.aviator.runtime.function.PureFunction;
 import com.googlecode.aviator.runtime.type.AviatorBoolean;
-import com.googlecode.aviator.runtime.type.AviatorFunction;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 
 /**
@@ -30,18 +31,24 @@ import com.googlecode.aviator.runtime.type.AviatorObject;
  * @author dennis
  *
  */
-public class StringStartsWithFunction implements AviatorFunction {
+public class StringStartsWithFunction extends AbstractFunction implements PureFunction {
     public String getName() {
         return "string.startsWith";
     }
 
 
+    @Override
+    public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2) {
+        String target = FunctionUtils.getStringValue(arg1, env);
+        String param = FunctionUtils.getStringValue(arg2, env);
+        return target.startsWith(param)? AviatorBoolean.TRUE : AviatorBoolean.FALSE;
+    }
+
+
     public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
         if (args.length != 2) {
             throw new IllegalArgumentException("string.endsWith(string,string|char)");
         }
-        String target = FunctionUtils.getStringValue(0, args, env);
-        String param = FunctionUtils.getStringValue(1, args, env);
-        return target.startsWith(param)? AviatorBoolean.TRUE : AviatorBoolean.FALSE;
+        return call(env, args[0], args[1]);
     }
 }
@@ -20,8 +20,11 @@ package com.googlecode.aviator.runtime.method;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.runtime.function.AbstractFunction;
 import com.googlecode.aviator.runtime.type.AviatorFunction;
 import com.googlecode.aviator.runtime.type.AviatorNil;
 import com.googlecode.aviator.runtime.type.AviatorObject;
@@ -53,25 +56,134 @@ public class AviatorMethod extends AviatorObject {
         return this.methodName;
     }
 
+    /**
+     * Version of the function registry,increased when a function is added or
+     * removed so that linked methods link again
+     */
+    private static final AtomicInteger REGISTRY_VERSION = new AtomicInteger();
+
     private final String methodName;
-    private volatile AviatorFunction cachedFunction;
+    private volatile Linkage linkage;
+
+    /**
+     * The registered function a method is linked to,function is null if there
+     * was no such function in registry
+     */
+    private static final class Linkage {
+        final AviatorFunction function;
+        final int version;
+
+
+        Linkage(AviatorFunction function, int version) {
+            super();
+            this.function = function;
+            this.version = version;
+        }
+    }
 
 
+    /**
+     * Create a method and link it to the registered function with the same
+     * name.Generated classes keep their methods in static fields,so a method
+     * is linked once instead of looking up the function in environment on
+     * every call.
+     * 
+     * @param methodName
+     */
     public AviatorMethod(String methodName) {
         super();
         this.methodName = methodName;
+        this.linkage = link();
     }
 
 
-    public AviatorObject invoke(Map<String, Object> env, List<AviatorObject> list) {
-        if (cachedFunction == null) {
-            cachedFunction = (AviatorFunction) env.get(this.methodName);
+    /**
+     * Invalidate all linked methods,called when the function registry is
+     * changed.
+     */
+    public static void invalidate() {
+        REGISTRY_VERSION.incrementAndGet();
+    }
+
+
+    private Linkage link() {
+        final int version = REGISTRY_VERSION.get();
+        return new Linkage((AviatorFunction) AviatorEvaluator.FUNC_MAP.get(this.methodName), version);
+    }
+
+
+    private AviatorFunction getFunction(Map<String, Object> env) {
+        Linkage linkage = this.linkage;
+        if (linkage.version != REGISTRY_VERSION.get()) {
+            linkage = link();
+            this.linkage = linkage;
+        }
+        if (linkage.function != null) {
+            return linkage.function;
         }
-        if (cachedFunction == null) {
+        // Not a registered function,find it in environment
+        final AviatorFunction function = (AviatorFunction) env.get(this.methodName);
+        if (function == null) {
             throw new ExpressionRuntimeException("Could not find method named " + methodName);
         }
-        final AviatorObject result = cachedFunction.call(env, list.toArray(new AviatorObject[list.size()]));
+        return function;
+    }
+
+
+    private static AviatorObject nilIfNull(AviatorObject result) {
         return result == null ? AviatorNil.NIL : result;
     }
 
+
+    public AviatorObject invoke(Map<String, Object> env) {
+        final AviatorFunction function = getFunction(env);
+        if (function instanceof AbstractFunction) {
+            return nilIfNull(((AbstractFunction) function).call(env));
+        }
+        return nilIfNull(function.call(env));
+    }
+
+
+    public AviatorObject invoke(Map<String, Object> env, AviatorObject arg1) {
+        final AviatorFunction function = getFunction(env);
+        if (function instanceof AbstractFunction) {
+            return nilIfNull(((AbstractFunction) function).call(env, arg1));
+        }
+        return nilIfNull(function.call(env, arg1));
+    }
+
+
+    public AviatorObject invoke(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2) {
+        final AviatorFunction function = getFunction(env);
+        if (function instanceof AbstractFunction) {
+            return nilIfNull(((AbstractFunction) function).call(env, arg1, arg2));
+        }
+        return nilIfNull(function.call(env, arg1, arg2));
+    }
+
+
+    public AviatorObject invoke(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2, AviatorObject arg3) {
+        final AviatorFunction function = getFunction(env);
+        if (function instanceof AbstractFunction) {
+            return nilIfNull(((AbstractFunction) function).call(env, arg1, arg2, arg3));
+        }
+        return nilIfNull(function.call(env, arg1, arg2, arg3));
+    }
+
+
+    public AviatorObject invoke(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2,
+            AviatorObject arg3, AviatorObject arg4) {
+        final AviatorFunction function = getFunction(env);
+        if (function instanceof AbstractFunction) {
+            return nilIfNull(((AbstractFunction) function).call(env, arg1, arg2, arg3, arg4));
+        }
+        return nilIfNull(function.call(env, arg1, arg2, arg3, arg4));
+    }
+
+
+    public AviatorObject invoke(Map<String, Object> env, List<AviatorObject> list) {
+        final AviatorFunction function = getFunction(env);
+        return nilIfNull(function.call(env, list.toArray(new AviatorObject[list.size()])));
+    }
+
 }
@@ -0,0 +1,55 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.property;
+
+/**
+ * Reads a property of beans of one class.Accessors are generated by
+ * PropertyAccessors and must be public to be extended by generated classes.
+ * 
+ * @author dennis
+ * 
+ */
+public abstract class PropertyAccessor {
+
+    public PropertyAccessor() {
+        super();
+    }
+
+
+    /**
+     * Returns property value of the bean
+     * 
+     * @param bean
+     * @return
+     * @throws Exception
+     */
+    public abstract Object get(Object bean) throws Exception;
+
+
+    /**
+     * Returns true if beans have no such property,get throws
+     * NoSuchMethodException then
+     * 
+     * @return
+     */
+    public boolean isMissing() {
+        return false;
+    }
+
+}
@@ -0,0 +1,293 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.property;
+
+import static com.googlecode.aviator.asm.Opcodes.*;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.asm.ClassWriter;
+import com.googlecode.aviator.asm.MethodVisitor;
+import com.googlecode.aviator.asm.Type;
+
+
+/**
+ * Creates and caches property accessors by bean class and property name.An
+ * accessor calls the public read method directly from generated bytecode,
+ * properties without an accessible read method(e.g. dyna beans) are read by
+ * PropertyUtils.
+ * 
+ * @author dennis
+ * 
+ */
+public final class PropertyAccessors {
+    private static final AtomicLong CLASS_COUNTER = new AtomicLong();
+
+    private static final String ACCESSOR_NAME = "com/googlecode/aviator/runtime/property/PropertyAccessor";
+
+    /**
+     * bean class -> property name -> accessor.Bean classes are weak keys and
+     * accessors are weak values,as a generated accessor is defined in a child
+     * loader of the bean's class loader and refers to the bean class,so that
+     * the cache never keeps bean classes and their loaders alive.Accessors in
+     * use are held by property paths.
+     */
+    private static final Map<Class<?>, Map<String, WeakReference<PropertyAccessor>>> ACCESSORS =
+            new WeakHashMap<Class<?>, Map<String, WeakReference<PropertyAccessor>>>();
+
+
+    private PropertyAccessors() {
+    }
+
+    /**
+     * Reads property by PropertyUtils
+     */
+    private static final class ReflectionAccessor extends PropertyAccessor {
+        private final String name;
+
+
+        ReflectionAccessor(String name) {
+            super();
+            this.name = name;
+        }
+
+
+        @Override
+        public Object get(Object bean) throws Exception {
+            return PropertyUtils.getSimpleProperty(bean, this.name);
+        }
+    }
+
+    /**
+     * Accessor of a property which beans don't have
+     */
+    private static final class MissingPropertyAccessor extends PropertyAccessor {
+        // class name only,the accessor must not refer to the bean class
+        private final String beanClassName;
+        private final String name;
+
+
+        MissingPropertyAccessor(Class<?> beanClass, String name) {
+            super();
+            this.beanClassName = beanClass.toString();
+            this.name = name;
+        }
+
+
+        @Override
+        public Object get(Object bean) throws Exception {
+            throw new NoSuchMethodException("Unknown property '" + this.name + "' on class '" + this.beanClassName
+                    + "'");
+        }
+
+
+        @Override
+        public boolean isMissing() {
+            return true;
+        }
+    }
+
+    /**
+     * Defines accessor classes,PropertyAccessor is loaded from aviator's class
+     * loader and other classes from the bean's class loader.
+     */
+    private static final class AccessorClassLoader extends ClassLoader {
+        AccessorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(PropertyAccessor.class.getName())) {
+                return PropertyAccessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+
+        Class<?> defineClass(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+
+    /**
+     * Returns accessor of the property for beans of the class
+     * 
+     * @param beanClass
+     * @param name
+     * @return
+     */
+    public static PropertyAccessor getAccessor(Class<?> beanClass, String name) {
+        PropertyAccessor accessor = getCachedAccessor(beanClass, name);
+        if (accessor != null) {
+            return accessor;
+        }
+        // create it outside of lock,the first one cached wins
+        accessor = createAccessor(beanClass, name);
+        synchronized (ACCESSORS) {
+            final PropertyAccessor existing = getCachedAccessor(beanClass, name);
+            if (existing != null) {
+                return existing;
+            }
+            Map<String, WeakReference<PropertyAccessor>> accessors = ACCESSORS.get(beanClass);
+            if (accessors == null) {
+                accessors = new HashMap<String, WeakReference<PropertyAccessor>>();
+                ACCESSORS.put(beanClass, accessors);
+            }
+            accessors.put(name, new WeakReference<PropertyAccessor>(accessor));
+        }
+        return accessor;
+    }
+
+
+    private static PropertyAccessor getCachedAccessor(Class<?> beanClass, String name) {
+        synchronized (ACCESSORS) {
+            final Map<String, WeakReference<PropertyAccessor>> accessors = ACCESSORS.get(beanClass);
+            final WeakReference<PropertyAccessor> reference = accessors != null ? accessors.get(name) : null;
+            return reference != null ? reference.get() : null;
+        }
+    }
+
+
+    private static PropertyAccessor createAccessor(Class<?> beanClass, String name) {
+        if (DynaBean.class.isAssignableFrom(beanClass)) {
+            return new ReflectionAccessor(name);
+        }
+        final PropertyDescriptor descriptor = getPropertyDescriptor(beanClass, name);
+        if (descriptor == null || descriptor.getReadMethod() == null) {
+            return new MissingPropertyAccessor(beanClass, name);
+        }
+        // read method declared in a public class or interface
+        final Method readMethod = MethodUtils.getAccessibleMethod(beanClass, descriptor.getReadMethod());
+        if (readMethod != null && Modifier.isPublic(readMethod.getDeclaringClass().getModifiers())) {
+            try {
+                return generateAccessor(readMethod);
+            }
+            catch (Throwable t) {
+                // fall back to PropertyUtils
+            }
+        }
+        return new ReflectionAccessor(name);
+    }
+
+
+    private static PropertyDescriptor getPropertyDescriptor(Class<?> beanClass, String name) {
+        try {
+            BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+            for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                if (descriptor.getName().equals(name)) {
+                    return descriptor;
+                }
+            }
+        }
+        catch (Throwable t) {
+            // ignore
+        }
+        return null;
+    }
+
+
+    private static PropertyAccessor generateAccessor(Method readMethod) throws Exception {
+        final Class<?> declaringClass = readMethod.getDeclaringClass();
+        final String className = "AviatorPropertyAccessor_" + CLASS_COUNTER.getAndIncrement();
+        final String ownerName = Type.getInternalName(declaringClass);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(AviatorEvaluator.BYTECODE_VER, ACC_PUBLIC + ACC_SUPER + ACC_FINAL, className, null, ACCESSOR_NAME,
+            null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, ACCESSOR_NAME, "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "get", "(Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, ownerName);
+        mv.visitMethodInsn(declaringClass.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL, ownerName, readMethod
+            .getName(), Type.getMethodDescriptor(readMethod));
+        box(mv, Type.getReturnType(readMethod));
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        final byte[] bytes = cw.toByteArray();
+        final ClassLoader parent =
+                declaringClass.getClassLoader() != null ? declaringClass.getClassLoader() : PropertyAccessor.class
+                    .getClassLoader();
+        AccessorClassLoader classLoader = AccessController.doPrivileged(new PrivilegedAction<AccessorClassLoader>() {
+            public AccessorClassLoader run() {
+                return new AccessorClassLoader(parent);
+            }
+        });
+        return (PropertyAccessor) classLoader.defineClass(className, bytes).getDeclaredConstructor().newInstance();
+    }
+
+
+    private static void box(MethodVisitor mv, Type type) {
+        switch (type.getSort()) {
+        case Type.BOOLEAN:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+            break;
+        case Type.CHAR:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;");
+            break;
+        case Type.BYTE:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Byte", "valueOf", "(B)Ljava/lang/Byte;");
+            break;
+        case Type.SHORT:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Short", "valueOf", "(S)Ljava/lang/Short;");
+            break;
+        case Type.INT:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+            break;
+        case Type.LONG:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;");
+            break;
+        case Type.FLOAT:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "valueOf", "(F)Ljava/lang/Float;");
+            break;
+        case Type.DOUBLE:
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+            break;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.property;
+
+import java.util.Map;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+
+
+/**
+ * A dotted variable name such as "order.customer.tier",split once when the
+ * expression is compiled.Maps are navigated by Map.get,other beans by their
+ * read methods through an inline cache for each property,which remembers the
+ * accessor of the last seen bean class.
+ * 
+ * @author dennis
+ * 
+ */
+public final class PropertyPath {
+    private final String path;
+    private final String[] names;
+    private final InlineCache[] caches;
+
+    /**
+     * Accessor of the last seen bean class
+     */
+    private static final class CacheEntry {
+        final Class<?> beanClass;
+        final PropertyAccessor accessor;
+
+
+        CacheEntry(Class<?> beanClass, PropertyAccessor accessor) {
+            super();
+            this.beanClass = beanClass;
+            this.accessor = accessor;
+        }
+    }
+
+    private static final class InlineCache {
+        private final String name;
+        private volatile CacheEntry entry;
+
+
+        InlineCache(String name) {
+            super();
+            this.name = name;
+        }
+
+
+        Object get(Object bean, boolean nilSafe) throws Exception {
+            CacheEntry entry = this.entry;
+            final Class<?> beanClass = bean.getClass();
+            if (entry == null || entry.beanClass != beanClass) {
+                entry = new CacheEntry(beanClass, PropertyAccessors.getAccessor(beanClass, this.name));
+                this.entry = entry;
+            }
+            if (nilSafe && entry.accessor.isMissing()) {
+                return null;
+            }
+            return entry.accessor.get(bean);
+        }
+    }
+
+
+    public PropertyPath(String path) {
+        super();
+        this.path = path;
+        this.names = path.split("\\.");
+        this.caches = new InlineCache[this.names.length];
+        for (int i = 1; i < this.names.length; i++) {
+            this.caches[i] = new InlineCache(this.names[i]);
+        }
+    }
+
+
+    public String getPath() {
+        return this.path;
+    }
+
+
+    /**
+     * Returns value of the path,throws exception if a property in the middle
+     * of path is null or missing unless nil-safe navigation is enabled
+     * 
+     * @see AviatorEvaluator#setNilSafeNavigation(boolean)
+     * @param env
+     * @return
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public Object getValue(Map<String, Object> env) throws Exception {
+        final boolean nilSafe = AviatorEvaluator.isNilSafeNavigation();
+        Object value = env.get(this.names[0]);
+        for (int i = 1; i < this.names.length; i++) {
+            if (value == null) {
+                if (nilSafe) {
+                    return null;
+                }
+                throw new ExpressionRuntimeException("Null property value for '" + getPrefix(i) + "'");
+            }
+            if (value instanceof Map) {
+                value = ((Map<String, Object>) value).get(this.names[i]);
+            }
+            else {
+                value = this.caches[i].get(value, nilSafe);
+            }
+        }
+        return value;
+    }
+
+
+    private String getPrefix(int count) {
+        StringBuilder sb = new StringBuilder(this.names[0]);
+        for (int i = 1; i < count; i++) {
+            sb.append('.').append(this.names[i]);
+        }
+        return sb.toString();
+    }
+
+
+    @Override
+    public String toString() {
+        return this.path;
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.type;
+
+import java.util.Map;
+
+import com.googlecode.aviator.runtime.property.PropertyPath;
+
+
+/**
+ * A java type variable which reads it's value once,generated code creates one
+ * for each variable used more than once and reuses it in one execution.
+ * 
+ * @author dennis
+ * 
+ */
+public class AviatorCachedJavaType extends AviatorJavaType {
+    private Object value;
+    private boolean loaded;
+
+
+    public AviatorCachedJavaType(String name) {
+        super(name);
+    }
+
+
+    public AviatorCachedJavaType(String name, PropertyPath propertyPath) {
+        super(name, propertyPath);
+    }
+
+
+    @Override
+    public Object getValue(Map<String, Object> env) {
+        if (!this.loaded) {
+            this.value = super.getValue(env);
+            this.loaded = true;
+        }
+        return this.value;
+    }
+
+}
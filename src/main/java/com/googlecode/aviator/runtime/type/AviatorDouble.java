@@ -28,9 +28,52 @@ import java.util.Map;
  * 
  */
 public class AviatorDouble extends AviatorNumber {
+    private final double value;
 
+    // The boxed value it's created from,null if created from a primitive
+    private final Number number;
+
+
+    public AviatorDouble(double value) {
+        super();
+        this.value = value;
+        this.number = null;
+    }
+
+
+    /**
+     * Create from a boxed number,getValue returns the number itself,so that
+     * an Integer stays an Integer
+     * 
+     * @param number
+     */
     public AviatorDouble(Number number) {
-        super(number);
+        super();
+        this.value = number.doubleValue();
+        this.number = number;
+    }
+
+
+    public static AviatorDouble valueOf(double value) {
+        return new AviatorDouble(value);
+    }
+
+
+    @Override
+    public Object getValue(Map<String, Object> env) {
+        return this.number != null ? this.number : Double.valueOf(this.value);
+    }
+
+
+    @Override
+    public long longValue() {
+        return (long) this.value;
+    }
+
+
+    @Override
+    public double doubleValue() {
+        return this.value;
     }
 
 
@@ -38,10 +81,10 @@ public class AviatorDouble extends AviatorNumber {
     public int innerCompare(AviatorObject other) {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
-        if (this.number.doubleValue() > otherNum.doubleValue()) {
+        if (this.value > otherNum.doubleValue()) {
             return 1;
         }
-        else if (this.number.doubleValue() < otherNum.doubleValue()) {
+        else if (this.value < otherNum.doubleValue()) {
             return -1;
         }
         else {
@@ -52,7 +95,7 @@ public class AviatorDouble extends AviatorNumber {
 
     @Override
     public AviatorObject neg(Map<String, Object> env) {
-        return new AviatorDouble(-this.number.doubleValue());
+        return new AviatorDouble(-this.value);
     }
 
 
@@ -60,7 +103,7 @@ public class AviatorDouble extends AviatorNumber {
     public AviatorObject innerDiv(AviatorObject other) {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
-        return new AviatorDouble(this.number.doubleValue() / otherNum.doubleValue());
+        return new AviatorDouble(this.value / otherNum.doubleValue());
     }
 
 
@@ -68,7 +111,7 @@ public class AviatorDouble extends AviatorNumber {
     public AviatorNumber innerAdd(AviatorNumber other) {
         ensureNumber(other);
         AviatorNumber otherNum = other;
-        return new AviatorDouble(this.number.doubleValue() + otherNum.doubleValue());
+        return new AviatorDouble(this.value + otherNum.doubleValue());
     }
 
 
@@ -76,7 +119,7 @@ public class AviatorDouble extends AviatorNumber {
     public AviatorObject innerMod(AviatorObject other) {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
-        return new AviatorDouble(this.number.doubleValue() % otherNum.doubleValue());
+        return new AviatorDouble(this.value % otherNum.doubleValue());
     }
 
 
@@ -84,7 +127,7 @@ public class AviatorDouble extends AviatorNumber {
     public AviatorObject innerMult(AviatorObject other) {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
-        return new AviatorDouble(this.number.doubleValue() * otherNum.doubleValue());
+        return new AviatorDouble(this.value * otherNum.doubleValue());
     }
 
 
@@ -92,6 +135,6 @@ public class AviatorDouble extends AviatorNumber {
     public AviatorObject innerSub(AviatorObject other) {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
-        return new AviatorDouble(this.number.doubleValue() - otherNum.doubleValue());
+        return new AviatorDouble(this.value - otherNum.doubleValue());
     }
 }
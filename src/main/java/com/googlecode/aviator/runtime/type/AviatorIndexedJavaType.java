@@ -0,0 +1,56 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.type;
+
+import java.util.Map;
+
+import com.googlecode.aviator.utils.SlotEnv;
+
+
+/**
+ * A java type variable bound to an index of the variable schema,it's value
+ * is read from slot when executing with a SlotEnv,and by name otherwise.
+ * 
+ * @author dennis
+ * 
+ */
+public class AviatorIndexedJavaType extends AviatorJavaType {
+    private final int index;
+
+
+    public AviatorIndexedJavaType(String name, int index) {
+        super(name);
+        this.index = index;
+    }
+
+
+    public int getIndex() {
+        return index;
+    }
+
+
+    @Override
+    public Object getValue(Map<String, Object> env) {
+        if (env instanceof SlotEnv) {
+            return ((SlotEnv) env).getSlot(this.index);
+        }
+        return super.getValue(env);
+    }
+
+}
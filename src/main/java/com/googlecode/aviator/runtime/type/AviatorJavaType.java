@@ -24,9 +24,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.beanutils.PropertyUtils;
-
 import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.runtime.property.PropertyPath;
 
 
 /**
@@ -39,6 +38,9 @@ public class AviatorJavaType extends AviatorObject {
 
     final private String name;
 
+    // Compiled path of dotted name,null for simple names
+    final private PropertyPath propertyPath;
+
 
     @Override
     public AviatorType getAviatorType() {
@@ -52,8 +54,21 @@ public class AviatorJavaType extends AviatorObject {
 
 
     public AviatorJavaType(String name) {
+        this(name, name.contains(".") ? new PropertyPath(name) : null);
+    }
+
+
+    /**
+     * Create a variable with a compiled property path,generated code shares
+     * one path for each dotted name so that it's accessors are cached.
+     * 
+     * @param name
+     * @param propertyPath
+     */
+    public AviatorJavaType(String name, PropertyPath propertyPath) {
         super();
         this.name = name;
+        this.propertyPath = propertyPath;
     }
 
 
@@ -87,8 +102,8 @@ public class AviatorJavaType extends AviatorObject {
     public Object getValue(Map<String, Object> env) {
         try {
             if (env != null) {
-                if (name.contains(".")) {
-                    return PropertyUtils.getProperty(env, name);
+                if (propertyPath != null) {
+                    return propertyPath.getValue(env);
                 }
                 else {
                     return env.get(name);
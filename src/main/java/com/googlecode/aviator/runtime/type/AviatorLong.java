@@ -30,16 +30,77 @@ import com.googlecode.aviator.exception.ExpressionRuntimeException;
  * 
  */
 public class AviatorLong extends AviatorNumber {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 127;
+    private static final AviatorLong[] CACHE = new AviatorLong[CACHE_HIGH - CACHE_LOW + 1];
 
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new AviatorLong(i + CACHE_LOW);
+        }
+    }
+
+    private final long value;
+
+    // The boxed value it's created from,null if created from a primitive
+    private final Number number;
+
+
+    public AviatorLong(long value) {
+        super();
+        this.value = value;
+        this.number = null;
+    }
+
+
+    /**
+     * Create from a boxed number,getValue returns the number itself,so that
+     * an Integer stays an Integer
+     * 
+     * @param number
+     */
     public AviatorLong(Number number) {
-        super(number);
+        super();
+        this.value = number.longValue();
+        this.number = number;
+    }
+
+
+    /**
+     * Returns an AviatorLong for the value,values in [-128,127] are cached
+     * 
+     * @param value
+     * @return
+     */
+    public static AviatorLong valueOf(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[(int) value - CACHE_LOW];
+        }
+        return new AviatorLong(value);
+    }
+
+
+    @Override
+    public Object getValue(Map<String, Object> env) {
+        return this.number != null ? this.number : Long.valueOf(this.value);
+    }
 
+
+    @Override
+    public long longValue() {
+        return this.value;
+    }
+
+
+    @Override
+    public double doubleValue() {
+        return this.value;
     }
 
 
     @Override
     public AviatorObject neg(Map<String, Object> env) {
-        return new AviatorLong(-this.number.longValue());
+        return AviatorLong.valueOf(-this.value);
     }
 
 
@@ -48,10 +109,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
         if (other instanceof AviatorLong) {
-            if (this.number.longValue() > otherNum.longValue()) {
+            if (this.value > otherNum.longValue()) {
                 return 1;
             }
-            else if (this.number.longValue() < otherNum.longValue()) {
+            else if (this.value < otherNum.longValue()) {
                 return -1;
             }
             else {
@@ -59,10 +120,10 @@ public class AviatorLong extends AviatorNumber {
             }
         }
         else if (other instanceof AviatorDouble) {
-            if (this.number.doubleValue() > otherNum.doubleValue()) {
+            if (this.value > otherNum.doubleValue()) {
                 return 1;
             }
-            else if (this.number.doubleValue() < otherNum.doubleValue()) {
+            else if (this.value < otherNum.doubleValue()) {
                 return -1;
             }
             else {
@@ -80,10 +141,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
         if (other instanceof AviatorLong) {
-            return new AviatorLong(this.number.longValue() / otherNum.longValue());
+            return AviatorLong.valueOf(this.value / otherNum.longValue());
         }
         else {
-            return new AviatorDouble(this.number.doubleValue() / otherNum.doubleValue());
+            return new AviatorDouble(this.value / otherNum.doubleValue());
         }
     }
 
@@ -93,10 +154,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = other;
         if (other instanceof AviatorLong) {
-            return new AviatorLong(this.number.longValue() + otherNum.longValue());
+            return AviatorLong.valueOf(this.value + otherNum.longValue());
         }
         else {
-            return new AviatorDouble(this.number.doubleValue() + otherNum.doubleValue());
+            return new AviatorDouble(this.value + otherNum.doubleValue());
         }
     }
 
@@ -106,10 +167,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
         if (other instanceof AviatorLong) {
-            return new AviatorLong(this.number.longValue() % otherNum.longValue());
+            return AviatorLong.valueOf(this.value % otherNum.longValue());
         }
         else {
-            return new AviatorDouble(this.number.doubleValue() % otherNum.doubleValue());
+            return new AviatorDouble(this.value % otherNum.doubleValue());
         }
     }
 
@@ -119,10 +180,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
         if (other instanceof AviatorLong) {
-            return new AviatorLong(this.number.longValue() * otherNum.longValue());
+            return AviatorLong.valueOf(this.value * otherNum.longValue());
         }
         else {
-            return new AviatorDouble(this.number.doubleValue() * otherNum.doubleValue());
+            return new AviatorDouble(this.value * otherNum.doubleValue());
         }
     }
 
@@ -132,10 +193,10 @@ public class AviatorLong extends AviatorNumber {
         ensureNumber(other);
         AviatorNumber otherNum = (AviatorNumber) other;
         if (other instanceof AviatorLong) {
-            return new AviatorLong(this.number.longValue() - otherNum.longValue());
+            return AviatorLong.valueOf(this.value - otherNum.longValue());
         }
         else {
-            return new AviatorDouble(this.number.doubleValue() - otherNum.doubleValue());
+            return new AviatorDouble(this.value - otherNum.doubleValue());
         }
     }
 
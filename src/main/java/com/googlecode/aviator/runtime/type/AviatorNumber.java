@@ -30,24 +30,15 @@ import com.googlecode.aviator.exception.ExpressionRuntimeException;
  * 
  */
 public abstract class AviatorNumber extends AviatorObject {
-    protected Number number;
 
-
-    public AviatorNumber(Number number) {
+    public AviatorNumber() {
         super();
-        this.number = number;
-    }
-
-
-    @Override
-    public Object getValue(Map<String, Object> env) {
-        return this.number;
     }
 
 
     public static AviatorNumber valueOf(Object value) {
         if (value instanceof Long || value instanceof Byte || value instanceof Short || value instanceof Integer) {
-            return new AviatorLong(((Number) value).longValue());
+            return AviatorLong.valueOf(((Number) value).longValue());
 
         }
         else if (value instanceof Double || value instanceof Float) {
@@ -60,16 +51,14 @@ public abstract class AviatorNumber extends AviatorObject {
     }
 
 
-    public double doubleValue() {
-        return number.doubleValue();
-    }
+    public abstract double doubleValue();
 
 
     @Override
     public AviatorObject add(AviatorObject other, Map<String, Object> env) {
         switch (other.getAviatorType()) {
         case String:
-            return new AviatorString(this.number.toString() + ((AviatorString) other).getLexeme());
+            return new AviatorString(getValue(null).toString() + ((AviatorString) other).getLexeme());
         case Number:
             return innerAdd((AviatorNumber) other);
         case JavaType:
@@ -79,7 +68,7 @@ public abstract class AviatorNumber extends AviatorObject {
                 return innerAdd(AviatorNumber.valueOf(otherValue));
             }
             else if (otherValue instanceof String) {
-                return new AviatorString(this.number.toString() + otherValue);
+                return new AviatorString(getValue(null).toString() + otherValue);
             }
             else {
                 return super.add(other, env);
@@ -224,9 +213,7 @@ public abstract class AviatorNumber extends AviatorObject {
     }
 
 
-    public long longValue() {
-        return number.longValue();
-    }
+    public abstract long longValue();
 
 
     protected void ensureNumber(AviatorObject other) {
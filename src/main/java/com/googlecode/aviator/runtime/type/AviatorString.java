@@ -64,7 +64,7 @@ public class AviatorString extends AviatorObject {
             return new AviatorString(this.lexeme + otherBoolean.value);
         case Number:
             AviatorNumber otherNumber = (AviatorNumber) other;
-            return new AviatorString(this.lexeme + otherNumber.number);
+            return new AviatorString(this.lexeme + otherNumber.getValue(env));
         case Nil:
         case JavaType:
             return new AviatorString(this.lexeme + other.getValue(env));
@@ -0,0 +1,159 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Expression execute environment,a layered read-through view over the caller's
+ * variables and the function registry.Lookup order is:per-call overrides
+ * (e.g. regular expression groups "$0".."$n"),caller variables,functions.All
+ * writes go to the small per-call overrides map,so neither the caller's map
+ * nor the function registry is ever copied or modified.Function calls don't
+ * use this order,they resolve registered functions first(see AviatorMethod).
+ * 
+ * @author dennis
+ * 
+ */
+public class Env implements Map<String, Object> {
+    // Caller's variables,read only
+    private final Map<String, Object> defaults;
+    // Function registry,read only
+    private final Map<String, Object> functions;
+    // Per-call overrides,created on first write
+    private Map<String, Object> overrides;
+
+
+    public Env(Map<String, Object> defaults, Map<String, Object> functions) {
+        super();
+        this.defaults = defaults != null ? defaults : Collections.<String, Object> emptyMap();
+        this.functions = functions != null ? functions : Collections.<String, Object> emptyMap();
+    }
+
+
+    public Map<String, Object> getDefaults() {
+        return this.defaults;
+    }
+
+
+    public Object get(Object key) {
+        if (this.overrides != null && this.overrides.containsKey(key)) {
+            return this.overrides.get(key);
+        }
+        Object value = this.defaults.get(key);
+        if (value != null || this.defaults.containsKey(key)) {
+            return value;
+        }
+        return this.functions.get(key);
+    }
+
+
+    public Object put(String key, Object value) {
+        Object prev = get(key);
+        if (this.overrides == null) {
+            this.overrides = new HashMap<String, Object>(8);
+        }
+        this.overrides.put(key, value);
+        return prev;
+    }
+
+
+    public void putAll(Map<? extends String, ? extends Object> map) {
+        for (Map.Entry<? extends String, ? extends Object> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    /**
+     * Remove a key from overrides,the caller's variables and functions are
+     * never removed.
+     */
+    public Object remove(Object key) {
+        return this.overrides != null ? this.overrides.remove(key) : null;
+    }
+
+
+    public boolean containsKey(Object key) {
+        return this.overrides != null && this.overrides.containsKey(key) || this.defaults.containsKey(key)
+                || this.functions.containsKey(key);
+    }
+
+
+    public boolean containsValue(Object value) {
+        return toMap().containsValue(value);
+    }
+
+
+    public void clear() {
+        throw new UnsupportedOperationException("Could not clear a read-through environment");
+    }
+
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+    public int size() {
+        return toMap().size();
+    }
+
+
+    public Set<String> keySet() {
+        return toMap().keySet();
+    }
+
+
+    public Collection<Object> values() {
+        return toMap().values();
+    }
+
+
+    public Set<java.util.Map.Entry<String, Object>> entrySet() {
+        return toMap().entrySet();
+    }
+
+
+    /**
+     * Returns a merged snapshot of all layers,it is a slow path and only used
+     * by bulk operations.
+     * 
+     * @return
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new HashMap<String, Object>(this.functions);
+        result.putAll(this.defaults);
+        if (this.overrides != null) {
+            result.putAll(this.overrides);
+        }
+        return result;
+    }
+
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.utils;
+
+import java.util.Map;
+
+
+/**
+ * Execute environment backed by an Object[] of variable values.Variables in
+ * the schema are read by index,the values are also visible by name(e.g. to
+ * functions and nested property access).
+ * 
+ * @author dennis
+ * 
+ */
+public class SlotEnv extends Env {
+    private final Object[] values;
+
+
+    public SlotEnv(VariableSchema schema, Object[] values, Map<String, Object> functions) {
+        super(schema.asMap(values), functions);
+        this.values = values;
+    }
+
+
+    public Object getSlot(int index) {
+        return this.values[index];
+    }
+
+}
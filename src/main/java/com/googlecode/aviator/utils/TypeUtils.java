@@ -0,0 +1,107 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.utils;
+
+import java.util.Map;
+
+import com.googlecode.aviator.exception.ResultTypeMismatchException;
+import com.googlecode.aviator.runtime.type.AviatorBoolean;
+import com.googlecode.aviator.runtime.type.AviatorNumber;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Converts expression results to primitive values
+ * 
+ * @author dennis
+ * 
+ */
+public class TypeUtils {
+
+    public static boolean booleanValue(Object result) {
+        if (result instanceof Boolean) {
+            return ((Boolean) result).booleanValue();
+        }
+        throw new ResultTypeMismatchException("Result " + result + " is not a boolean");
+    }
+
+
+    public static long longValue(Object result) {
+        if (result instanceof Number) {
+            return ((Number) result).longValue();
+        }
+        throw new ResultTypeMismatchException("Result " + result + " is not a number");
+    }
+
+
+    public static double doubleValue(Object result) {
+        if (result instanceof Number) {
+            return ((Number) result).doubleValue();
+        }
+        throw new ResultTypeMismatchException("Result " + result + " is not a number");
+    }
+
+
+    /**
+     * Returns boolean value of an AviatorObject result,booleans are unboxed
+     * without getValue
+     * 
+     * @param result
+     * @param env
+     * @return
+     */
+    public static boolean booleanValue(AviatorObject result, Map<String, Object> env) {
+        if (result instanceof AviatorBoolean) {
+            return ((AviatorBoolean) result).booleanValue(env);
+        }
+        return booleanValue(result.getValue(env));
+    }
+
+
+    /**
+     * Returns long value of an AviatorObject result,numbers are unboxed
+     * without getValue
+     * 
+     * @param result
+     * @param env
+     * @return
+     */
+    public static long longValue(AviatorObject result, Map<String, Object> env) {
+        if (result instanceof AviatorNumber) {
+            return ((AviatorNumber) result).longValue();
+        }
+        return longValue(result.getValue(env));
+    }
+
+
+    /**
+     * Returns double value of an AviatorObject result,numbers are unboxed
+     * without getValue
+     * 
+     * @param result
+     * @param env
+     * @return
+     */
+    public static double doubleValue(AviatorObject result, Map<String, Object> env) {
+        if (result instanceof AviatorNumber) {
+            return ((AviatorNumber) result).doubleValue();
+        }
+        return doubleValue(result.getValue(env));
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * Variable schema,an ordered list of variable names.A variable in the schema
+ * is resolved to a fixed index at compile time,and it's value is read from
+ * the index of an Object[] at execute time without hashing.
+ * 
+ * @author dennis
+ * 
+ */
+public class VariableSchema {
+    private final String[] names;
+    // Declared types,null if types are not declared
+    private final Class<?>[] types;
+    private final Map<String, Integer> indexes;
+
+
+    public VariableSchema(String[] names) {
+        this(names, null);
+    }
+
+
+    /**
+     * Create a schema with declared variable types,code generator may compute
+     * variables of primitive types(long,double,boolean and their wrappers)
+     * without boxing.A value of declared number type is converted by
+     * Number.longValue()/doubleValue(),and it must not be null.
+     * 
+     * @param names
+     * @param types
+     *            declared types,null element means the type is unknown
+     */
+    public VariableSchema(String[] names, Class<?>[] types) {
+        super();
+        if (names == null) {
+            throw new IllegalArgumentException("Null variable names");
+        }
+        if (types != null && types.length != names.length) {
+            throw new IllegalArgumentException("Variable types length " + types.length
+                    + " doesn't match variable names length " + names.length);
+        }
+        this.names = names.clone();
+        this.types = types != null ? types.clone() : null;
+        this.indexes = new HashMap<String, Integer>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null || names[i].trim().length() == 0) {
+                throw new IllegalArgumentException("Blank variable name at index " + i);
+            }
+            if (this.indexes.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicated variable name " + names[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Returns index of the variable,-1 if it is not in this schema
+     * 
+     * @param name
+     * @return
+     */
+    public int indexOf(String name) {
+        final Integer index = this.indexes.get(name);
+        return index == null ? -1 : index.intValue();
+    }
+
+
+    /**
+     * Returns declared type of the variable at index,null if unknown
+     * 
+     * @param index
+     * @return
+     */
+    public Class<?> getType(int index) {
+        return this.types != null ? this.types[index] : null;
+    }
+
+
+    public String[] getNames() {
+        return this.names.clone();
+    }
+
+
+    public int size() {
+        return this.names.length;
+    }
+
+
+    /**
+     * Returns a read only map view of values by variable name
+     * 
+     * @param values
+     * @return
+     */
+    public Map<String, Object> asMap(final Object[] values) {
+        return new AbstractMap<String, Object>() {
+
+            @Override
+            public Object get(Object key) {
+                final Integer index = indexes.get(key);
+                return index == null ? null : values[index];
+            }
+
+
+            @Override
+            public boolean containsKey(Object key) {
+                return indexes.containsKey(key);
+            }
+
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+
+
+            @Override
+            public Set<Map.Entry<String, Object>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Object>>() {
+
+                    @Override
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        return new Iterator<Map.Entry<String, Object>>() {
+                            private int index = 0;
+
+
+                            public boolean hasNext() {
+                                return this.index < names.length;
+                            }
+
+
+                            public Map.Entry<String, Object> next() {
+                                if (!hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+                                final int i = this.index++;
+                                return new ValueEntry(names[i], values[i]);
+                            }
+
+
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+
+
+                    @Override
+                    public int size() {
+                        return names.length;
+                    }
+                };
+            }
+        };
+    }
+
+    private static class ValueEntry implements Map.Entry<String, Object> {
+        private final String key;
+        private final Object value;
+
+
+        public ValueEntry(String key, Object value) {
+            super();
+            this.key = key;
+            this.value = value;
+        }
+
+
+        public String getKey() {
+            return this.key;
+        }
+
+
+        public Object getValue() {
+            return this.value;
+        }
+
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return this.key.equals(e.getKey())
+                    && (this.value == null ? e.getValue() == null : this.value.equals(e.getValue()));
+        }
+
+
+        @Override
+        public int hashCode() {
+            return this.key.hashCode() ^ (this.value == null ? 0 : this.value.hashCode());
+        }
+    }
+}
@@ -20,11 +20,15 @@ package com.googlecode.aviator;
 
 import static org.junit.Assert.*;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 
+import com.googlecode.aviator.cache.ExpressionCache;
 import com.googlecode.aviator.exception.CompileExpressionErrorException;
 
 
@@ -93,6 +97,32 @@ public class AviatorEvaluatorUnitTest {
     }
 
 
+    @Test
+    public void testGeneratedClassUnloaded() throws Exception {
+        AviatorEvaluator.setExpressionCache(new ExpressionCache(10));
+        try {
+            List<WeakReference<Class<?>>> classes = new ArrayList<WeakReference<Class<?>>>();
+            for (int i = 0; i < 100; i++) {
+                // different shapes,expressions differing only in literals
+                // share one class
+                Expression exp = AviatorEvaluator.compile("a" + i + "*b", true);
+                classes.add(new WeakReference<Class<?>>(((ClassExpression) exp).getJavaClass()));
+            }
+            // each expression has it's own class loader
+            assertNotSame(classes.get(98).get().getClassLoader(), classes.get(99).get().getClassLoader());
+            AviatorEvaluator.clearExpressionCache();
+            for (int i = 0; i < 10 && classes.get(0).get() != null; i++) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            assertNull(classes.get(0).get());
+        }
+        finally {
+            AviatorEvaluator.setExpressionCache(new ExpressionCache());
+        }
+    }
+
+
     @Test(expected = CompileExpressionErrorException.class)
     public void compileBlankExpression1() {
         AviatorEvaluator.compile("");
@@ -115,4 +145,37 @@ public class AviatorEvaluatorUnitTest {
     public void executeBlankExpression2() {
         AviatorEvaluator.execute("    ");
     }
+
+
+    @Test
+    public void compileWithConstants() {
+        Map<String, Object> constants = new HashMap<String, Object>();
+        constants.put("region", "eu");
+        constants.put("threshold", 100);
+        constants.put("rate", 0.5f);
+        constants.put("enabled", true);
+        constants.put("missing", null);
+
+        Expression exp = AviatorEvaluator.compile("region == 'us' && amount > threshold", constants);
+        assertTrue(exp instanceof LiteralExpression);
+        assertEquals(Boolean.FALSE, exp.execute(null));
+
+        exp = AviatorEvaluator.compile("enabled && region == 'eu' ? amount * rate : threshold", constants);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("amount", 30);
+        // constants could not be overridden by env
+        env.put("region", "us");
+        assertEquals(15.0, exp.execute(env));
+        assertEquals(Boolean.TRUE, AviatorEvaluator.compile("missing == nil && amount > threshold / 10", constants)
+            .execute(env));
+        assertEquals(Boolean.FALSE, AviatorEvaluator.compile("amount > threshold", constants).execute(env));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileWithUnsupportedConstant() {
+        Map<String, Object> constants = new HashMap<String, Object>();
+        constants.put("list", new ArrayList<Object>());
+        AviatorEvaluator.compile("a > 1", constants);
+    }
 }
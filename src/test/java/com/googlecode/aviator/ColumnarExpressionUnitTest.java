@@ -0,0 +1,180 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+
+
+/**
+ * Columnar expressions must agree with the expression executed row by row
+ * 
+ * @author dennis
+ * 
+ */
+public class ColumnarExpressionUnitTest {
+    private static final int ROWS = 150;
+
+    private static final String[] NAMES = { "a", "b", "f", "s" };
+
+    private static final Class<?>[] TYPES = { long[].class, double[].class, boolean[].class, Object[].class };
+
+
+    private Object[] newColumns() {
+        long[] a = new long[ROWS];
+        double[] b = new double[ROWS];
+        boolean[] f = new boolean[ROWS];
+        Object[] s = new Object[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            a[i] = i - 50;
+            b[i] = i * 0.5;
+            f[i] = i % 3 == 0;
+            s[i] = i % 4 == 0 ? null : "s" + i % 5;
+        }
+        return new Object[] { a, b, f, s };
+    }
+
+
+    private Map<String, Object> getRow(Object[] columns, int row) {
+        Map<String, Object> env = new HashMap<String, Object>();
+        for (int i = 0; i < NAMES.length; i++) {
+            env.put(NAMES[i], Array.get(columns[i], row));
+        }
+        return env;
+    }
+
+
+    private Object assertColumnar(String expression, Class<?> resultType) {
+        ColumnarExpression columnar = AviatorEvaluator.compileColumnar(expression, NAMES, TYPES);
+        assertEquals(resultType, columnar.getResultType());
+        Object[] columns = newColumns();
+        Object output = columnar.newResultColumn(ROWS);
+        columnar.execute(columns, ROWS, output);
+        Expression compiled = AviatorEvaluator.compile(expression);
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(expression + " at " + i, compiled.execute(getRow(columns, i)), Array.get(output, i));
+        }
+        return output;
+    }
+
+
+    @Test
+    public void testArithmetic() {
+        assertColumnar("a * 3 + 1", long[].class);
+        assertColumnar("a - a / 7 % 5", long[].class);
+        assertColumnar("a * b + 0.5", double[].class);
+        assertColumnar("-b / (a + 0.5)", double[].class);
+    }
+
+
+    @Test
+    public void testLogic() {
+        assertColumnar("a > 10 && f", boolean[].class);
+        assertColumnar("a >= -10 && a < 10 || !f", boolean[].class);
+        assertColumnar("b == a", boolean[].class);
+    }
+
+
+    @Test
+    public void testObjectColumn() {
+        assertColumnar("s == 's1'", boolean[].class);
+        assertColumnar("s == nil ? a : b", Object[].class);
+        assertColumnar("string.length(s == nil ? '' : s) + a", Object[].class);
+    }
+
+
+    @Test
+    public void testCommonSubexpressions() {
+        assertColumnar("(a + 1) * (a + 1) > 100 ? a + 1 : b", Object[].class);
+        assertColumnar("f ? a * b > 3 && a * b < 10 : a * b > 20", boolean[].class);
+    }
+
+
+    @Test
+    public void testLiteral() {
+        long[] output = (long[]) assertColumnar("1 + 2", long[].class);
+        assertEquals(3, output[ROWS - 1]);
+    }
+
+
+    @Test
+    public void testEnvVariable() {
+        ColumnarExpression columnar = AviatorEvaluator.compileColumnar("a * k", NAMES, TYPES);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("k", 2);
+        Object[] output = (Object[]) columnar.newResultColumn(ROWS);
+        columnar.execute(env, newColumns(), ROWS, output);
+        assertEquals(-100L, output[0]);
+        assertEquals(198L, output[ROWS - 1]);
+    }
+
+
+    @Test
+    public void testSelect() {
+        ColumnarExpression columnar = AviatorEvaluator.compileColumnar("a % 2 == 0 && f", NAMES, TYPES);
+        long[] selection = new long[3];
+        assertEquals(25, columnar.select(newColumns(), ROWS, selection));
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals((i - 50) % 2 == 0 && i % 3 == 0, (selection[i >>> 6] & 1L << i) != 0);
+        }
+        // partial batch
+        assertEquals(2, columnar.select(newColumns(), 7, selection));
+        assertEquals(0x41L, selection[0]);
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testSelectNumbers() {
+        AviatorEvaluator.compileColumnar("a + 1", NAMES, TYPES).select(newColumns(), ROWS, new long[3]);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidColumns() {
+        Object[] columns = newColumns();
+        columns[1] = new long[ROWS];
+        AviatorEvaluator.compileColumnar("a + b", NAMES, TYPES).execute(columns, ROWS, new double[ROWS]);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOutput() {
+        AviatorEvaluator.compileColumnar("a + b", NAMES, TYPES).execute(newColumns(), ROWS, new long[ROWS]);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidColumnType() {
+        AviatorEvaluator.compileColumnar("a + b", new String[] { "a", "b" },
+            new Class<?>[] { long[].class, int[].class });
+    }
+
+
+    @Test(expected = ExpressionRuntimeException.class)
+    public void testExecuteError() {
+        AviatorEvaluator.compileColumnar("s > a", NAMES, TYPES).execute(newColumns(), ROWS, new boolean[ROWS]);
+    }
+}
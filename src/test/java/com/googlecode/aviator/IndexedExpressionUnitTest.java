@@ -0,0 +1,128 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.aviator.code.interpreter.InterpretExpression;
+import com.googlecode.aviator.utils.VariableSchema;
+
+
+public class IndexedExpressionUnitTest {
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    private void assertExecute(int optimize) {
+        AviatorEvaluator.setOptimize(optimize);
+        IndexedExpression exp =
+                AviatorEvaluator.compile("a > 1 && string.length(s) == 5 ? a + b * list[1] : user.name", new String[] {
+                                                                                                        "a", "b", "s",
+                                                                                                        "list", "user" });
+        Map<String, Object> user = new HashMap<String, Object>();
+        user.put("name", "dennis");
+        assertEquals(7L, exp.execute(new Object[] { 3, 2L, "hello", new int[] { 1, 2, 3 }, user }));
+        assertEquals("dennis", exp.execute(new Object[] { 0, 2L, "hello", new int[] { 1, 2, 3 }, user }));
+
+        // executing with a map is still supported
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 3);
+        env.put("b", 2L);
+        env.put("s", "hello");
+        env.put("list", new int[] { 1, 2, 3 });
+        assertEquals(7L, exp.execute(env));
+    }
+
+
+    @Test
+    public void testExecuteCompile() {
+        assertExecute(AviatorEvaluator.COMPILE);
+    }
+
+
+    @Test
+    public void testExecuteEval() {
+        assertExecute(AviatorEvaluator.EVAL);
+    }
+
+
+    @Test
+    public void testExecuteInterpret() {
+        assertExecute(AviatorEvaluator.INTERPRET);
+        assertTrue(AviatorEvaluator.compile("a+1", new String[] { "a" }).getExpression() instanceof InterpretExpression);
+    }
+
+
+    @Test
+    public void testExecuteTiered() {
+        assertExecute(AviatorEvaluator.TIERED);
+        assertTrue(AviatorEvaluator.compile("a+1", new String[] { "a" }).getExpression() instanceof ClassExpression);
+    }
+
+
+    @Test
+    public void testVariableNotInSchema() {
+        IndexedExpression exp = AviatorEvaluator.compile("b == nil && a == 1", new String[] { "a" });
+        // b is looked up by name and not found
+        assertEquals(true, exp.execute(new Object[] { 1 }));
+        // functions are looked up by name
+        assertEquals(3L, AviatorEvaluator.compile("math.abs(a)", new String[] { "a" }).execute(new Object[] { -3 }));
+    }
+
+
+    @Test
+    public void testLiteral() {
+        IndexedExpression exp = AviatorEvaluator.compile("1 + 2", new String[] { "a" });
+        assertTrue(exp.getExpression() instanceof LiteralExpression);
+        assertEquals(3L, exp.execute(new Object[] { 100 }));
+    }
+
+
+    @Test
+    public void testSchemaMapView() {
+        Map<String, Object> map = new VariableSchema(new String[] { "a", "b" }).asMap(new Object[] { 1, null });
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", 1);
+        expected.put("b", null);
+        assertEquals(expected.entrySet(), map.entrySet());
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongValuesLength() {
+        AviatorEvaluator.compile("a + b", new String[] { "a", "b" }).execute(new Object[] { 1 });
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatedName() {
+        AviatorEvaluator.compile("a + b", new String[] { "a", "a" });
+    }
+}
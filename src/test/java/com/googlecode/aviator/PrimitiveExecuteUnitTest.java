@@ -0,0 +1,209 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.exception.ResultTypeMismatchException;
+import com.googlecode.aviator.utils.Env;
+
+
+/**
+ * executeBoolean,executeLong and executeDouble must agree with execute in
+ * every optimize mode
+ * 
+ * @author dennis
+ * 
+ */
+public class PrimitiveExecuteUnitTest {
+    private static final String[] BOOLEAN_EXPRESSIONS =
+            { "a > b", "a >= 2.5 && c < d", "x || !y", "s == 'hello'", "a > 1 ? x : y", "x", "true",
+             "a + b > c", "string.length(s) == 5" };
+
+    private static final String[] NUMBER_EXPRESSIONS =
+            { "a + b * c", "a * b - 3", "a / 2", "c % 2.5 + d", "-a", "1 + 2", "3.5", "math.abs(a - b)",
+             "x ? a : c", "a" };
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    private Map<String, Object> newEnv() {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 3L);
+        env.put("b", 2);
+        env.put("c", 1.5);
+        env.put("d", 4.0);
+        env.put("x", true);
+        env.put("y", false);
+        env.put("s", "hello");
+        return env;
+    }
+
+
+    private void assertSameResults(int optimize) {
+        AviatorEvaluator.setOptimize(optimize);
+        Map<String, Object> env = newEnv();
+        for (String expression : BOOLEAN_EXPRESSIONS) {
+            Expression exp = AviatorEvaluator.compile(expression);
+            assertEquals(expression, exp.execute(env), exp.executeBoolean(env));
+        }
+        for (String expression : NUMBER_EXPRESSIONS) {
+            Expression exp = AviatorEvaluator.compile(expression);
+            Number result = (Number) exp.execute(env);
+            assertEquals(expression, result.longValue(), exp.executeLong(env));
+            assertEquals(expression, result.doubleValue(), exp.executeDouble(env), 0.0);
+        }
+    }
+
+
+    @Test
+    public void testCompile() {
+        assertSameResults(AviatorEvaluator.COMPILE);
+    }
+
+
+    @Test
+    public void testEval() {
+        assertSameResults(AviatorEvaluator.EVAL);
+    }
+
+
+    @Test
+    public void testInterpret() {
+        assertSameResults(AviatorEvaluator.INTERPRET);
+    }
+
+
+    @Test
+    public void testTiered() {
+        assertSameResults(AviatorEvaluator.TIERED);
+    }
+
+
+    @Test
+    public void testTypedExpression() {
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            String[] names = { "a", "c" };
+            Class<?>[] types = { long.class, double.class };
+            assertTrue(AviatorEvaluator.compile("a > c", names, types).executeBoolean(new Object[] { 3L, 1.5 }));
+            assertEquals(4L, AviatorEvaluator.compile("a + c", names, types).executeLong(new Object[] { 3L, 1.5 }));
+            assertEquals(6L, AviatorEvaluator.compile("a * 2", names, types).executeLong(new Object[] { 3L, 1.5 }));
+            assertEquals(4.5, AviatorEvaluator.compile("a + c", names, types).executeDouble(new Object[] { 3L, 1.5 }),
+                0.0);
+            assertEquals(3.0, AviatorEvaluator.compile("a", names, types).executeDouble(new Object[] { 3L, 1.5 }), 0.0);
+        }
+    }
+
+
+    @Test
+    public void testNotBoolean() {
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            try {
+                AviatorEvaluator.compile("a + 1").executeBoolean(newEnv());
+                fail();
+            }
+            catch (ResultTypeMismatchException e) {
+                // type mismatch error is not wrapped
+                assertEquals("Result 4 is not a boolean", e.getMessage());
+                assertNull(e.getCause());
+            }
+        }
+    }
+
+
+    @Test
+    public void testErrorsWrapped() {
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            // errors of evaluation are wrapped as before
+            try {
+                AviatorEvaluator.compile("!a").execute(newEnv());
+                fail();
+            }
+            catch (ExpressionRuntimeException e) {
+                assertEquals("Execute expression error", e.getMessage());
+                assertNotNull(e.getCause());
+            }
+            try {
+                AviatorEvaluator.compile("!a").executeBoolean(newEnv());
+                fail();
+            }
+            catch (ExpressionRuntimeException e) {
+                assertFalse(e instanceof ResultTypeMismatchException);
+                assertEquals("Execute expression error", e.getMessage());
+            }
+        }
+    }
+
+
+    @Test
+    public void testNotNumber() {
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            try {
+                AviatorEvaluator.compile("s").executeLong(newEnv());
+                fail();
+            }
+            catch (ExpressionRuntimeException e) {
+                assertEquals("Result hello is not a number", e.getMessage());
+            }
+            try {
+                AviatorEvaluator.compile("x").executeDouble(newEnv());
+                fail();
+            }
+            catch (ExpressionRuntimeException e) {
+                assertEquals("Result true is not a number", e.getMessage());
+            }
+        }
+    }
+
+
+    @Test
+    public void testObjectResult() throws Exception {
+        // AviatorObject results are converted by bridges of generated class
+        Expression exp = AviatorEvaluator.compile("math.abs(a - b)");
+        assertNotNull(exp.getClass().getDeclaredMethod("executeLong0", Env.class));
+        assertNotNull(exp.getClass().getDeclaredMethod("executeDouble0", Env.class));
+        assertEquals(1L, exp.executeLong(newEnv()));
+        assertEquals(1.0, exp.executeDouble(newEnv()), 0.0);
+        Map<String, Object> env = newEnv();
+        env.put("n", 7);
+        assertEquals(7L, AviatorEvaluator.compile("x ? n : s").executeLong(env));
+        try {
+            AviatorEvaluator.compile("y ? n : s").executeDouble(env);
+            fail();
+        }
+        catch (ExpressionRuntimeException e) {
+            assertEquals("Result hello is not a number", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.googlecode.aviator.lexer.token.OperatorType;
+
+
+public class RuleIndexUnitTest {
+
+    private boolean[] getCandidates(RuleIndex index, int ruleCount, String variable, Object value) {
+        index.build(ruleCount);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put(variable, value);
+        return index.getCandidates(env, new Object[ruleCount]);
+    }
+
+
+    private void assertCandidates(boolean[] expected, boolean[] candidates) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(candidates));
+    }
+
+
+    @Test
+    public void testEquality() {
+        RuleIndex index = new RuleIndex();
+        assertTrue(index.addEquality(0, "a", "hello"));
+        assertTrue(index.addEquality(1, "a", 3L));
+        assertTrue(index.addEquality(2, "a", 3.0));
+        assertTrue(index.addEquality(3, "a", Boolean.TRUE));
+        assertFalse(index.addEquality(4, "a", Double.NaN));
+        assertFalse(index.isIndexed(4));
+
+        assertCandidates(new boolean[] { true, true, true, true, true }, getCandidates(index, 5, "a", "hello"));
+        assertCandidates(new boolean[] { true, true, true, true, true }, getCandidates(index, 5, "a", 3));
+        assertCandidates(new boolean[] { true, false, false, true, true }, getCandidates(index, 5, "a", 3.5));
+        assertCandidates(new boolean[] { false, true, true, true, true }, getCandidates(index, 5, "a", "world"));
+        assertCandidates(new boolean[] { true, true, true, false, true }, getCandidates(index, 5, "a", false));
+        // unknown kinds are not excluded
+        assertCandidates(new boolean[] { true, true, true, true, true }, getCandidates(index, 5, "a", 'c'));
+        assertCandidates(new boolean[] { true, true, true, true, true }, getCandidates(index, 5, "b", "world"));
+    }
+
+
+    @Test
+    public void testRange() {
+        RuleIndex index = new RuleIndex();
+        index.addRange(0, "a", OperatorType.GT, 10);
+        index.addRange(1, "a", OperatorType.GE, 10);
+        index.addRange(2, "a", OperatorType.LT, 10);
+        index.addRange(3, "a", OperatorType.LE, 10.0);
+        index.addRange(4, "a", OperatorType.GT, 20);
+
+        assertCandidates(new boolean[] { false, false, true, true, false }, getCandidates(index, 5, "a", 9));
+        assertCandidates(new boolean[] { false, true, false, true, false }, getCandidates(index, 5, "a", 10));
+        assertCandidates(new boolean[] { true, true, false, false, false }, getCandidates(index, 5, "a", 10.5));
+        assertCandidates(new boolean[] { true, true, false, false, true }, getCandidates(index, 5, "a", 21L));
+    }
+
+
+    @Test
+    public void testResultsOfExcludedRules() {
+        RuleIndex index = new RuleIndex();
+        index.addEquality(1, "a", "hello");
+        index.build(2);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", "world");
+        Object[] results = new Object[2];
+        index.getCandidates(env, results);
+        assertArrayEquals(new Object[] { null, false }, results);
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.aviator.exception.CompileExpressionErrorException;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.runtime.type.AviatorBoolean;
+import com.googlecode.aviator.runtime.type.AviatorFunction;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+/**
+ * Rules in rule set must agree with the rules compiled one by one
+ * 
+ * @author dennis
+ * 
+ */
+public class RuleSetUnitTest {
+    private static final List<String> RULES =
+            Arrays.asList("type == 'order' && amount > 100", "amount * rate", "type == 'order' && amount < 10",
+                "amount * rate > 150", "region =~ /^(E)U$/ ? $1 : 'none'", "1 + 2", "amount > 100 || vip", "nil",
+                "amount * rate", "string.length(type) + amount");
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    private Map<String, Object> newEnv(String type, long amount, boolean vip) {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("type", type);
+        env.put("amount", amount);
+        env.put("rate", 1.5);
+        env.put("region", "EU");
+        env.put("vip", vip);
+        return env;
+    }
+
+
+    private void assertRuleSet(List<String> rules, Map<String, Object> env) {
+        final Object[] results = AviatorEvaluator.compileRuleSet(rules).execute(env);
+        assertEquals(rules.size(), results.length);
+        AviatorEvaluator.setOptimize(AviatorEvaluator.INTERPRET);
+        try {
+            for (int i = 0; i < results.length; i++) {
+                assertEquals(rules.get(i), AviatorEvaluator.compile(rules.get(i)).execute(env), results[i]);
+            }
+        }
+        finally {
+            AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        }
+    }
+
+
+    @Test
+    public void testExecute() {
+        assertRuleSet(RULES, newEnv("order", 120, false));
+        assertRuleSet(RULES, newEnv("order", 5, true));
+        assertRuleSet(RULES, newEnv("refund", 120, false));
+    }
+
+
+    @Test
+    public void testMatch() {
+        RuleSet ruleSet = AviatorEvaluator.compileRuleSet(RULES);
+        assertEquals(RULES.size(), ruleSet.size());
+        assertEquals(RULES, ruleSet.getExpressions());
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(3);
+        expected.set(6);
+        assertEquals(expected, ruleSet.match(newEnv("order", 120, false)));
+        expected.clear();
+        expected.set(2);
+        expected.set(6);
+        assertEquals(expected, ruleSet.match(newEnv("order", 5, true)));
+    }
+
+
+    @Test
+    public void testSameRules() {
+        assertRuleSet(Arrays.asList("amount + rate", "amount + rate", "vip && amount > 1", "vip && amount > 1"),
+            newEnv("order", 3, true));
+    }
+
+
+    @Test
+    public void testManyRules() {
+        // compiled into several methods
+        List<String> rules = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            rules.add("type == 'order' && amount > " + i + " && amount * rate < " + (i * 3));
+        }
+        Map<String, Object> env = newEnv("order", 600, false);
+        BitSet matched = AviatorEvaluator.compileRuleSet(rules).match(env);
+        // 600 > i && 900 < i * 3
+        assertEquals(299, matched.cardinality());
+        assertEquals(301, matched.nextSetBit(0));
+        assertEquals(600, matched.nextClearBit(301));
+        assertRuleSet(rules.subList(295, 305), env);
+    }
+
+
+    @Test
+    public void testIndexedRules() {
+        List<String> rules =
+                Arrays.asList("type == 'order'", "amount >= 100 && type == 'order'", "amount > 100 && vip",
+                    "100 > amount && vip == true", "amount <= 100.5 && 'refund' == type", "amount == 100",
+                    "vip == false && amount * rate > 100", "amount < 100 || type == 'order'");
+        for (long amount = 99; amount <= 101; amount++) {
+            assertRuleSet(rules, newEnv("order", amount, true));
+            assertRuleSet(rules, newEnv("refund", amount, false));
+        }
+        Map<String, Object> env = newEnv("order", 100, true);
+        env.put("amount", 100.0);
+        assertRuleSet(rules, env);
+        env.put("amount", 100);
+        assertRuleSet(rules, env);
+        env.put("amount", 100.5f);
+        assertRuleSet(rules, env);
+        env.remove("type");
+        assertRuleSet(rules, env);
+    }
+
+
+    private static class CountFunction implements AviatorFunction {
+        int count;
+
+
+        public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
+            this.count++;
+            return AviatorBoolean.TRUE;
+        }
+
+
+        public String getName() {
+            return "count_test";
+        }
+    }
+
+
+    @Test
+    public void testSkipIndexedRules() {
+        CountFunction function = new CountFunction();
+        AviatorEvaluator.addFunction(function);
+        try {
+            RuleSet ruleSet =
+                    AviatorEvaluator.compileRuleSet(Arrays.asList("type == 'order' && count_test()",
+                        "count_test() && type == 'order'", "amount > 100 && count_test()"));
+            assertArrayEquals(new Object[] { false, false, false }, ruleSet.execute(newEnv("refund", 100, true)));
+            // calls before the first conjunct can't be indexed are not skipped
+            assertEquals(1, function.count);
+            assertArrayEquals(new Object[] { true, true, true }, ruleSet.execute(newEnv("order", 101, true)));
+            assertEquals(4, function.count);
+        }
+        finally {
+            AviatorEvaluator.removeFunction("count_test");
+        }
+    }
+
+
+    @Test(expected = ExpressionRuntimeException.class)
+    public void testRuleError() {
+        AviatorEvaluator.compileRuleSet(Arrays.asList("amount > 1", "type > amount")).execute(
+            newEnv("order", 3, true));
+    }
+
+
+    @Test(expected = CompileExpressionErrorException.class)
+    public void testEmptyRuleSet() {
+        AviatorEvaluator.compileRuleSet(Collections.<String> emptyList());
+    }
+
+
+    @Test(expected = CompileExpressionErrorException.class)
+    public void testBlankRule() {
+        AviatorEvaluator.compileRuleSet(Arrays.asList("amount > 1", " "));
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.aviator.asm.Opcodes;
+import com.googlecode.aviator.code.interpreter.InterpretExpression;
+
+
+public class TieredExpressionUnitTest {
+
+    @Before
+    public void setUp() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.TIERED);
+        AviatorEvaluator.setTieredThreshold(10);
+    }
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        AviatorEvaluator.setTieredThreshold(1000);
+        AviatorEvaluator.setBYTECODE_VER(Opcodes.V1_5);
+    }
+
+
+    @Test
+    public void testPromoteAfterThreshold() {
+        // compile in the calling thread
+        AviatorEvaluator.setTieredExecutor(new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        TieredExpression exp = (TieredExpression) AviatorEvaluator.compile("a + b * 2");
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 1);
+        env.put("b", 2);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(5L, exp.execute(env));
+            assertFalse(exp.isPromoted());
+            assertTrue(exp.getDelegate() instanceof InterpretExpression);
+        }
+        assertEquals(5L, exp.execute(env));
+        assertTrue(exp.isPromoted());
+        assertTrue(exp.getDelegate() instanceof ClassExpression);
+        assertEquals(5L, exp.execute(env));
+    }
+
+
+    @Test
+    public void testPromoteInBackground() throws Exception {
+        AviatorEvaluator.setTieredExecutor(new Executor() {
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        });
+        TieredExpression exp = (TieredExpression) AviatorEvaluator.compile("a > 1 ? 'big' : 'small'", true);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 3);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!exp.isPromoted() && System.currentTimeMillis() < deadline) {
+            assertEquals("big", exp.execute(env));
+            Thread.sleep(1);
+        }
+        assertTrue(exp.isPromoted());
+        assertEquals("big", exp.execute(env));
+        // cached expression is promoted in place
+        assertSame(exp, AviatorEvaluator.compile("a > 1 ? 'big' : 'small'", true));
+        AviatorEvaluator.invalidateCache("a > 1 ? 'big' : 'small'");
+    }
+
+
+    @Test
+    public void testPromotionFailed() {
+        final AtomicInteger submitted = new AtomicInteger();
+        AviatorEvaluator.setTieredExecutor(new Executor() {
+            public void execute(Runnable command) {
+                submitted.incrementAndGet();
+                // classes of an unsupported version can't be defined,the
+                // version is a part of the shape,so no generated class is
+                // shared
+                AviatorEvaluator.setBYTECODE_VER(0xffff);
+                try {
+                    command.run();
+                }
+                finally {
+                    AviatorEvaluator.setBYTECODE_VER(Opcodes.V1_5);
+                }
+            }
+        });
+        TieredExpression exp = (TieredExpression) AviatorEvaluator.compile("b * 3 + a % 5 - a");
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 1);
+        env.put("b", 2);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(6L, exp.execute(env));
+        }
+        assertFalse(exp.isPromoted());
+        assertTrue(exp.isInterpretedOnly());
+        assertEquals(1, submitted.get());
+        // stop counting once promotion failed
+        assertEquals(10, exp.getExecuteCount());
+    }
+
+
+    @Test
+    public void testPromotionRejected() {
+        AviatorEvaluator.setTieredExecutor(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        TieredExpression exp = (TieredExpression) AviatorEvaluator.compile("a * 2");
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 2);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(4L, exp.execute(env));
+        }
+        assertTrue(exp.isInterpretedOnly());
+        assertEquals(10, exp.getExecuteCount());
+    }
+
+
+    @Test
+    public void testLiteralNotTiered() {
+        assertEquals("hello", AviatorEvaluator.compile("'hello'").execute());
+        assertTrue(AviatorEvaluator.compile("'hello'") instanceof LiteralExpression);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        AviatorEvaluator.setTieredThreshold(0);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Expressions compiled with declared variable types must have the same
+ * results as untyped ones
+ * 
+ * @author dennis
+ * 
+ */
+public class TypedExpressionUnitTest {
+    private static final String[] NAMES = { "a", "b", "c", "d", "x", "y", "s" };
+    private static final Class<?>[] TYPES =
+            { long.class, Long.class, double.class, Double.class, boolean.class, Boolean.class, String.class };
+
+    private static final String[] EXPRESSIONS =
+            { "a + b * c - d / 2", "a * b - 3", "a / 3 + b % 4", "c % 2.5 + d", "-a + b", "-c * 2", "a > b",
+             "a >= 2.5", "c < d", "c <= 3", "a == b", "a != 2", "c == d", "c != d", "d == d", "x && y", "x || !y",
+             "!x", "a > 1 && x ? a * 2 : b", "a > 1 ? a : 2", "a > 1 ? a : 2.5", "x ? c : d",
+             "string.length(s) + a", "math.abs(a - b) + c", "a * 1.5 > b", "s == 'hello' && a > b",
+             "s + a + c", "(a + 1) * (b - 1) / (c + 1.5)", "a > b ? x : y", "x == y", "1 + 2 * a" };
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    private void assertSameResults(int optimize) {
+        AviatorEvaluator.setOptimize(optimize);
+        Random random = new Random(7);
+        for (String expression : EXPRESSIONS) {
+            IndexedExpression typed = AviatorEvaluator.compile(expression, NAMES, TYPES);
+            Expression untyped = AviatorEvaluator.compile(expression);
+            for (int i = 0; i < 50; i++) {
+                Object[] values =
+                        { (long) random.nextInt(10) - 5, (long) random.nextInt(10) + 1, random.nextDouble() * 10 - 5,
+                         i == 0 ? Double.NaN : random.nextInt(10) / 2.0, random.nextBoolean(), random.nextBoolean(),
+                         random.nextBoolean() ? "hello" : "world" };
+                Map<String, Object> env = new HashMap<String, Object>();
+                for (int j = 0; j < NAMES.length; j++) {
+                    env.put(NAMES[j], values[j]);
+                }
+                assertEquals(expression + " with " + env, untyped.execute(env), typed.execute(values));
+                assertEquals(expression + " with " + env, untyped.execute(env), typed.execute(env));
+            }
+        }
+    }
+
+
+    @Test
+    public void testCompile() {
+        assertSameResults(AviatorEvaluator.COMPILE);
+    }
+
+
+    @Test
+    public void testEval() {
+        assertSameResults(AviatorEvaluator.EVAL);
+    }
+
+
+    @Test
+    public void testInterpret() {
+        assertSameResults(AviatorEvaluator.INTERPRET);
+    }
+
+
+    @Test
+    public void testIntegerValues() {
+        IndexedExpression exp =
+                AviatorEvaluator.compile("a * b + c", new String[] { "a", "b", "c" }, new Class<?>[] { int.class,
+                                                                                                      long.class,
+                                                                                                      double.class });
+        assertEquals(7.5, exp.execute(new Object[] { 2, 3L, 1.5f }));
+        assertEquals(6L, AviatorEvaluator.compile("a * b", new String[] { "a", "b" },
+            new Class<?>[] { int.class, long.class }).execute(new Object[] { 2, 3 }));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypesLengthMismatch() {
+        AviatorEvaluator.compile("a + b", new String[] { "a", "b" }, new Class<?>[] { long.class });
+    }
+}
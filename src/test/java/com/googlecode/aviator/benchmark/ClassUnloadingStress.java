@@ -0,0 +1,60 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.cache.ExpressionCache;
+
+
+/**
+ * Compile a large number of distinct expressions through a bounded cache
+ * under a capped metaspace,it fails with OutOfMemoryError if generated classes
+ * could not be unloaded:
+ * 
+ * <pre>
+ * java -XX:MaxMetaspaceSize=32m -cp ... com.googlecode.aviator.benchmark.ClassUnloadingStress 1000000
+ * </pre>
+ * 
+ * @author dennis
+ * 
+ */
+public class ClassUnloadingStress {
+    public static void main(String[] args) {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        AviatorEvaluator.setExpressionCache(new ExpressionCache(1000));
+        Map<String, Object> env = new HashMap<String, Object>();
+        long sum = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            // distinct variable names,expressions differing only in literals
+            // share one class
+            final String name = "a" + i;
+            env.clear();
+            env.put(name, i);
+            sum += ((Number) AviatorEvaluator.execute(name + " + 1", env, true)).longValue();
+            if (i % 100000 == 0) {
+                System.out.println(i + " expressions compiled," + AviatorEvaluator.getExpressionCache().stats());
+            }
+        }
+        System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms,sum=" + sum);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.Expression;
+
+
+/**
+ * Compare compiling and executing distinct one-shot expressions with the
+ * class generating backends and the interpreter backend:
+ * 
+ * <pre>
+ * java -server -cp ... com.googlecode.aviator.benchmark.CompileBenchmark
+ * </pre>
+ * 
+ * @author dennis
+ * 
+ */
+public class CompileBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int TIMES = 20000;
+
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 3);
+        env.put("b", 50);
+
+        int[] options = { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET };
+        String[] names = { "COMPILE", "EVAL", "INTERPRET" };
+        for (int i = 0; i < ROUNDS; i++) {
+            StringBuilder sb = new StringBuilder("round " + i + ":");
+            for (int j = 0; j < options.length; j++) {
+                AviatorEvaluator.setOptimize(options[j]);
+                long start = System.nanoTime();
+                runOnce(env, i * TIMES, TIMES);
+                long cost = System.nanoTime() - start;
+                sb.append(" ").append(names[j]).append(" ").append(cost / TIMES).append(" ns/op");
+            }
+            System.out.println(sb);
+        }
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    private static long runOnce(Map<String, Object> env, int from, int times) {
+        long sum = 0;
+        for (int i = from; i < from + times; i++) {
+            // distinct expression each time,compiled without caching
+            Expression exp = AviatorEvaluator.compile("a > 1 && b < 100 ? a + b + " + i + " : a - b");
+            sum += ((Number) exp.execute(env)).longValue();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.BaseExpression;
+import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.utils.Env;
+
+
+/**
+ * Compare executing generated code by a direct virtual call with executing it
+ * by reflection(the old ClassExpression path).Run it with a warmed up JVM:
+ * 
+ * <pre>
+ * java -server -cp ... com.googlecode.aviator.benchmark.ExecuteBenchmark
+ * </pre>
+ * 
+ * @author dennis
+ * 
+ */
+public class ExecuteBenchmark {
+    private static final int WARMUP = 1000000;
+    private static final int ROUNDS = 5;
+    private static final int TIMES = 5000000;
+
+
+    public static void main(String[] args) throws Exception {
+        Expression exp = AviatorEvaluator.compile("a > 1 && b < 100 ? a + b : a - b");
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 3);
+        env.put("b", 50);
+
+        Method execute0 = BaseExpression.class.getDeclaredMethod("execute0", Env.class);
+        execute0.setAccessible(true);
+
+        // warm up
+        runDirect(exp, env, WARMUP);
+        runReflect(exp, execute0, env, WARMUP);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            runDirect(exp, env, TIMES);
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            runReflect(exp, execute0, env, TIMES);
+            long reflect = System.nanoTime() - start;
+
+            System.out.println("round " + i + ": direct " + direct / TIMES + " ns/op,reflect " + reflect / TIMES
+                    + " ns/op");
+        }
+    }
+
+
+    private static long runDirect(Expression exp, Map<String, Object> env, int times) {
+        long sum = 0;
+        for (int i = 0; i < times; i++) {
+            sum += ((Number) exp.execute(env)).longValue();
+        }
+        return sum;
+    }
+
+
+    private static long runReflect(Expression exp, Method execute0, Map<String, Object> env, int times)
+            throws Exception {
+        long sum = 0;
+        for (int i = 0; i < times; i++) {
+            Env runEnv = new Env(env, AviatorEvaluator.FUNC_MAP);
+            sum += ((Number) execute0.invoke(exp, runEnv)).longValue();
+        }
+        return sum;
+    }
+}
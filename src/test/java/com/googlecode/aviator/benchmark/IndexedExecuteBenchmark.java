@@ -0,0 +1,95 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.IndexedExpression;
+
+
+/**
+ * Compare executing with a HashMap built per record,executing with an
+ * Object[] against a variable schema,and executing with declared variable
+ * types:
+ * 
+ * <pre>
+ * java -server -cp ... com.googlecode.aviator.benchmark.IndexedExecuteBenchmark
+ * </pre>
+ * 
+ * @author dennis
+ * 
+ */
+public class IndexedExecuteBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int TIMES = 5000000;
+
+
+    public static void main(String[] args) throws Exception {
+        IndexedExpression exp =
+                AviatorEvaluator.compile("a > 1 && b < 100 ? a + b : a - b", new String[] { "a", "b" });
+        IndexedExpression typedExp =
+                AviatorEvaluator.compile("a > 1 && b < 100 ? a + b : a - b", new String[] { "a", "b" },
+                    new Class<?>[] { long.class, long.class });
+
+        // warm up
+        runMap(exp, TIMES / 5);
+        runIndexed(exp, TIMES / 5);
+        runIndexed(typedExp, TIMES / 5);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            runMap(exp, TIMES);
+            long map = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            runIndexed(exp, TIMES);
+            long indexed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            runIndexed(typedExp, TIMES);
+            long typed = System.nanoTime() - start;
+
+            System.out.println("round " + i + ": map " + map / TIMES + " ns/op,indexed " + indexed / TIMES
+                    + " ns/op,typed " + typed / TIMES + " ns/op");
+        }
+    }
+
+
+    private static long runMap(IndexedExpression exp, int times) {
+        long sum = 0;
+        for (int i = 0; i < times; i++) {
+            Map<String, Object> env = new HashMap<String, Object>();
+            env.put("a", i);
+            env.put("b", 50);
+            sum += ((Number) exp.execute(env)).longValue();
+        }
+        return sum;
+    }
+
+
+    private static long runIndexed(IndexedExpression exp, int times) {
+        long sum = 0;
+        for (int i = 0; i < times; i++) {
+            sum += ((Number) exp.execute(new Object[] { i, 50 })).longValue();
+        }
+        return sum;
+    }
+}
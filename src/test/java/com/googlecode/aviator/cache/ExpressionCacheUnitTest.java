@@ -0,0 +1,210 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.LiteralExpression;
+
+
+public class ExpressionCacheUnitTest {
+
+    private static Callable<Expression> loader(final Object result) {
+        return new Callable<Expression>() {
+            public Expression call() throws Exception {
+                return new LiteralExpression(result);
+            }
+        };
+    }
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.setExpressionCache(new ExpressionCache());
+    }
+
+
+    @Test
+    public void testUnbounded() throws Exception {
+        ExpressionCache cache = new ExpressionCache();
+        Expression exp1 = cache.get("a", loader(1));
+        Expression exp2 = cache.get("a", loader(2));
+        assertSame(exp1, exp2);
+        assertEquals(1, exp2.execute());
+        for (int i = 0; i < 100; i++) {
+            cache.get("key" + i, loader(i));
+        }
+        assertEquals(101, cache.size());
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(101, stats.getMissCount());
+        assertEquals(101, stats.getLoadSuccessCount());
+        assertEquals(0, stats.getEvictionCount());
+        assertTrue(stats.getTotalLoadTime() > 0);
+    }
+
+
+    @Test
+    public void testLRUEviction() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2);
+        cache.get("a", loader(1));
+        cache.get("b", loader(2));
+        // touch a
+        cache.get("a", loader(1));
+        cache.get("c", loader(3));
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1, cache.stats().getEvictionCount());
+    }
+
+
+    @Test
+    public void testWeightBound() throws Exception {
+        ExpressionCache cache =
+                new ExpressionCache(ExpressionCache.UNBOUNDED, 10, new ExpressionWeigher() {
+                    public int weigh(String expression, Expression compiledExpression) {
+                        return expression.length();
+                    }
+                }, new LRUEvictionPolicy(), false);
+        cache.get("aaaa", loader(1));
+        cache.get("bbbb", loader(2));
+        assertEquals(8, cache.getTotalWeight());
+        cache.get("cccc", loader(3));
+        assertEquals(8, cache.getTotalWeight());
+        assertFalse(cache.contains("aaaa"));
+        assertEquals(2, cache.size());
+    }
+
+
+    @Test
+    public void testTinyLFUAdmission() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2, new TinyLFUEvictionPolicy(2));
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot1", loader(1));
+            cache.get("hot2", loader(2));
+        }
+        // one-off expressions could not flush the hot ones
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, cache.get("cold" + i, loader(i)).execute());
+        }
+        assertTrue(cache.contains("hot1"));
+        assertTrue(cache.contains("hot2"));
+        assertEquals(2, cache.size());
+    }
+
+
+    @Test
+    public void testConcurrentHits() throws Exception {
+        final AtomicInteger recorded = new AtomicInteger();
+        final ExpressionCache cache = new ExpressionCache(10, new LRUEvictionPolicy() {
+            @Override
+            public void recordAccess(String key) {
+                recorded.incrementAndGet();
+                super.recordAccess(key);
+            }
+        });
+        final int threads = 8;
+        final int requests = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < requests; j++) {
+                            cache.get("key" + j % 5, loader(j % 5));
+                        }
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        CacheStats stats = cache.stats();
+        assertEquals(threads * requests, stats.getHitCount() + stats.getMissCount());
+        assertEquals(5, stats.getLoadSuccessCount());
+        // accesses are buffered,and dropped if buffers are full
+        assertTrue(recorded.get() > 0);
+        assertTrue(recorded.get() <= threads * requests);
+        assertEquals(5, cache.size());
+    }
+
+
+    @Test
+    public void testLoadFailure() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10);
+        try {
+            cache.get("bad", new Callable<Expression>() {
+                public Expression call() throws Exception {
+                    throw new IllegalStateException("bad");
+                }
+            });
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(cache.contains("bad"));
+        assertEquals(1, cache.stats().getLoadFailureCount());
+        assertEquals(1, cache.get("bad", loader(1)).execute());
+    }
+
+
+    @Test
+    public void testInvalidateAndClear() throws Exception {
+        ExpressionCache cache = new ExpressionCache(10, ExpressionCache.UNBOUNDED, null, new LRUEvictionPolicy(), true);
+        Expression exp = cache.get("a", loader(1));
+        assertSame(exp, cache.get("a", loader(1)));
+        cache.invalidate("a");
+        assertFalse(cache.contains("a"));
+        assertNotSame(exp, cache.get("a", loader(1)));
+        cache.get("b", loader(1));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalWeight());
+    }
+
+
+    @Test
+    public void testEvaluatorWithBoundedCache() {
+        AviatorEvaluator.setExpressionCache(new ExpressionCache(1));
+        Expression exp1 = AviatorEvaluator.compile("1+3+a", true);
+        assertSame(exp1, AviatorEvaluator.compile("1+3+a", true));
+        AviatorEvaluator.compile("2+3+a", true);
+        assertNotSame(exp1, AviatorEvaluator.compile("1+3+a", true));
+        assertEquals(2, AviatorEvaluator.getExpressionCache().stats().getEvictionCount());
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.asm.Opcodes;
+import com.googlecode.aviator.ClassExpression;
+import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.IndexedExpression;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.runtime.function.AbstractFunction;
+import com.googlecode.aviator.runtime.function.FunctionUtils;
+import com.googlecode.aviator.runtime.function.PureFunction;
+import com.googlecode.aviator.runtime.type.AviatorLong;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+
+
+public class OptimizeCodeGeneratorUnitTest {
+
+    private static class CountFunction extends AbstractFunction {
+        private final String name;
+        int count;
+
+
+        public CountFunction(String name) {
+            this.name = name;
+        }
+
+
+        @Override
+        public AviatorObject call(Map<String, Object> env, AviatorObject arg1) {
+            this.count++;
+            return AviatorLong.valueOf(FunctionUtils.getNumberValue(arg1, env).longValue() * 2);
+        }
+
+
+        public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
+            return call(env, args[0]);
+        }
+
+
+        public String getName() {
+            return this.name;
+        }
+    }
+
+    private static class PureCountFunction extends CountFunction implements PureFunction {
+        public PureCountFunction(String name) {
+            super(name);
+        }
+    }
+
+    private final CountFunction pure = new PureCountFunction("pure_double");
+    private final CountFunction impure = new CountFunction("impure_double");
+
+
+    @Before
+    public void setUp() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        AviatorEvaluator.addFunction(this.pure);
+        AviatorEvaluator.addFunction(this.impure);
+    }
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.removeFunction(this.pure.getName());
+        AviatorEvaluator.removeFunction(this.impure.getName());
+    }
+
+
+    private Map<String, Object> newEnv(long a, long b) {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", a);
+        env.put("b", b);
+        env.put("s", "hello");
+        return env;
+    }
+
+
+    @Test
+    public void testCommonSubexpression() {
+        Expression exp = AviatorEvaluator.compile("(a * b) > 100 && (a * b) < 1000 ? a * b : -(a * b)");
+        assertEquals(300L, exp.execute(newEnv(10, 30)));
+        assertEquals(-20L, exp.execute(newEnv(10, 2)));
+        assertEquals(-2000L, exp.execute(newEnv(100, 20)));
+        assertEquals(Boolean.TRUE, AviatorEvaluator.execute(
+            "string.length(s) > 3 && string.length(s) < 10 && string.length(s) + 1 == 6", newEnv(0, 0)));
+    }
+
+
+    @Test
+    public void testPureFunctionCalledOnce() {
+        Expression exp = AviatorEvaluator.compile("pure_double(a) > 10 && pure_double(a) < 100");
+        assertEquals(Boolean.TRUE, exp.execute(newEnv(10, 0)));
+        assertEquals(1, this.pure.count);
+        assertEquals(Boolean.FALSE, exp.execute(newEnv(1, 0)));
+        assertEquals(2, this.pure.count);
+    }
+
+
+    @Test
+    public void testLazyCommonSubexpression() {
+        // the first occurrence may be skipped
+        Expression exp = AviatorEvaluator.compile("a > 1 && pure_double(b) > 10 || pure_double(b) < 0");
+        assertEquals(Boolean.FALSE, exp.execute(newEnv(0, 3)));
+        assertEquals(1, this.pure.count);
+        assertEquals(Boolean.TRUE, exp.execute(newEnv(2, 6)));
+        assertEquals(2, this.pure.count);
+        assertEquals(Boolean.FALSE, exp.execute(newEnv(2, 1)));
+        assertEquals(3, this.pure.count);
+        assertEquals(Boolean.TRUE, exp.execute(newEnv(0, -1)));
+        assertEquals(4, this.pure.count);
+    }
+
+
+    @Test
+    public void testImpureFunctionNotMerged() {
+        Expression exp = AviatorEvaluator.compile("impure_double(a) > 10 && impure_double(a) < 100");
+        assertEquals(Boolean.TRUE, exp.execute(newEnv(10, 0)));
+        assertEquals(2, this.impure.count);
+    }
+
+
+    @Test
+    public void testRegularExpressionGroupsNotMerged() {
+        Map<String, Object> env = newEnv(0, 0);
+        env.put("t", "world");
+        assertEquals(Boolean.TRUE, AviatorEvaluator.execute(
+            "s =~ /(h)ello/ && $1 + 'x' == 'hx' && t =~ /(w)orld/ && $1 + 'x' == 'wx'", env));
+    }
+
+
+    @Test
+    public void testSimplify() {
+        String[] expressions =
+                { "(a - b) * 1", "1 * (a * b)", "(a % 3) / 1", "(a - b) + 0", "0 + -a", "(a * b) - 0", "true && a > b",
+                 "a > b && true", "false || a == b", "a != b || false", "false && a > b", "true || a > b",
+                 "true ? a : b", "false ? a : b", "!!(a > b)", "-(-(a - b))", "!!!(a < b)", "s + 0", "0 + s",
+                 "a * 1", "1 + a", "!!s", "true && s", "a * 1.0", "(a - b) / 1.0", "true ? false ? 1 : 2 : 3" };
+        for (String expression : expressions) {
+            for (long a = -2; a <= 2; a++) {
+                Map<String, Object> env = newEnv(a, 1);
+                env.put("s", a > 0);
+                if (a == 2) {
+                    env.put("s", "hello");
+                }
+                Object expected;
+                try {
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.INTERPRET);
+                    expected = AviatorEvaluator.compile(expression).execute(env);
+                }
+                catch (Exception e) {
+                    expected = e.getClass();
+                }
+                finally {
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+                }
+                Object result;
+                try {
+                    result = AviatorEvaluator.compile(expression).execute(env);
+                }
+                catch (Exception e) {
+                    result = e.getClass();
+                }
+                assertEquals(expression + " with " + env, expected, result);
+            }
+        }
+    }
+
+
+    @Test
+    public void testSimplifyShortCircuit() {
+        assertEquals(Boolean.FALSE, AviatorEvaluator.execute("false && impure_double(a) > 1", newEnv(1, 1)));
+        assertEquals(Boolean.TRUE, AviatorEvaluator.execute("true || impure_double(a) > 1", newEnv(1, 1)));
+        assertEquals(0L, AviatorEvaluator.execute("false ? impure_double(a) : 0", newEnv(1, 1)));
+        assertEquals(0, this.impure.count);
+    }
+
+
+    @Test
+    public void testRangeCheck() {
+        String[] names = { "a", "c", "o" };
+        Class<?>[] types = { long.class, double.class, null };
+        String[] expressions =
+                { "a > 1 && a < 10", "1 <= a && 10 >= a", "a < 10 && a >= 1", "c > 1.5 && c <= 2", "2 > c && c > 1",
+                 "o > 1 && o < 10", "a > 1 && c < 10" };
+        for (String expression : expressions) {
+            IndexedExpression exp = AviatorEvaluator.compile(expression, names, types);
+            for (int i = -1; i <= 12; i++) {
+                Object[] values = { (long) i, i / 4.0 + 1, (long) i };
+                Map<String, Object> env = new HashMap<String, Object>();
+                env.put("a", values[0]);
+                env.put("c", values[1]);
+                env.put("o", values[2]);
+                AviatorEvaluator.setOptimize(AviatorEvaluator.INTERPRET);
+                try {
+                    assertEquals(expression + " with " + env, AviatorEvaluator.compile(expression).execute(env),
+                        exp.execute(values));
+                }
+                finally {
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testFoldPureFunction() {
+        Expression exp = AviatorEvaluator.compile("pure_double(21) + a");
+        assertEquals(1, this.pure.count);
+        assertEquals(43L, exp.execute(newEnv(1, 0)));
+        assertEquals(44L, exp.execute(newEnv(2, 0)));
+        assertEquals(1, this.pure.count);
+        assertEquals(3.0, AviatorEvaluator.execute("math.abs(math.sqrt(4) - 5)"));
+        assertEquals(6L, AviatorEvaluator.execute("string.length(string.substring('hello world', 5)) + a", newEnv(0,
+            0)));
+        assertEquals(Boolean.TRUE, AviatorEvaluator.execute("string.startsWith('hello', 'he') && a > 0", newEnv(1, 0)));
+    }
+
+
+    @Test
+    public void testFunctionNotShadowed() {
+        // a variable with the function's name doesn't change folded calls
+        CountFunction shadow = new CountFunction("pure_double");
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            Map<String, Object> env = newEnv(1, 0);
+            env.put("pure_double", shadow);
+            assertEquals(43L, AviatorEvaluator.compile("pure_double(21) + a").execute(env));
+            assertEquals(3L, AviatorEvaluator.compile("pure_double(a) + a").execute(env));
+        }
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        assertEquals(0, shadow.count);
+    }
+
+
+    @Test
+    public void testNotFoldImpureFunction() {
+        Expression exp = AviatorEvaluator.compile("impure_double(21) + a");
+        assertEquals(0, this.impure.count);
+        assertEquals(43L, exp.execute(newEnv(1, 0)));
+        assertEquals(1, this.impure.count);
+    }
+
+
+    @Test
+    public void testFoldFunctionError() {
+        // errors are thrown at runtime
+        Expression exp = AviatorEvaluator.compile("math.sqrt('x') + a");
+        try {
+            exp.execute(newEnv(1, 0));
+            fail();
+        }
+        catch (ExpressionRuntimeException e) {
+            // expected
+        }
+    }
+
+
+    private Class<?> getJavaClass(Expression exp) {
+        return ((ClassExpression) exp).getJavaClass();
+    }
+
+
+    @Test
+    public void testShareClassByShape() {
+        Expression exp1 = AviatorEvaluator.compile("a > 1 && b < 10 && s > 'abc'");
+        Expression exp2 = AviatorEvaluator.compile("a > 2 && b < 20 && s > 'hallo'");
+        assertSame(getJavaClass(exp1), getJavaClass(exp2));
+        assertEquals(Boolean.TRUE, exp1.execute(newEnv(2, 5)));
+        assertEquals(Boolean.FALSE, exp2.execute(newEnv(2, 5)));
+        assertEquals(Boolean.FALSE, exp1.execute(newEnv(1, 5)));
+        assertEquals(Boolean.TRUE, exp2.execute(newEnv(3, 15)));
+
+        Expression exp3 = AviatorEvaluator.compile("s =~ /^h.*/ ? a * 2 : b");
+        Expression exp4 = AviatorEvaluator.compile("s =~ /^w.*/ ? a * 3 : b");
+        assertSame(getJavaClass(exp3), getJavaClass(exp4));
+        assertEquals(6L, exp3.execute(newEnv(3, 4)));
+        assertEquals(4L, exp4.execute(newEnv(3, 4)));
+    }
+
+
+    @Test
+    public void testNotShareClassWithOtherSettings() {
+        Expression exp1 = AviatorEvaluator.compile("a * 7 - b % 3 > 1");
+        Expression exp2;
+        try {
+            AviatorEvaluator.setBYTECODE_VER(Opcodes.V1_6);
+            exp2 = AviatorEvaluator.compile("a * 8 - b % 3 > 1");
+        }
+        finally {
+            AviatorEvaluator.setBYTECODE_VER(Opcodes.V1_5);
+        }
+        assertNotSame(getJavaClass(exp1), getJavaClass(exp2));
+        assertEquals(Boolean.TRUE, exp2.execute(newEnv(1, 5)));
+        Expression exp3 = AviatorEvaluator.compile("a * 9 - b % 3 > 1");
+        assertSame(getJavaClass(exp1), getJavaClass(exp3));
+    }
+
+
+    @Test
+    public void testShareClassWithTypedVariables() {
+        String[] names = { "a", "c" };
+        Class<?>[] types = { long.class, double.class };
+        IndexedExpression exp1 = AviatorEvaluator.compile("a > 1 && c < 2.5 && a + c > 3", names, types);
+        IndexedExpression exp2 = AviatorEvaluator.compile("a > 5 && c < 1.5 && a + c > 1", names, types);
+        assertSame(getJavaClass(exp1.getExpression()), getJavaClass(exp2.getExpression()));
+        assertEquals(Boolean.TRUE, exp1.execute(new Object[] { 2L, 1.5 }));
+        assertEquals(Boolean.FALSE, exp2.execute(new Object[] { 2L, 1.0 }));
+        assertEquals(Boolean.TRUE, exp2.execute(new Object[] { 6L, 1.0 }));
+
+        // a different schema generates a different class
+        IndexedExpression exp3 = AviatorEvaluator.compile("a > 1 && c < 2.5 && a + c > 3", names);
+        assertNotSame(getJavaClass(exp1.getExpression()), getJavaClass(exp3.getExpression()));
+        assertEquals(Boolean.TRUE, exp3.execute(new Object[] { 2L, 1.5 }));
+    }
+
+
+    @Test
+    public void testNotShareClassOfDifferentShapes() {
+        // literal types
+        Expression exp = AviatorEvaluator.compile("a + 1");
+        assertNotSame(getJavaClass(exp), getJavaClass(AviatorEvaluator.compile("a + 1.0")));
+        assertNotSame(getJavaClass(exp), getJavaClass(AviatorEvaluator.compile("a + '1'")));
+        assertSame(getJavaClass(exp), getJavaClass(AviatorEvaluator.compile("a + 100")));
+        assertEquals(2.5, AviatorEvaluator.compile("a + 1.5").execute(newEnv(1, 0)));
+        assertEquals("11", AviatorEvaluator.compile("a + '1'").execute(newEnv(1, 0)));
+        // common subexpressions
+        Expression exp1 = AviatorEvaluator.compile("pure_double(a + 1) + pure_double(a + 1)");
+        Expression exp2 = AviatorEvaluator.compile("pure_double(a + 1) + pure_double(a + 2)");
+        assertNotSame(getJavaClass(exp1), getJavaClass(exp2));
+        assertEquals(8L, exp1.execute(newEnv(1, 0)));
+        assertEquals(10L, exp2.execute(newEnv(1, 0)));
+        // simplified
+        Expression exp3 = AviatorEvaluator.compile("(a - b) * 1");
+        Expression exp4 = AviatorEvaluator.compile("(a - b) * 2");
+        assertNotSame(getJavaClass(exp3), getJavaClass(exp4));
+        assertEquals(4L, exp4.execute(newEnv(3, 1)));
+    }
+}
@@ -20,7 +20,9 @@ package com.googlecode.aviator.code.asm;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Date;
@@ -30,6 +32,8 @@ import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.ClassExpression;
 import com.googlecode.aviator.Expression;
 import com.googlecode.aviator.lexer.token.NumberToken;
 import com.googlecode.aviator.lexer.token.OperatorType;
@@ -119,6 +123,28 @@ public class ASMCodeGeneratorUnitTest {
     }
 
 
+    @Test
+    public void testOnConstant_HoistedToStaticField() throws Exception {
+        this.codeGenerator.onConstant(new StringToken("hello", 0));
+        this.codeGenerator.onConstant(new PatternToken("[a-z_A-Z]+", 0));
+        this.codeGenerator.onMatch(null);
+        this.codeGenerator.onConstant(new StringToken("hello", 0));
+        this.codeGenerator.onConstant(new NumberToken(3L, "3"));
+        this.codeGenerator.onAdd(null);
+        this.codeGenerator.onAdd(null);
+        Expression exp = this.codeGenerator.getResult();
+        assertEquals("truehello3", exp.execute());
+        assertEquals("truehello3", exp.execute());
+        // same literals share one field
+        Field[] fields = ((ClassExpression) exp).getJavaClass().getDeclaredFields();
+        assertEquals(3, fields.length);
+        for (Field field : fields) {
+            assertTrue(Modifier.isStatic(field.getModifiers()));
+            assertTrue(Modifier.isFinal(field.getModifiers()));
+        }
+    }
+
+
     @Test
     public void testOnConstant_Variable() throws Exception {
         this.codeGenerator.onConstant(new Variable("a", 0));
@@ -413,4 +439,64 @@ public class ASMCodeGeneratorUnitTest {
         Object result = eval(new HashMap<String, Object>());
         assertEquals("llo", result);
     }
+
+
+    @Test
+    public void testReadVariableOnce() throws Exception {
+        final Map<String, Integer> reads = new HashMap<String, Integer>();
+        Map<String, Object> env = new HashMap<String, Object>() {
+            @Override
+            public Object get(Object key) {
+                Integer count = reads.get(key);
+                reads.put((String) key, count == null ? 1 : count + 1);
+                return super.get(key);
+            }
+        };
+        env.put("a", 10);
+        env.put("b", 3);
+        try {
+            AviatorEvaluator.setOptimize(AviatorEvaluator.COMPILE);
+            assertEquals(Boolean.TRUE, AviatorEvaluator.execute("a > 1 && a < 100 && a != 50 && a + b * a == 40",
+                env));
+            assertEquals(Integer.valueOf(1), reads.get("a"));
+            assertEquals(Integer.valueOf(1), reads.get("b"));
+            // regular expression groups are read again after every match
+            assertEquals(Boolean.TRUE, AviatorEvaluator
+                .execute("'ab' =~ /(a)b/ && $1 == 'a' && 'cd' =~ /(c)d/ && $1 == 'c'"));
+        }
+        finally {
+            AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        }
+    }
+
+
+    @Test
+    public void testNestedConditions() throws Exception {
+        String[] expressions =
+                { "a > 1 && b < 3 || !(c == 2)", "!(a > 1 && !(b < 3)) ? a : b", "!!(a >= b) || c != 2 && a < c",
+                 "(a > b ? b > c : c > a) && !(a == c)", "!(x && a > 1) || !(y || b <= c)", "x == !y && a != b",
+                 "d > 1 || !(d <= 1)", "!(d == d) ? 1 : 2" };
+        Object[] doubles = { 1.5, Double.NaN };
+        for (String expression : expressions) {
+            for (int i = 0; i < 64; i++) {
+                Map<String, Object> env = new HashMap<String, Object>();
+                env.put("a", i & 3);
+                env.put("b", (i >> 2) & 3);
+                env.put("c", (i >> 4) & 1);
+                env.put("d", doubles[(i >> 5) & 1]);
+                env.put("x", (i & 1) == 0);
+                env.put("y", (i & 2) == 0);
+                try {
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.INTERPRET);
+                    Object expected = AviatorEvaluator.compile(expression).execute(env);
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.COMPILE);
+                    assertEquals(expression + " with " + env, expected, AviatorEvaluator.compile(expression).execute(
+                        env));
+                }
+                finally {
+                    AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+                }
+            }
+        }
+    }
 }
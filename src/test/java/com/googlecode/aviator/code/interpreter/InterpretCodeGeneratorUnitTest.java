@@ -0,0 +1,119 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.code.interpreter;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.Expression;
+import com.googlecode.aviator.LiteralExpression;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.lexer.ExpressionLexer;
+import com.googlecode.aviator.lexer.token.NumberToken;
+import com.googlecode.aviator.lexer.token.Variable;
+import com.googlecode.aviator.parser.ExpressionParser;
+
+
+public class InterpretCodeGeneratorUnitTest {
+    private InterpretCodeGenerator codeGenerator;
+
+
+    @Before
+    public void setUp() {
+        this.codeGenerator = new InterpretCodeGenerator();
+    }
+
+
+    private Expression compile(String expression) {
+        return new ExpressionParser(new ExpressionLexer(expression), new InterpretCodeGenerator()).parse();
+    }
+
+
+    @Test
+    public void testOnConstant_Literal() {
+        this.codeGenerator.onConstant(new NumberToken(3L, "3"));
+        Expression exp = this.codeGenerator.getResult();
+        assertTrue(exp instanceof LiteralExpression);
+        assertEquals(3L, exp.execute());
+    }
+
+
+    @Test
+    public void testOnAdd() {
+        this.codeGenerator.onConstant(new Variable("a", 0));
+        this.codeGenerator.onConstant(new NumberToken(3L, "3"));
+        this.codeGenerator.onAdd(null);
+        Expression exp = this.codeGenerator.getResult();
+        assertTrue(exp instanceof InterpretExpression);
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 4);
+        assertEquals(7L, exp.execute(env));
+    }
+
+
+    @Test
+    public void testExecute() {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 5);
+        env.put("s", "hello");
+        env.put("list", new int[] { 1, 2, 3 });
+        assertEquals(true, compile("a > 3 && s =~ /h.*o/ && list[1] == 2").execute(env));
+        assertEquals("big", compile("a * 2 >= 10 ? 'big' : 'small'").execute(env));
+        assertEquals(5L, compile("string.length(s)").execute(env));
+    }
+
+
+    @Test
+    public void testShortCircuit() {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("a", 1);
+        // right side would fail if it were evaluated
+        assertEquals(false, compile("a > 1 && a/0 > 0").execute(env));
+        assertEquals(true, compile("a == 1 || a/0 > 0").execute(env));
+    }
+
+
+    @Test(expected = ExpressionRuntimeException.class)
+    public void testUnknownFunction() {
+        compile("not_exists(1)").execute();
+    }
+
+
+    @Test
+    public void testNoClassGenerated() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.INTERPRET);
+        try {
+            Expression exp = AviatorEvaluator.compile("a + b * 2");
+            assertTrue(exp instanceof InterpretExpression);
+            Map<String, Object> env = new HashMap<String, Object>();
+            env.put("a", 1);
+            env.put("b", 2.5);
+            assertEquals(6.0, exp.execute(env));
+        }
+        finally {
+            AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.googlecode.aviator.runtime.function;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+import com.googlecode.aviator.runtime.type.AviatorFunction;
+import com.googlecode.aviator.runtime.type.AviatorLong;
+import com.googlecode.aviator.runtime.type.AviatorObject;
+import com.googlecode.aviator.runtime.type.AviatorString;
+
+
+public class AbstractFunctionUnitTest {
+
+    /**
+     * Sums its arguments,records whether it was called with varargs
+     */
+    private static class SumFunction extends AbstractFunction {
+        boolean varargsCalled;
+
+
+        public String getName() {
+            return "test_sum";
+        }
+
+
+        @Override
+        public AviatorObject call(Map<String, Object> env, AviatorObject arg1, AviatorObject arg2) {
+            return arg1.add(arg2, env);
+        }
+
+
+        public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
+            varargsCalled = true;
+            AviatorObject result = AviatorLong.valueOf(0);
+            for (AviatorObject arg : args) {
+                result = result.add(arg, env);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A plain varargs function
+     */
+    private static class CountFunction implements AviatorFunction {
+        public String getName() {
+            return "test_count";
+        }
+
+
+        public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
+            return AviatorLong.valueOf(args.length);
+        }
+    }
+
+    private SumFunction sum;
+
+
+    @Before
+    public void setUp() {
+        sum = new SumFunction();
+        AviatorEvaluator.addFunction(sum);
+        AviatorEvaluator.addFunction(new CountFunction());
+    }
+
+
+    @After
+    public void tearDown() {
+        AviatorEvaluator.removeFunction("test_sum");
+        AviatorEvaluator.removeFunction("test_count");
+        AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+    }
+
+
+    @Test
+    public void testDefaultBridgeToVarargs() {
+        assertEquals(0L, sum.call(null).getValue(null));
+        assertTrue(sum.varargsCalled);
+        sum.varargsCalled = false;
+        assertEquals(3L, sum.call(null, AviatorLong.valueOf(1), AviatorLong.valueOf(2)).getValue(null));
+        assertFalse(sum.varargsCalled);
+        assertEquals(6L, sum.call(null, AviatorLong.valueOf(1), AviatorLong.valueOf(2), AviatorLong.valueOf(3))
+            .getValue(null));
+        assertTrue(sum.varargsCalled);
+        assertEquals("ab", sum.call(null, new AviatorString("a"), new AviatorString("b")).getValue(null));
+    }
+
+
+    @Test
+    public void testCallFromExpression() {
+        for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL, AviatorEvaluator.INTERPRET }) {
+            AviatorEvaluator.setOptimize(optimize);
+            sum.varargsCalled = false;
+            Map<String, Object> env = new HashMap<String, Object>();
+            env.put("a", 1);
+            assertEquals(3L, AviatorEvaluator.execute("test_sum(a,2)", env));
+            assertFalse(sum.varargsCalled);
+            assertEquals(15L, AviatorEvaluator.execute("test_sum(a,2,3,4,5)", env));
+            assertTrue(sum.varargsCalled);
+            assertEquals(10L, AviatorEvaluator.execute("test_sum(a,2,3,4)", env));
+
+            for (int i = 0; i <= 6; i++) {
+                StringBuilder expr = new StringBuilder("test_count(");
+                for (int j = 0; j < i; j++) {
+                    expr.append(j > 0 ? ",a" : "a");
+                }
+                expr.append(")");
+                assertEquals((long) i, AviatorEvaluator.execute(expr.toString(), env));
+            }
+            assertEquals(7L, AviatorEvaluator.execute("test_sum(math.abs(-a),string.length('hello'),1)", env));
+        }
+    }
+
+
+    @Test
+    public void testWrongArity() {
+        AviatorEvaluator.setOptimize(AviatorEvaluator.COMPILE);
+        try {
+            AviatorEvaluator.execute("math.abs(1,2)");
+            fail();
+        }
+        catch (ExpressionRuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+}
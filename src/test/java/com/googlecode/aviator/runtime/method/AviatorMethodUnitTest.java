@@ -4,14 +4,17 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
 
 import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.Expression;
 import com.googlecode.aviator.exception.ExpressionRuntimeException;
 import com.googlecode.aviator.runtime.type.AviatorBoolean;
 import com.googlecode.aviator.runtime.type.AviatorFunction;
+import com.googlecode.aviator.runtime.type.AviatorLong;
 import com.googlecode.aviator.runtime.type.AviatorNil;
 import com.googlecode.aviator.runtime.type.AviatorObject;
 import com.googlecode.aviator.runtime.type.AviatorString;
@@ -72,4 +75,85 @@ public class AviatorMethodUnitTest {
         AviatorEvaluator.removeFunction("mock_test");
     }
 
+
+
+    @Test
+    public void testInvokeFixedArity() {
+        AviatorMethod aviatorMethod = new AviatorMethod("string.contains");
+        AviatorObject result =
+                aviatorMethod.invoke(AviatorEvaluator.FUNC_MAP, new AviatorString("hello"), new AviatorString("hel"));
+        assertEquals(AviatorBoolean.TRUE, result);
+        aviatorMethod = new AviatorMethod("sysdate");
+        assertTrue(aviatorMethod.invoke(AviatorEvaluator.FUNC_MAP).getValue(null) instanceof Date);
+    }
+
+
+    @Test
+    public void testInvokeFixedArity_ReturnNull() {
+        AviatorMethod aviatorMethod = new AviatorMethod("mock_test");
+        AviatorEvaluator.addFunction(new MockFunction());
+        AviatorObject result = aviatorMethod.invoke(AviatorEvaluator.FUNC_MAP, new AviatorString("hello"));
+        assertEquals(AviatorNil.NIL, result);
+        AviatorEvaluator.removeFunction("mock_test");
+    }
+
+
+    private static class ConstantFunction implements AviatorFunction {
+        private final long value;
+
+
+        public ConstantFunction(long value) {
+            super();
+            this.value = value;
+        }
+
+
+        public AviatorObject call(Map<String, Object> env, AviatorObject... args) {
+            return AviatorLong.valueOf(this.value);
+        }
+
+
+        public String getName() {
+            return "constant_test";
+        }
+    }
+
+
+    @Test
+    public void testRelinkWhenFunctionReplaced() {
+        AviatorMethod aviatorMethod = new AviatorMethod("constant_test");
+        try {
+            AviatorEvaluator.addFunction(new ConstantFunction(1));
+            assertEquals(1L, aviatorMethod.invoke(AviatorEvaluator.FUNC_MAP).getValue(null));
+            Expression expression = AviatorEvaluator.compile("constant_test()");
+            assertEquals(1L, expression.execute());
+
+            AviatorEvaluator.addFunction(new ConstantFunction(2));
+            assertEquals(2L, aviatorMethod.invoke(AviatorEvaluator.FUNC_MAP).getValue(null));
+            assertEquals(2L, expression.execute());
+
+            AviatorEvaluator.removeFunction("constant_test");
+            try {
+                expression.execute();
+                fail();
+            }
+            catch (ExpressionRuntimeException e) {
+                // expected
+            }
+        }
+        finally {
+            AviatorEvaluator.removeFunction("constant_test");
+        }
+    }
+
+
+    @Test
+    public void testFunctionFromEnvironment() {
+        AviatorMethod aviatorMethod = new AviatorMethod("constant_test");
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("constant_test", new ConstantFunction(3));
+        assertEquals(3L, aviatorMethod.invoke(env).getValue(null));
+        env.put("constant_test", new ConstantFunction(4));
+        assertEquals(4L, aviatorMethod.invoke(env).getValue(null));
+    }
 }
@@ -0,0 +1,92 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.runtime.property;
+
+import static com.googlecode.aviator.asm.Opcodes.*;
+import static org.junit.Assert.*;
+
+import java.beans.Introspector;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+import com.googlecode.aviator.asm.ClassWriter;
+import com.googlecode.aviator.asm.MethodVisitor;
+
+
+public class PropertyAccessorsUnitTest {
+
+    private static class BeanClassLoader extends ClassLoader {
+        BeanClassLoader() {
+            super(PropertyAccessorsUnitTest.class.getClassLoader());
+        }
+
+
+        Class<?> defineClass(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+
+    /**
+     * Bean class "Bean" with a "long getValue()" method returning 42
+     */
+    private static byte[] makeBeanClass() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_SUPER, "Bean", null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mv = cw.visitMethod(ACC_PUBLIC, "getValue", "()J", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(42L);
+        mv.visitInsn(LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+
+    private WeakReference<Class<?>> readBean() throws Exception {
+        Class<?> beanClass = new BeanClassLoader().defineClass("Bean", makeBeanClass());
+        PropertyAccessor accessor = PropertyAccessors.getAccessor(beanClass, "value");
+        assertSame(accessor, PropertyAccessors.getAccessor(beanClass, "value"));
+        assertEquals(42L, accessor.get(beanClass.getDeclaredConstructor().newInstance()));
+        assertTrue(PropertyAccessors.getAccessor(beanClass, "missing").isMissing());
+        // The JDK's bean info cache is not ours,only our cache is tested
+        Introspector.flushFromCaches(beanClass);
+        return new WeakReference<Class<?>>(beanClass);
+    }
+
+
+    @Test
+    public void testBeanClassUnloaded() throws Exception {
+        WeakReference<Class<?>> beanClass = readBean();
+        for (int i = 0; i < 10 && beanClass.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(beanClass.get());
+    }
+}
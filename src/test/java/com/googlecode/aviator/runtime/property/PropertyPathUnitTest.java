@@ -0,0 +1,200 @@
+package com.googlecode.aviator.runtime.property;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+import com.googlecode.aviator.exception.ExpressionRuntimeException;
+
+
+public class PropertyPathUnitTest {
+
+    public static class Customer {
+        private final String tier;
+        private final int age;
+        private final boolean vip;
+        private final Map<String, Object> tags = new HashMap<String, Object>();
+
+
+        public Customer(String tier, int age, boolean vip) {
+            super();
+            this.tier = tier;
+            this.age = age;
+            this.vip = vip;
+        }
+
+
+        public String getTier() {
+            return tier;
+        }
+
+
+        public int getAge() {
+            return age;
+        }
+
+
+        public boolean isVip() {
+            return vip;
+        }
+
+
+        public Map<String, Object> getTags() {
+            return tags;
+        }
+    }
+
+    public static class Order {
+        private final Customer customer;
+
+
+        public Order(Customer customer) {
+            super();
+            this.customer = customer;
+        }
+
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    public static interface Named {
+        public String getName();
+    }
+
+    // Not public,accessed through public interface
+    private static class HiddenNamed implements Named {
+        public String getName() {
+            return "hidden";
+        }
+    }
+
+
+    private Map<String, Object> createEnv(Object order) {
+        Map<String, Object> env = new HashMap<String, Object>();
+        env.put("order", order);
+        return env;
+    }
+
+
+    @Test
+    public void testBeanProperties() throws Exception {
+        Customer customer = new Customer("gold", 30, true);
+        customer.getTags().put("region", "east");
+        Map<String, Object> env = createEnv(new Order(customer));
+
+        assertEquals("gold", new PropertyPath("order.customer.tier").getValue(env));
+        assertEquals(30, new PropertyPath("order.customer.age").getValue(env));
+        assertEquals(Boolean.TRUE, new PropertyPath("order.customer.vip").getValue(env));
+        assertEquals("east", new PropertyPath("order.customer.tags.region").getValue(env));
+        assertNull(new PropertyPath("order.customer.tags.none").getValue(env));
+    }
+
+
+    @Test
+    public void testNestedMaps() throws Exception {
+        Map<String, Object> customer = new HashMap<String, Object>();
+        customer.put("tier", "silver");
+        Map<String, Object> order = new HashMap<String, Object>();
+        order.put("customer", customer);
+        assertEquals("silver", new PropertyPath("order.customer.tier").getValue(createEnv(order)));
+    }
+
+
+    @Test
+    public void testPolymorphicPath() throws Exception {
+        PropertyPath path = new PropertyPath("order.customer.tier");
+        Map<String, Object> mapCustomer = new HashMap<String, Object>();
+        mapCustomer.put("tier", "silver");
+        Map<String, Object> mapOrder = new HashMap<String, Object>();
+        mapOrder.put("customer", new Customer("gold", 1, false));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("gold", path.getValue(createEnv(new Order(new Customer("gold", 1, false)))));
+            assertEquals("gold", path.getValue(createEnv(mapOrder)));
+            mapOrder.put("customer", mapCustomer);
+            assertEquals("silver", path.getValue(createEnv(mapOrder)));
+            mapOrder.put("customer", new Customer("gold", 1, false));
+        }
+    }
+
+
+    @Test
+    public void testGeneratedAccessor() throws Exception {
+        PropertyAccessor accessor = PropertyAccessors.getAccessor(Customer.class, "tier");
+        assertTrue(accessor.getClass().getName().startsWith("AviatorPropertyAccessor_"));
+        assertSame(accessor, PropertyAccessors.getAccessor(Customer.class, "tier"));
+        assertEquals("gold", accessor.get(new Customer("gold", 1, false)));
+
+        accessor = PropertyAccessors.getAccessor(HiddenNamed.class, "name");
+        assertEquals("hidden", accessor.get(new HiddenNamed()));
+    }
+
+
+    @Test(expected = ExpressionRuntimeException.class)
+    public void testNullProperty() throws Exception {
+        new PropertyPath("order.customer.tier").getValue(createEnv(new Order(null)));
+    }
+
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testNoSuchProperty() throws Exception {
+        new PropertyPath("order.customer.none").getValue(createEnv(new Order(new Customer("gold", 1, false))));
+    }
+
+
+    @Test
+    public void testExecute() {
+        Map<String, Object> env = createEnv(new Order(new Customer("gold", 30, false)));
+        assertEquals(Boolean.TRUE, AviatorEvaluator.execute(
+            "order.customer.tier == 'gold' && order.customer.age > 18 && !order.customer.vip", env));
+        try {
+            AviatorEvaluator.execute("order.customer.tier == 'gold'", createEnv(new Order(null)));
+            fail();
+        }
+        catch (ExpressionRuntimeException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testNilSafeNavigation() throws Exception {
+        AviatorEvaluator.setNilSafeNavigation(true);
+        try {
+            assertNull(new PropertyPath("order.customer.tier").getValue(createEnv(new Order(null))));
+            assertNull(new PropertyPath("order.customer.tier").getValue(createEnv(null)));
+            assertNull(new PropertyPath("order.customer.none.tier").getValue(createEnv(new Order(new Customer(
+                "gold", 1, false)))));
+            assertEquals("gold", new PropertyPath("order.customer.tier").getValue(createEnv(new Order(new Customer(
+                "gold", 1, false)))));
+
+            for (int optimize : new int[] { AviatorEvaluator.COMPILE, AviatorEvaluator.EVAL,
+                                           AviatorEvaluator.INTERPRET }) {
+                AviatorEvaluator.setOptimize(optimize);
+                Map<String, Object> env = createEnv(new Order(null));
+                assertEquals(Boolean.TRUE, AviatorEvaluator.execute("order.customer.tier == nil", env));
+                assertEquals(Boolean.FALSE, AviatorEvaluator.execute("order.customer.tier == 'gold'", env));
+                assertEquals(Boolean.TRUE, AviatorEvaluator.execute("order.customer.age < 18", env));
+                assertEquals(Boolean.TRUE, AviatorEvaluator.execute("order.customer.none == nil", createEnv(new Order(
+                    new Customer("gold", 1, false)))));
+            }
+        }
+        finally {
+            AviatorEvaluator.setNilSafeNavigation(false);
+            AviatorEvaluator.setOptimize(AviatorEvaluator.EVAL);
+        }
+        try {
+            AviatorEvaluator.execute("order.customer.none == nil", createEnv(new Order(new Customer("gold", 1, false))));
+            fail();
+        }
+        catch (ExpressionRuntimeException e) {
+            // expected
+        }
+    }
+}
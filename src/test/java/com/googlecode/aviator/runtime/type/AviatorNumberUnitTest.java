@@ -25,6 +25,7 @@ import java.util.Map;
 
 import org.junit.Test;
 
+import com.googlecode.aviator.AviatorEvaluator;
 import com.googlecode.aviator.exception.ExpressionRuntimeException;
 
 
@@ -436,4 +437,35 @@ public class AviatorNumberUnitTest {
         assertEquals(-3L, n.neg(null).getValue(null));
     }
 
+
+
+    @Test
+    public void testLongValueOfCache() {
+        assertSame(AviatorLong.valueOf(-128), AviatorLong.valueOf(-128));
+        assertSame(AviatorLong.valueOf(127), AviatorNumber.valueOf(127));
+        assertNotSame(AviatorLong.valueOf(128), AviatorLong.valueOf(128));
+        assertEquals(128L, AviatorLong.valueOf(128).longValue());
+        assertEquals(-129L, AviatorLong.valueOf(-129).longValue());
+    }
+
+
+    @Test
+    public void testGetValueBoxesLazily() {
+        assertEquals(Long.valueOf(3), AviatorLong.valueOf(3).getValue(null));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), new AviatorLong(Long.MAX_VALUE).getValue(null));
+        assertEquals(Double.valueOf(3.5), new AviatorDouble(3.5).getValue(null));
+        assertEquals(Long.valueOf(5), AviatorLong.valueOf(2).add(AviatorLong.valueOf(3), null).getValue(null));
+        assertEquals("a3", new AviatorString("a").add(AviatorLong.valueOf(3), null).getValue(null));
+        assertEquals("3a", AviatorLong.valueOf(3).add(new AviatorString("a"), null).getValue(null));
+    }
+
+
+    @Test
+    public void testGetValueKeepsBoxedType() {
+        assertEquals(Integer.valueOf(3), new AviatorLong(Integer.valueOf(3)).getValue(null));
+        assertEquals(Float.valueOf(1.5f), new AviatorDouble(Float.valueOf(1.5f)).getValue(null));
+        assertEquals(3L, new AviatorLong(Integer.valueOf(3)).longValue());
+        assertEquals(Long.valueOf(4), new AviatorLong(Integer.valueOf(3)).add(AviatorLong.valueOf(1), null).getValue(null));
+        assertEquals(Integer.valueOf(5), AviatorEvaluator.execute("string.length('hello')"));
+    }
 }
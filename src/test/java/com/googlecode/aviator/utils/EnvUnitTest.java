@@ -0,0 +1,104 @@
+/**
+ *  Copyright (C) 2010 dennis zhuang (killme2008@gmail.com)
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU Lesser General Public License as published
+ *  by the Free Software Foundation; either version 2.1 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ *
+ **/
+package com.googlecode.aviator.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.aviator.AviatorEvaluator;
+
+
+public class EnvUnitTest {
+    private Map<String, Object> defaults;
+    private Map<String, Object> functions;
+    private Env env;
+
+
+    @Before
+    public void setUp() {
+        this.defaults = new HashMap<String, Object>();
+        this.defaults.put("a", 1);
+        this.defaults.put("n", null);
+        this.functions = new HashMap<String, Object>();
+        this.functions.put("f", "function");
+        this.env = new Env(this.defaults, this.functions);
+    }
+
+
+    @Test
+    public void testReadThrough() {
+        assertEquals(1, this.env.get("a"));
+        assertEquals("function", this.env.get("f"));
+        assertNull(this.env.get("n"));
+        assertNull(this.env.get("not_exists"));
+        assertTrue(this.env.containsKey("a"));
+        assertTrue(this.env.containsKey("n"));
+        assertTrue(this.env.containsKey("f"));
+        assertFalse(this.env.containsKey("not_exists"));
+        assertEquals(3, this.env.size());
+    }
+
+
+    @Test
+    public void testVariableFirst() {
+        this.defaults.put("f", "variable");
+        assertEquals("variable", this.env.get("f"));
+    }
+
+
+    @Test
+    public void testWriteToOverrides() {
+        assertEquals(1, this.env.put("a", 2));
+        this.env.put("$0", "group");
+        assertEquals(2, this.env.get("a"));
+        assertEquals("group", this.env.get("$0"));
+        // caller's map is untouched
+        assertEquals(1, this.defaults.get("a"));
+        assertFalse(this.defaults.containsKey("$0"));
+        assertFalse(this.functions.containsKey("$0"));
+
+        assertEquals(2, this.env.remove("a"));
+        assertEquals(1, this.env.get("a"));
+    }
+
+
+    @Test
+    public void testNullDefaults() {
+        Env nullEnv = new Env(null, this.functions);
+        assertNull(nullEnv.get("a"));
+        assertEquals("function", nullEnv.get("f"));
+        nullEnv.put("a", 3);
+        assertEquals(3, nullEnv.get("a"));
+    }
+
+
+    @Test
+    public void testExecuteNotModifyCallerEnv() {
+        Map<String, Object> callerEnv = new HashMap<String, Object>();
+        callerEnv.put("email", "killme2008@gmail.com");
+        assertEquals("killme2008", AviatorEvaluator.execute(
+            "email=~/([\\w0-8]+)@\\w+[\\.\\w+]+/ ? $1:'unknow'", callerEnv));
+        assertEquals(1, callerEnv.size());
+    }
+}